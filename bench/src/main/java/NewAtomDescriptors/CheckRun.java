@@ -0,0 +1,106 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// One run of NewAtomDescriptors for the output checks. The input (the benchmark corpus if none is given)
+// is copied to a directory of its own, since the output is written next to the input file.
+// The output files are kept until delete().
+class CheckRun {
+
+	private final File directory;
+	private final File input;
+
+	CheckRun(File input, String[] options) throws Exception {
+		directory = File.createTempFile("newatomdescriptorscheck", "");
+		directory.delete();
+		directory.mkdir();
+		this.input = new File(directory, "input.sdf");
+		copy((input == null) ? CheckRun.class.getResourceAsStream("corpus.sdf") : new FileInputStream(input), this.input);
+		String[] arguments = Arrays.copyOf(options, options.length + 1);
+		arguments[options.length] = this.input.getPath();
+		NewAtomDescriptors.main(arguments);
+	}
+
+	// the output file with the given extension, csv or afbd
+	File getOutput(String extension) {
+		return new File(input.getPath() + "_newatomdescriptors." + extension);
+	}
+
+	List<String> getCsvLines() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(getOutput("csv")));
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) lines.add(line);
+		reader.close();
+		return lines;
+	}
+
+	void delete() {
+		for (File file : directory.listFiles()) file.delete();
+		directory.delete();
+	}
+
+	// the CSV lines of a run, the files are deleted
+	static List<String> csvLines(File input, String[] options) throws Exception {
+		CheckRun run = new CheckRun(input, options);
+		try {
+			return run.getCsvLines();
+		} finally {
+			run.delete();
+		}
+	}
+
+	// the first line that differs, null if there is none
+	static String firstDifference(List<String> expected, List<String> actual) {
+		for (int lineIndex = 0; lineIndex < Math.min(expected.size(), actual.size()); lineIndex++) {
+			if (!expected.get(lineIndex).equals(actual.get(lineIndex))) {
+				return "line " + (lineIndex + 1) + ": " + expected.get(lineIndex) + " != " + actual.get(lineIndex);
+			}
+		}
+		if (expected.size() != actual.size()) return expected.size() + " lines != " + actual.size() + " lines";
+		return null;
+	}
+
+	private static void copy(InputStream in, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		byte[] buffer = new byte[1 << 16];
+		for (int read = in.read(buffer); read > 0; read = in.read(buffer)) out.write(buffer, 0, read);
+		out.close();
+		in.close();
+	}
+
+}
@@ -0,0 +1,107 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Parity check of --columns: only the descriptors of the chosen columns are computed, and the CDK descriptors
+// of a fragment share its container, so leaving one out must not change another. Describes an SD file
+// (the benchmark corpus by default) with all the fragment columns, then with each column alone and with
+// all but each column, and stops with exit code 1 at the first value that is not the one of the full run.
+// Run by mvn verify in this module.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.ColumnSubsetCheck [file.sdf]
+public class ColumnSubsetCheck {
+
+	public static void main(String[] arguments) throws Exception {
+		File input = (arguments.length > 0) ? new File(arguments[0]) : null;
+		List<String> columns = new ArrayList<String>();
+		for (NEWDESC_PROPERTY property : NEWDESC_PROPERTY.values()) {
+			if (property.name().startsWith("Mol_") || property.name().startsWith("Branch_")) columns.add(property.getColumnName());
+		}
+		List<String[]> full = rows(CheckRun.csvLines(input, new String[] {"--columns", join(columns)}));
+		int runs = 0;
+		for (String column : columns) {
+			List<String> alone = new ArrayList<String>();
+			alone.add(column);
+			check(input, full, alone);
+			List<String> others = new ArrayList<String>(columns);
+			others.remove(column);
+			check(input, full, others);
+			runs += 2;
+		}
+		System.out.println("Every column has the values of the full run in " + runs + " runs with subsets of the " + columns.size()
+				+ " fragment columns, " + (full.size() - 1) + " rows");
+	}
+
+	private static void check(File input, List<String[]> full, List<String> subset) throws Exception {
+		List<String[]> rows = rows(CheckRun.csvLines(input, new String[] {"--columns", join(subset)}));
+		String[] fullHeader = full.get(0);
+		String[] header = rows.get(0);
+		int[] fullFields = new int[header.length];
+		for (int field = 0; field < header.length; field++) {
+			for (int fullField = 0; fullField < fullHeader.length; fullField++) {
+				if (fullHeader[fullField].equals(header[field])) fullFields[field] = fullField;
+			}
+		}
+		String difference = null;
+		if (rows.size() != full.size()) difference = (rows.size() - 1) + " rows instead of " + (full.size() - 1);
+		for (int row = 1; row < rows.size() && difference == null; row++) {
+			for (int field = 0; field < header.length; field++) {
+				String value = rows.get(row)[field];
+				String fullValue = full.get(row)[fullFields[field]];
+				if (!value.equals(fullValue)) {
+					difference = header[field] + " of molecule " + full.get(row)[0] + " atom " + full.get(row)[1] + " is " + value + " instead of " + fullValue;
+					break;
+				}
+			}
+		}
+		if (difference != null) {
+			System.err.println("Output with --columns " + join(subset) + " differs from the full run: " + difference);
+			System.exit(1);
+		}
+	}
+
+	private static List<String[]> rows(List<String> lines) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : lines) rows.add(line.split(","));
+		return rows;
+	}
+
+	private static String join(List<String> columns) {
+		StringBuilder joined = new StringBuilder();
+		for (String column : columns) {
+			if (joined.length() > 0) joined.append(',');
+			joined.append(column);
+		}
+		return joined.toString();
+	}
+
+}
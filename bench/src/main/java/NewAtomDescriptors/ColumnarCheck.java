@@ -0,0 +1,116 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Round trip of the columnar output: describes an SD file (the benchmark corpus by default) as CSV and
+// with --format columnar, with the default columns and with chosen ones, reads the .afbd file back with
+// ColumnarDescriptorReader and stops with exit code 1 at the first row or value that is not the one in
+// the CSV output. Floats are compared to the two decimals of the CSV. Run by mvn verify in this module.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.ColumnarCheck [file.sdf]
+public class ColumnarCheck {
+
+	private static final String[][] COLUMN_OPTIONS = {
+		{},
+		{"--columns", "Mol_TPSA,Branch_rotablebonds,Branch_logP"}
+	};
+
+	public static void main(String[] arguments) throws Exception {
+		File input = (arguments.length > 0) ? new File(arguments[0]) : null;
+		for (String[] options : COLUMN_OPTIONS) {
+			List<String> csv = CheckRun.csvLines(input, options);
+			String[] columnarOptions = Arrays.copyOf(options, options.length + 2);
+			columnarOptions[options.length] = "--format";
+			columnarOptions[options.length + 1] = "columnar";
+			CheckRun columnar = new CheckRun(input, columnarOptions);
+			String difference;
+			try {
+				difference = firstDifference(csv, new ColumnarDescriptorReader(columnar.getOutput("afbd")));
+			} finally {
+				columnar.delete();
+			}
+			if (difference != null) {
+				System.err.println("Columnar output with " + Arrays.toString(options) + " differs from the CSV output: " + difference);
+				System.exit(1);
+			}
+			System.out.println("Columnar output with " + Arrays.toString(options) + " reads back as the CSV output, " + (csv.size() - 1) + " rows");
+		}
+	}
+
+	private static String firstDifference(List<String> csv, ColumnarDescriptorReader reader) throws Exception {
+		try {
+			String[] header = csv.get(0).split(",");
+			int[] columns = new int[header.length];
+			for (int field = 2; field < header.length; field++) {
+				columns[field] = reader.getColumnIndex(NEWDESC_PROPERTY.forColumnName(header[field]));
+				if (columns[field] < 0) return "no column " + header[field];
+			}
+			int line = 0;
+			for (int rowGroupIndex = 0; rowGroupIndex < reader.getRowGroupCount(); rowGroupIndex++) {
+				ColumnarDescriptorReader.RowGroup rowGroup = reader.getRowGroup(rowGroupIndex);
+				for (int row = 0; row < rowGroup.getRowCount(); row++) {
+					line++;
+					if (line >= csv.size()) return "more rows than the " + (csv.size() - 1) + " CSV rows";
+					String[] fields = csv.get(line).split(",");
+					if (Integer.parseInt(fields[0]) != rowGroup.getMoleculeIndex(row) || !fields[1].equals(rowGroup.getAtomID(row))) {
+						return "row " + line + " is atom " + rowGroup.getAtomID(row) + " of molecule " + rowGroup.getMoleculeIndex(row) + ", not " + fields[1] + " of " + fields[0];
+					}
+					for (int field = 2; field < header.length; field++) {
+						if (!sameValue(fields[field], rowGroup, columns[field], row, reader.getColumnType(columns[field]))) {
+							return header[field] + " of row " + line + ": " + fields[field] + " in the CSV, " + rowGroup.getDouble(columns[field], row) + " in the columnar output";
+						}
+					}
+				}
+			}
+			if (line != csv.size() - 1) return line + " rows != " + (csv.size() - 1) + " CSV rows";
+			return null;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static boolean sameValue(String text, ColumnarDescriptorReader.RowGroup rowGroup, int column, int row, ColumnType type) {
+		if (type == ColumnType.INT32) return Integer.parseInt(text) == rowGroup.getInt(column, row);
+		double value = rowGroup.getFloat(column, row);
+		double csvValue;
+		try {
+			csvValue = Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			//DecimalFormat writes NaN with its own symbol
+			csvValue = Double.NaN;
+		}
+		if (Double.isNaN(value) || Double.isNaN(csvValue)) return Double.isNaN(value) && Double.isNaN(csvValue);
+		//the CSV has two decimals, the float about seven digits
+		return Math.abs(value - csvValue) <= 0.005 + 1e-6 * Math.abs(csvValue);
+	}
+
+}
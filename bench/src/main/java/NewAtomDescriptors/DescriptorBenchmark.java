@@ -0,0 +1,267 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.Molecule;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.iterator.IteratingMDLReader;
+
+// JMH benchmarks of the stages of MoleculeKU and the whole per-molecule path on an SDF corpus
+// (corpus.sdf next to this class by default, small peptides of about 10, 30, 80 and 200 heavy atoms),
+// with the molecules grouped by heavy atom count in the atoms parameter.
+// Every call gets a fresh MoleculeKU of the next molecule of its size with the stages it depends on
+// already done (the Level.Invocation states below), only the stage itself is measured.
+//
+// build with mvn package and run with
+// java -jar bench/target/benchmarks.jar -prof gc [DescriptorBenchmark.name] [-p atoms=80] [-p options="--kernels native"] [-p corpus=file.sdf]
+// -prof gc adds the bytes allocated per operation (gc.alloc.rate.norm) to the operations per second,
+// these include the bytes of the setup, which the setup_ benchmarks measure on their own;
+// options are the run options of NewAtomDescriptors (--kernels, --distance-engine, --legacy-topology, ...)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DescriptorBenchmark {
+
+	// molecules are put in the bucket closest to their heavy atom count
+	private static final int[] SIZE_BUCKETS = {10, 30, 80, 200};
+
+	// the molecules of one size bucket, read and standardised once per fork
+	@State(Scope.Thread)
+	public static class Corpus {
+
+		@Param({"10", "30", "80", "200"})
+		public int atoms;
+
+		// run options, separated by spaces
+		@Param({""})
+		public String options;
+
+		// an SDF file instead of the bundled corpus
+		@Param({""})
+		public String corpus;
+
+		DescriptorSettings settings;
+		final List<Molecule> molecules = new ArrayList<Molecule>();
+		final List<IAtomContainer> standardised = new ArrayList<IAtomContainer>();
+		private int next = 0;
+
+		@Setup(Level.Trial)
+		public void read() throws Exception {
+			Locale.setDefault(new Locale("en", "US"));
+			String trimmed = options.trim();
+			settings = RunOptions.parse(trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+")).getSettings();
+			InputStream in = corpus.isEmpty() ? DescriptorBenchmark.class.getResourceAsStream("corpus.sdf") : new FileInputStream(corpus);
+			IteratingMDLReader reader = new IteratingMDLReader(in, DefaultChemObjectBuilder.getInstance());
+			while (reader.hasNext()) {
+				Molecule molecule = (Molecule) reader.next();
+				IAtomContainer standardisedMolecule = NewAtomDescriptors.standardise(molecule, settings.getStats());
+				if (SIZE_BUCKETS[closestBucket(standardisedMolecule.getAtomCount())] != atoms) continue;
+				molecules.add(molecule);
+				standardised.add(standardisedMolecule);
+			}
+			reader.close();
+			if (molecules.isEmpty()) throw new IllegalStateException("No molecules of about " + atoms + " heavy atoms in the corpus");
+		}
+
+		// the molecules are used in turn
+		int nextIndex() {
+			int index = next;
+			next = (next + 1) % molecules.size();
+			return index;
+		}
+	}
+
+	// The next molecule, and what the stages before a benchmarked one leave behind, set up before every call.
+	// The subclasses do more of the stages in prepare.
+	@State(Scope.Thread)
+	public static class Next {
+		Molecule molecule;
+		IAtomContainer standardised;
+		MoleculeKU moleculeKU;
+		int[] endOfMoleculeAtoms;
+		int[] endOfBranchAtoms;
+		IAtomContainer[] fragments;
+
+		@Setup(Level.Invocation)
+		public void next(Corpus corpus) throws Exception {
+			int index = corpus.nextIndex();
+			molecule = corpus.molecules.get(index);
+			standardised = corpus.standardised.get(index);
+			prepare(corpus.settings);
+		}
+
+		void prepare(DescriptorSettings settings) throws Exception {
+		}
+
+		@TearDown(Level.Invocation)
+		public void release() {
+			if (moleculeKU != null) moleculeKU.releaseTopology();
+			moleculeKU = null;
+			fragments = null;
+		}
+	}
+
+	// a new MoleculeKU
+	@State(Scope.Thread)
+	public static class Fresh extends Next {
+		void prepare(DescriptorSettings settings) throws Exception {
+			moleculeKU = new MoleculeKU(standardised, settings);
+		}
+	}
+
+	// a MoleculeKU with its relative span
+	@State(Scope.Thread)
+	public static class Spanned extends Fresh {
+		void prepare(DescriptorSettings settings) throws Exception {
+			super.prepare(settings);
+			moleculeKU.calculateRelativeSpan();
+		}
+	}
+
+	// a MoleculeKU with its symmetry numbers and the atoms at the ends of the molecule and of the branches
+	@State(Scope.Thread)
+	public static class EndAtoms extends Spanned {
+		void prepare(DescriptorSettings settings) throws Exception {
+			super.prepare(settings);
+			moleculeKU.setSymmetryNumbers();
+			endOfMoleculeAtoms = moleculeKU.findAtomsatEndOfMolecule();
+			endOfBranchAtoms = moleculeKU.findAtomsatEndOfBranch();
+		}
+	}
+
+	// and the end of molecule fragments of all its atoms
+	@State(Scope.Thread)
+	public static class MolFragments extends EndAtoms {
+		void prepare(DescriptorSettings settings) throws Exception {
+			super.prepare(settings);
+			fragments = moleculeKU.getAtoms2EndOfMolMolecules(endOfMoleculeAtoms, "Mol");
+		}
+	}
+
+	@Benchmark
+	public IAtomContainer standardise(Next next, Corpus corpus) throws Exception {
+		return Standardiser.forThread().standardise(next.molecule, corpus.settings.getStats());
+	}
+
+	@Benchmark
+	public MoleculeKU calculateRelativeSpan(Fresh fresh) throws Exception {
+		fresh.moleculeKU.calculateRelativeSpan();
+		return fresh.moleculeKU;
+	}
+
+	@Benchmark
+	public MoleculeKU setSymmetryNumbers(Fresh fresh) throws Exception {
+		fresh.moleculeKU.setSymmetryNumbers();
+		return fresh.moleculeKU;
+	}
+
+	@Benchmark
+	public int[] findAtomsatEndOfMolecule(Spanned spanned) throws Exception {
+		return spanned.moleculeKU.findAtomsatEndOfMolecule();
+	}
+
+	@Benchmark
+	public int[] findAtomsatEndOfBranch(Spanned spanned) throws Exception {
+		return spanned.moleculeKU.findAtomsatEndOfBranch();
+	}
+
+	@Benchmark
+	public IAtomContainer[] getAtoms2EndOfMolMolecules_Mol(EndAtoms endAtoms) throws Exception {
+		return endAtoms.moleculeKU.getAtoms2EndOfMolMolecules(endAtoms.endOfMoleculeAtoms, "Mol");
+	}
+
+	@Benchmark
+	public IAtomContainer[] getAtoms2EndOfMolMolecules_Branch(EndAtoms endAtoms) throws Exception {
+		return endAtoms.moleculeKU.getAtoms2EndOfMolMolecules(endAtoms.endOfBranchAtoms, "Branch");
+	}
+
+	@Benchmark
+	public void FragmentRotableBondsCount(MolFragments molFragments, Blackhole blackhole) {
+		for (IAtomContainer fragment : molFragments.fragments) {
+			if (fragment != null) blackhole.consume(molFragments.moleculeKU.FragmentRotableBondsCount(fragment));
+		}
+	}
+
+	@Benchmark
+	public MoleculeKU describeMolecule(Next next, Corpus corpus) throws Exception {
+		return NewAtomDescriptors.describeMolecule(next.molecule, corpus.settings);
+	}
+
+	// only the setup of the other benchmarks, their allocation is part of the others' gc.alloc.rate.norm
+
+	@Benchmark
+	public MoleculeKU setup_Fresh(Fresh fresh) {
+		return fresh.moleculeKU;
+	}
+
+	@Benchmark
+	public MoleculeKU setup_Spanned(Spanned spanned) {
+		return spanned.moleculeKU;
+	}
+
+	@Benchmark
+	public MoleculeKU setup_EndAtoms(EndAtoms endAtoms) {
+		return endAtoms.moleculeKU;
+	}
+
+	@Benchmark
+	public IAtomContainer[] setup_MolFragments(MolFragments molFragments) {
+		return molFragments.fragments;
+	}
+
+	private static int closestBucket(int heavyAtoms) {
+		int closest = 0;
+		for (int bucket = 1; bucket < SIZE_BUCKETS.length; bucket++) {
+			if (Math.abs(SIZE_BUCKETS[bucket] - heavyAtoms) < Math.abs(SIZE_BUCKETS[closest] - heavyAtoms)) closest = bucket;
+		}
+		return closest;
+	}
+
+}
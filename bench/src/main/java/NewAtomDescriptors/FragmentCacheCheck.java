@@ -0,0 +1,59 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+// Parity check of the fragment cache: describes an SD file (the benchmark corpus by default) without
+// the cache and then with it, large, small enough to evict, and shared by worker threads, and stops
+// with exit code 1 at the first CSV line that differs. Run by mvn verify in this module.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.FragmentCacheCheck [file.sdf]
+public class FragmentCacheCheck {
+
+	private static final String[][] CACHED_OPTIONS = {
+		{"--fragment-cache", "100000"},
+		{"--fragment-cache", "8"},
+		{"--fragment-cache", "100000", "--threads", "4"}
+	};
+
+	public static void main(String[] arguments) throws Exception {
+		File input = (arguments.length > 0) ? new File(arguments[0]) : null;
+		List<String> uncached = CheckRun.csvLines(input, new String[0]);
+		for (String[] options : CACHED_OPTIONS) {
+			List<String> cached = CheckRun.csvLines(input, options);
+			String difference = CheckRun.firstDifference(uncached, cached);
+			if (difference != null) {
+				System.err.println("Output with " + Arrays.toString(options) + " differs from the output without the cache: " + difference);
+				System.exit(1);
+			}
+			System.out.println("Same output with " + Arrays.toString(options) + ", " + cached.size() + " lines");
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Random;
+
+import org.openscience.cdk.Atom;
+import org.openscience.cdk.AtomContainer;
+import org.openscience.cdk.Bond;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Randomized equivalence check of FragmentSweep against the loop it replaces (MoleculeKU.collectFragmentAtoms):
+// random carbon skeletons of up to 20 or 90 atoms, trees with a few ring bonds, one in ten of them in
+// several pieces, with the end of molecule atoms, the end of branch atoms or a random set of atoms as
+// the end atoms. For every atom the fragments towards every end atom, and towards a third of the other
+// atoms, must have the same atoms, else it stops with exit code 1 and the graph that differs.
+// Run by mvn verify in this module with the default number of graphs.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.FragmentSweepCheck [graphs] [seed]
+public class FragmentSweepCheck {
+
+	public static void main(String[] arguments) throws Exception {
+		int graphs = (arguments.length > 0) ? Integer.parseInt(arguments[0]) : 2000;
+		long seed = (arguments.length > 1) ? Long.parseLong(arguments[1]) : 42;
+		Random random = new Random(seed);
+		long fragments = 0;
+		for (int graph = 0; graph < graphs; graph++) {
+			IAtomContainer molecule = randomMolecule(random, (graph % 2 == 0) ? 20 : 90);
+			MoleculeKU moleculeKU = new MoleculeKU(molecule);
+			moleculeKU.calculateRelativeSpan();
+			DistanceMatrix distances = moleculeKU.getDistanceMatrix();
+			double[] relSpan = moleculeKU.getResult().getDoubles(NEWDESC_PROPERTY.RelSpan);
+			int atomCount = molecule.getAtomCount();
+			int[] endAtoms;
+			if (graph % 3 == 0) endAtoms = moleculeKU.findAtomsatEndOfMolecule();
+			else if (graph % 3 == 1) endAtoms = moleculeKU.findAtomsatEndOfBranch();
+			else {
+				endAtoms = new int[atomCount];
+				for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) endAtoms[atomIndex] = (random.nextInt(4) == 0) ? 1 : 0;
+			}
+
+			FragmentSweep sweep = new FragmentSweep(distances, relSpan, endAtoms);
+			Fragment loopFragment = new Fragment(atomCount);
+			Fragment sweepFragment = new Fragment(atomCount);
+			for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+				for (int endAtom = 0; endAtom < atomCount; endAtom++) {
+					if (endAtoms[endAtom] != 1 && random.nextInt(3) != 0) continue;
+					loopFragment.clear();
+					sweepFragment.clear();
+					moleculeKU.collectFragmentAtoms(atomIndex, endAtom, endAtoms, distances, loopFragment);
+					sweep.collect(atomIndex, endAtom, sweepFragment);
+					fragments++;
+					if (!loopFragment.sameAtoms(sweepFragment)) {
+						System.err.println("FragmentSweep and the loop differ in graph " + (graph + 1) + " (seed " + seed + ") of " + atomCount
+								+ " atoms, " + bondList(molecule) + ", for atom " + (atomIndex + 1) + " towards atom " + (endAtom + 1)
+								+ ": " + loopFragment.size() + " atoms from the loop, " + sweepFragment.size() + " from the sweep");
+						System.exit(1);
+					}
+				}
+			}
+		}
+		System.out.println("FragmentSweep and the loop agree on " + fragments + " fragments of " + graphs + " random graphs (seed " + seed + ")");
+	}
+
+	// a random tree of carbons with up to two extra (ring) bonds, one in ten with some tree bonds left out
+	private static IAtomContainer randomMolecule(Random random, int maxAtoms) {
+		IAtomContainer molecule = new AtomContainer();
+		int atomCount = 1 + random.nextInt(maxAtoms);
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) molecule.addAtom(new Atom("C"));
+		boolean disconnected = random.nextInt(10) == 0;
+		for (int atomIndex = 1; atomIndex < atomCount; atomIndex++) {
+			if (disconnected && random.nextInt(8) == 0) continue;
+			molecule.addBond(new Bond(molecule.getAtom(atomIndex), molecule.getAtom(random.nextInt(atomIndex))));
+		}
+		int ringBonds = random.nextInt(3);
+		for (int ringBond = 0; ringBond < ringBonds && atomCount > 3; ringBond++) {
+			IAtom atom0 = molecule.getAtom(random.nextInt(atomCount));
+			IAtom atom1 = molecule.getAtom(random.nextInt(atomCount));
+			if (atom0 != atom1 && molecule.getBond(atom0, atom1) == null) molecule.addBond(new Bond(atom0, atom1));
+		}
+		return molecule;
+	}
+
+	// the bonds as 1-2 2-3 ..., atoms counted from 1
+	private static String bondList(IAtomContainer molecule) {
+		StringBuilder bonds = new StringBuilder("bonds");
+		for (int bondIndex = 0; bondIndex < molecule.getBondCount(); bondIndex++) {
+			bonds.append(' ').append(molecule.getAtomNumber(molecule.getBond(bondIndex).getAtom(0)) + 1)
+					.append('-').append(molecule.getAtomNumber(molecule.getBond(bondIndex).getAtom(1)) + 1);
+		}
+		return bonds.toString();
+	}
+
+}
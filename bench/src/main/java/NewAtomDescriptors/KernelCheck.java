@@ -0,0 +1,59 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+// Parity check of the native descriptor kernels: describes an SD file (the benchmark corpus by default)
+// with the CDK descriptors, then with --kernels validate, which stops at the first fragment where the
+// kernels and CDK differ, and with the native kernels alone, sequential and with the atoms in parallel.
+// Stops with exit code 1 at the first CSV line that differs from the CDK output. Run by mvn verify in this module.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.KernelCheck [file.sdf]
+public class KernelCheck {
+
+	private static final String[][] KERNEL_OPTIONS = {
+		{"--kernels", "validate"},
+		{"--kernels", "native"},
+		{"--kernels", "native", "--parallel-atoms", "5", "--threads", "4"}
+	};
+
+	public static void main(String[] arguments) throws Exception {
+		File input = (arguments.length > 0) ? new File(arguments[0]) : null;
+		List<String> cdk = CheckRun.csvLines(input, new String[0]);
+		for (String[] options : KERNEL_OPTIONS) {
+			List<String> kernels = CheckRun.csvLines(input, options);
+			String difference = CheckRun.firstDifference(cdk, kernels);
+			if (difference != null) {
+				System.err.println("Output with " + Arrays.toString(options) + " differs from the CDK output: " + difference);
+				System.exit(1);
+			}
+			System.out.println("Same output with " + Arrays.toString(options) + ", " + kernels.size() + " lines");
+		}
+	}
+
+}
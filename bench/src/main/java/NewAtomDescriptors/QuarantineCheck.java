@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package NewAtomDescriptors;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Check of the skipping of SD records that cannot be read: the benchmark corpus with a corrupt counts line
+// in record 3 and a corrupt atom line in record 6 is described with --quarantine, streamed, scheduled and
+// memory mapped. Every run must go on after those records, quarantine them under their own numbers and give
+// the other molecules, with their numbers, as the intact corpus does. Stops with exit code 1 otherwise.
+// Run by mvn verify in this module.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.QuarantineCheck
+public class QuarantineCheck {
+
+	private static final int CORRUPT_COUNTS = 3;
+	private static final int CORRUPT_ATOM = 6;
+
+	private static final String[][] READER_OPTIONS = {
+		{},
+		{"--schedule"},
+		{"--schedule", "--threads", "4"},
+		{"--sdf-reader", "mapped"}
+	};
+
+	public static void main(String[] arguments) throws Exception {
+		File corrupt = File.createTempFile("corrupt", ".sdf");
+		File quarantine = File.createTempFile("quarantine", ".txt");
+		try {
+			writeCorrupt(corrupt);
+			List<String> expected = new ArrayList<String>();
+			for (String line : CheckRun.csvLines(null, new String[0])) {
+				String molecule = line.substring(0, line.indexOf(','));
+				if (!molecule.equals(String.valueOf(CORRUPT_COUNTS)) && !molecule.equals(String.valueOf(CORRUPT_ATOM))) expected.add(line);
+			}
+			for (String[] readerOptions : READER_OPTIONS) {
+				String[] options = Arrays.copyOf(readerOptions, readerOptions.length + 2);
+				options[readerOptions.length] = "--quarantine";
+				options[readerOptions.length + 1] = quarantine.getPath();
+				List<String> lines = CheckRun.csvLines(corrupt, options);
+				String difference = CheckRun.firstDifference(expected, lines);
+				if (difference != null) fail(options, "the output differs from the intact corpus without records " + CORRUPT_COUNTS + " and " + CORRUPT_ATOM + ": " + difference);
+				List<String> quarantined = new ArrayList<String>();
+				BufferedReader reader = new BufferedReader(new FileReader(quarantine));
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) quarantined.add(line.split("\t")[1]);
+				reader.close();
+				if (!quarantined.equals(Arrays.asList(String.valueOf(CORRUPT_COUNTS), String.valueOf(CORRUPT_ATOM)))) {
+					fail(options, "records " + quarantined + " are quarantined, not " + CORRUPT_COUNTS + " and " + CORRUPT_ATOM);
+				}
+				System.out.println("Records " + CORRUPT_COUNTS + " and " + CORRUPT_ATOM + " quarantined with " + Arrays.toString(readerOptions) + ", " + lines.size() + " lines");
+			}
+		} finally {
+			corrupt.delete();
+			quarantine.delete();
+		}
+	}
+
+	// the corpus with the counts line of one record and the first atom line of another replaced
+	private static void writeCorrupt(File file) throws Exception {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(QuarantineCheck.class.getResourceAsStream("corpus.sdf")));
+		Writer out = new FileWriter(file);
+		int record = 1;
+		int recordLine = 1;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			if (record == CORRUPT_COUNTS && recordLine == 4) line = "corrupt counts line";
+			if (record == CORRUPT_ATOM && recordLine == 5) line = "    garbage line";
+			out.write(line + "\n");
+			recordLine++;
+			if (line.startsWith("$$$$")) {
+				record++;
+				recordLine = 1;
+			}
+		}
+		out.close();
+		reader.close();
+	}
+
+	private static void fail(String[] options, String message) {
+		System.err.println("With " + Arrays.toString(options) + " " + message);
+		System.exit(1);
+	}
+
+}
@@ -0,0 +1,203 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.openscience.cdk.Atom;
+import org.openscience.cdk.AtomContainer;
+import org.openscience.cdk.Bond;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.io.iterator.IteratingMDLReader;
+
+// Parity check of RotatableBondTable against FragmentRotableBondsCount on the fragment container, the method
+// it replaces: random atom subsets, and balls of atoms around a random atom, of the standardised molecules of
+// an SD file (the benchmark corpus by default) and of random molecules of C, N, O and S with double and
+// triple bonds (carbonyls next to nitrogens give amides). Molecules the standardisation fails on are left out.
+// One in five random molecules has a few atoms without an atom type, where both must give the same count or both fail.
+// Stops with exit code 1 at the first count that differs. Run by mvn verify in this module.
+//
+// usage: java -cp bench/target/benchmarks.jar NewAtomDescriptors.RotatableBondCheck [molecules] [seed] [file.sdf]
+public class RotatableBondCheck {
+
+	private static final String[] ELEMENTS = {"C", "C", "C", "C", "N", "N", "O", "S"};
+	private static final int FRAGMENTS_PER_MOLECULE = 50;
+
+	private final Random random;
+	private final DescriptorSettings settings = new DescriptorSettings();
+	private long fragments = 0;
+	private long rotatableBonds = 0;
+	private long bothFailed = 0;
+
+	private RotatableBondCheck(Random random) {
+		this.random = random;
+	}
+
+	public static void main(String[] arguments) throws Exception {
+		int randomMolecules = (arguments.length > 0) ? Integer.parseInt(arguments[0]) : 2000;
+		long seed = (arguments.length > 1) ? Long.parseLong(arguments[1]) : 42;
+		RotatableBondCheck check = new RotatableBondCheck(new Random(seed));
+		PipelineStats stats = check.settings.getStats();
+
+		InputStream in = (arguments.length > 2) ? new FileInputStream(arguments[2]) : RotatableBondCheck.class.getResourceAsStream("corpus.sdf");
+		IteratingMDLReader reader = new IteratingMDLReader(in, DefaultChemObjectBuilder.getInstance());
+		int fileMolecules = 0;
+		while (reader.hasNext()) {
+			fileMolecules++;
+			check.check(Standardiser.forThread().standardise((IAtomContainer) reader.next(), stats), "molecule " + fileMolecules + " of the file");
+		}
+		reader.close();
+		int failed = 0;
+		for (int moleculeIndex = 0; moleculeIndex < randomMolecules; moleculeIndex++) {
+			IAtomContainer molecule = randomMolecule(check.random, (moleculeIndex % 2 == 0) ? 15 : 60);
+			try {
+				molecule = Standardiser.forThread().standardise(molecule, stats);
+			} catch (CDKException e) {
+				failed++;
+				continue;
+			}
+			//one in five loses the atom type of a few atoms, as atoms CDK cannot type
+			if (moleculeIndex % 5 == 4) {
+				for (IAtom atom : molecule.atoms()) {
+					if (check.random.nextInt(10) == 0) atom.setAtomTypeName(null);
+				}
+			}
+			check.check(molecule, "random molecule " + (moleculeIndex + 1) + " (seed " + seed + ")");
+		}
+		System.out.println("RotatableBondTable and FragmentRotableBondsCount agree on " + check.fragments + " fragments (" + check.rotatableBonds
+				+ " rotatable bonds, " + check.bothFailed + " failing on missing values in both) of " + fileMolecules + " file molecules and "
+				+ (randomMolecules - failed) + " random molecules (seed " + seed + ", " + failed + " left out by the standardisation)");
+	}
+
+	// compares the counts on random fragments of the standardised molecule, exits at the first difference
+	private void check(IAtomContainer molecule, String source) throws Exception {
+		MoleculeKU moleculeKU = new MoleculeKU(molecule, settings);
+		int atomCount = moleculeKU.getAtomCount();
+		RotatableBondTable table = new RotatableBondTable(moleculeKU);
+		for (int fragmentIndex = 0; fragmentIndex < FRAGMENTS_PER_MOLECULE; fragmentIndex++) {
+			Fragment fragment = (fragmentIndex % 2 == 0) ? randomSubset(random, atomCount) : randomBall(random, moleculeKU);
+			Integer containerCount = null;
+			Integer tableCount = null;
+			try {
+				containerCount = moleculeKU.FragmentRotableBondsCount(fragment.materialise(moleculeKU, moleculeKU.getNeighbourList()));
+			} catch (NullPointerException e) {
+			}
+			try {
+				tableCount = table.count(fragment);
+			} catch (NullPointerException e) {
+			}
+			fragments++;
+			if (containerCount == null && tableCount == null) {
+				bothFailed++;
+				continue;
+			}
+			if (containerCount == null || !containerCount.equals(tableCount)) {
+				System.err.println("RotatableBondTable and FragmentRotableBondsCount differ in " + source + " for the fragment "
+						+ atomList(fragment) + ": " + containerCount + " on the container, " + tableCount + " from the table");
+				System.exit(1);
+			}
+			rotatableBonds += containerCount;
+		}
+	}
+
+	// a random molecule of up to maxAtoms heavy atoms that keeps to the usual valences
+	private static IAtomContainer randomMolecule(Random random, int maxAtoms) {
+		IAtomContainer molecule = new AtomContainer();
+		int atomCount = 2 + random.nextInt(maxAtoms);
+		int[] freeValence = new int[atomCount];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			String element = ELEMENTS[random.nextInt(ELEMENTS.length)];
+			molecule.addAtom(new Atom(element));
+			freeValence[atomIndex] = element.equals("C") ? 4 : element.equals("N") ? 3 : 2;
+		}
+		for (int atomIndex = 1; atomIndex < atomCount; atomIndex++) {
+			int parent = random.nextInt(atomIndex);
+			if (freeValence[parent] == 0) continue;
+			int order = Math.min(randomOrder(random), Math.min(freeValence[parent], freeValence[atomIndex]));
+			addBond(molecule, parent, atomIndex, order, freeValence);
+		}
+		int ringBonds = random.nextInt(3);
+		for (int ringBond = 0; ringBond < ringBonds; ringBond++) {
+			int atom0 = random.nextInt(atomCount);
+			int atom1 = random.nextInt(atomCount);
+			if (atom0 == atom1 || freeValence[atom0] == 0 || freeValence[atom1] == 0) continue;
+			if (molecule.getBond(molecule.getAtom(atom0), molecule.getAtom(atom1)) != null) continue;
+			addBond(molecule, atom0, atom1, 1, freeValence);
+		}
+		return molecule;
+	}
+
+	private static int randomOrder(Random random) {
+		int draw = random.nextInt(20);
+		return (draw == 0) ? 3 : (draw < 5) ? 2 : 1;
+	}
+
+	private static void addBond(IAtomContainer molecule, int atom0, int atom1, int order, int[] freeValence) {
+		IBond.Order bondOrder = (order == 3) ? IBond.Order.TRIPLE : (order == 2) ? IBond.Order.DOUBLE : IBond.Order.SINGLE;
+		molecule.addBond(new Bond(molecule.getAtom(atom0), molecule.getAtom(atom1), bondOrder));
+		freeValence[atom0] -= order;
+		freeValence[atom1] -= order;
+	}
+
+	// each atom with the same random probability
+	private static Fragment randomSubset(Random random, int atomCount) {
+		Fragment fragment = new Fragment(atomCount);
+		double probability = random.nextDouble();
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			if (random.nextDouble() < probability) fragment.add(atomIndex);
+		}
+		return fragment;
+	}
+
+	// the atoms within a random distance of a random atom, connected like the real fragments
+	private static Fragment randomBall(Random random, MoleculeKU moleculeKU) {
+		int atomCount = moleculeKU.getAtomCount();
+		DistanceMatrix distances = moleculeKU.getDistanceMatrix();
+		int centre = random.nextInt(atomCount);
+		int radius = random.nextInt(6);
+		Fragment fragment = new Fragment(atomCount);
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			if (distances.getDistance(centre, atomIndex) <= radius) fragment.add(atomIndex);
+		}
+		return fragment;
+	}
+
+	// the atoms as 1,5,6 ..., counted from 1
+	private static String atomList(Fragment fragment) {
+		StringBuilder atoms = new StringBuilder("atoms");
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			atoms.append((atoms.length() == 5) ? " " : ",").append(atomIndex + 1);
+		}
+		return atoms.toString();
+	}
+
+}
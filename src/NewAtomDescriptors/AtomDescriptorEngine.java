@@ -0,0 +1,141 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+
+// Library entry point: describes molecules given as containers or SMILES and returns typed results.
+// Create one engine and keep it, it is safe to use from many threads at once. The constructor describes
+// a small molecule first, so CDK's lazily created singletons exist before several threads need them.
+// Batches are described in parallel on the engine's own worker threads, results come back in input order.
+public class AtomDescriptorEngine {
+
+	private static final String WARM_UP_SMILES = "CC(=O)Nc1ccc(O)cc1";
+
+	private final DescriptorSettings settings;
+	private final ExecutorService workers;
+	// SmilesParser is not thread safe
+	private final ThreadLocal<SmilesParser> smilesParsers = new ThreadLocal<SmilesParser>() {
+		protected SmilesParser initialValue() {
+			return new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		}
+	};
+
+	public AtomDescriptorEngine() throws CDKException {
+		this(new DescriptorSettings(), Runtime.getRuntime().availableProcessors());
+	}
+
+	// threads is the number of workers for batches
+	public AtomDescriptorEngine(DescriptorSettings settings, int threads) throws CDKException {
+		this.settings = settings;
+		describeSmiles(WARM_UP_SMILES);
+		this.workers = Executors.newFixedThreadPool(threads);
+	}
+
+	public DescriptorSettings getSettings() {
+		return settings;
+	}
+
+	// the molecule is standardised on a copy, it is not changed
+	public AtomDescriptorResult describe(IAtomContainer molecule) throws CDKException {
+		try {
+			return NewAtomDescriptors.describeMolecule(molecule, settings).getResult();
+		} catch (CDKException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new CDKException("Could not describe molecule: " + e, e);
+		}
+	}
+
+	public AtomDescriptorResult describeSmiles(String smiles) throws CDKException {
+		return describe(smilesParsers.get().parseSmiles(smiles));
+	}
+
+	// a molecule that cannot be described gives a failed result, the others are not affected
+	public List<AtomDescriptorResult> describeAll(List<? extends IAtomContainer> molecules) {
+		List<Callable<AtomDescriptorResult>> jobs = new ArrayList<Callable<AtomDescriptorResult>>();
+		for (final IAtomContainer molecule : molecules) {
+			jobs.add(new Callable<AtomDescriptorResult>() {
+				public AtomDescriptorResult call() throws CDKException {
+					return describe(molecule);
+				}
+			});
+		}
+		return run(jobs);
+	}
+
+	// a SMILES that cannot be parsed or described gives a failed result, the others are not affected
+	public List<AtomDescriptorResult> describeAllSmiles(List<String> smiles) {
+		List<Callable<AtomDescriptorResult>> jobs = new ArrayList<Callable<AtomDescriptorResult>>();
+		for (final String oneSmiles : smiles) {
+			jobs.add(new Callable<AtomDescriptorResult>() {
+				public AtomDescriptorResult call() throws CDKException {
+					return describeSmiles(oneSmiles);
+				}
+			});
+		}
+		return run(jobs);
+	}
+
+	// stops the worker threads, single molecules can still be described
+	public void close() {
+		workers.shutdown();
+	}
+
+	private List<AtomDescriptorResult> run(List<Callable<AtomDescriptorResult>> jobs) {
+		List<Future<AtomDescriptorResult>> futures = new ArrayList<Future<AtomDescriptorResult>>();
+		for (Callable<AtomDescriptorResult> job : jobs) futures.add(workers.submit(job));
+		List<AtomDescriptorResult> results = new ArrayList<AtomDescriptorResult>();
+		boolean interrupted = false;
+		for (Future<AtomDescriptorResult> future : futures) {
+			while (true) {
+				try {
+					results.add(future.get());
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					results.add(AtomDescriptorResult.failed(String.valueOf(e.getCause().getMessage())));
+					break;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		return results;
+	}
+
+}
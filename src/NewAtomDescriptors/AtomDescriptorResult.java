@@ -0,0 +1,288 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// The atom descriptors of one molecule as primitive arrays, one array per descriptor indexed by atom index.
+// MoleculeKU writes its descriptors here and the writers read them from here, no atom properties are involved.
+// The columns are the NEWDESC_PROPERTY values that have a column type (see ColumnType),
+// INT32 columns are read with getInt, FLOAT32 columns with getDouble (they keep full double precision here).
+// A missing value is Integer.MIN_VALUE or NaN.
+// A result can be reused for the next molecule with reset, the arrays only grow.
+// A failed molecule has no atoms and an error message instead.
+public class AtomDescriptorResult {
+
+	private static final NEWDESC_PROPERTY[] PROPERTIES = NEWDESC_PROPERTY.values();
+
+	private int atomCount = 0;
+	private String[] symbols = new String[0];
+	private String[] ids = new String[0];
+	private boolean[] symmetric = new boolean[0];
+	// indexed by NEWDESC_PROPERTY ordinal, null for the properties of the other type
+	private final int[][] intColumns = new int[PROPERTIES.length][];
+	private final double[][] doubleColumns = new double[PROPERTIES.length][];
+	private String error = null;
+	// fragments compared with the chosen one over all atoms, see getAlternativeCount
+	private int alternativeCount = 0;
+
+	public AtomDescriptorResult() {
+		for (NEWDESC_PROPERTY property : PROPERTIES) {
+			if (property.getColumnType() == ColumnType.INT32) intColumns[property.ordinal()] = new int[0];
+			if (property.getColumnType() == ColumnType.FLOAT32) doubleColumns[property.ordinal()] = new double[0];
+		}
+	}
+
+	static AtomDescriptorResult failed(String error) {
+		AtomDescriptorResult result = new AtomDescriptorResult();
+		result.error = error;
+		return result;
+	}
+
+	// empties the result and marks it as failed
+	void fail(String error) {
+		reset(0);
+		this.error = error;
+	}
+
+	// empties the result for a molecule of atomCount atoms, all values missing
+	public void reset(int atomCount) {
+		this.atomCount = atomCount;
+		error = null;
+		alternativeCount = 0;
+		if (symbols.length < atomCount) {
+			symbols = new String[atomCount];
+			ids = new String[atomCount];
+			symmetric = new boolean[atomCount];
+			for (int column = 0; column < PROPERTIES.length; column++) {
+				if (intColumns[column] != null) intColumns[column] = new int[atomCount];
+				if (doubleColumns[column] != null) doubleColumns[column] = new double[atomCount];
+			}
+		}
+		Arrays.fill(symbols, 0, atomCount, null);
+		Arrays.fill(ids, 0, atomCount, null);
+		Arrays.fill(symmetric, 0, atomCount, false);
+		for (int column = 0; column < PROPERTIES.length; column++) {
+			if (intColumns[column] != null) Arrays.fill(intColumns[column], 0, atomCount, Integer.MIN_VALUE);
+			if (doubleColumns[column] != null) Arrays.fill(doubleColumns[column], 0, atomCount, Double.NaN);
+		}
+	}
+
+	void setAtom(int atomIndex, String symbol, String id) {
+		symbols[atomIndex] = symbol;
+		ids[atomIndex] = id;
+	}
+
+	void setSymmetric(int atomIndex, boolean isSymmetric) {
+		symmetric[atomIndex] = isSymmetric;
+	}
+
+	void setInt(NEWDESC_PROPERTY property, int atomIndex, int value) {
+		getInts(property)[atomIndex] = value;
+	}
+
+	void setDouble(NEWDESC_PROPERTY property, int atomIndex, double value) {
+		getDoubles(property)[atomIndex] = value;
+	}
+
+	// synchronized, the atoms of a large molecule may be described in parallel (see MoleculeKU.DescribeAtoms)
+	synchronized void addAlternatives(int alternatives) {
+		alternativeCount += alternatives;
+	}
+
+	// copies all values of one atom to another, e.g. to a symmetric atom
+	void copyValues(NEWDESC_PROPERTY property, int fromAtomIndex, int toAtomIndex) {
+		int column = property.ordinal();
+		if (intColumns[column] != null) intColumns[column][toAtomIndex] = intColumns[column][fromAtomIndex];
+		if (doubleColumns[column] != null) doubleColumns[column][toAtomIndex] = doubleColumns[column][fromAtomIndex];
+	}
+
+	// copies the values and the symmetric flag of atom fromAtomIndex in other to atom toAtomIndex in this result
+	void copyAtomFrom(AtomDescriptorResult other, int fromAtomIndex, int toAtomIndex) {
+		symmetric[toAtomIndex] = other.symmetric[fromAtomIndex];
+		for (int column = 0; column < PROPERTIES.length; column++) {
+			if (intColumns[column] != null) intColumns[column][toAtomIndex] = other.intColumns[column][fromAtomIndex];
+			if (doubleColumns[column] != null) doubleColumns[column][toAtomIndex] = other.doubleColumns[column][fromAtomIndex];
+		}
+	}
+
+	// marks every atom that has the symmetry number of an atom before it, as the symmetry representatives mode does
+	void markSymmetricAtoms() {
+		int[] symmetryNumbers = getInts(NEWDESC_PROPERTY.SymmetryNumber);
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			symmetric[atomIndex] = false;
+			for (int earlierIndex = 0; earlierIndex < atomIndex; earlierIndex++) {
+				if (symmetryNumbers[earlierIndex] == symmetryNumbers[atomIndex]) {
+					symmetric[atomIndex] = true;
+					break;
+				}
+			}
+		}
+	}
+
+	// a copy with arrays of exactly getAtomCount entries, for keeping after this result is reused
+	AtomDescriptorResult copy() {
+		AtomDescriptorResult copy = new AtomDescriptorResult();
+		copy.reset(atomCount);
+		copy.error = error;
+		copy.alternativeCount = alternativeCount;
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			copy.setAtom(atomIndex, symbols[atomIndex], ids[atomIndex]);
+			copy.copyAtomFrom(this, atomIndex, atomIndex);
+		}
+		return copy;
+	}
+
+	// null if other has the same atoms and values (doubles within tolerance), else the first differences
+	public String differences(AtomDescriptorResult other, double tolerance) {
+		if (other.atomCount != atomCount) return "atom count " + atomCount + " != " + other.atomCount;
+		StringBuilder differences = new StringBuilder();
+		for (int atomIndex = 0; atomIndex < atomCount && differences.length() < 200; atomIndex++) {
+			String atom = getAtomID(atomIndex);
+			if (symmetric[atomIndex] != other.symmetric[atomIndex]) differences.append(atom).append(" IsSymmetric; ");
+			for (NEWDESC_PROPERTY property : PROPERTIES) {
+				int[] ints = intColumns[property.ordinal()];
+				double[] doubles = doubleColumns[property.ordinal()];
+				//symmetry numbers label the classes in an order that depends on the atom order, the classes are compared
+				if (property == NEWDESC_PROPERTY.SymmetryNumber) {
+					if (firstInClass(ints, atomIndex) != firstInClass(other.intColumns[property.ordinal()], atomIndex)) {
+						differences.append(atom).append(" SymmetryNumber class; ");
+					}
+					continue;
+				}
+				if (ints != null && ints[atomIndex] != other.intColumns[property.ordinal()][atomIndex]) {
+					differences.append(atom).append(' ').append(property).append(' ').append(ints[atomIndex])
+							.append(" != ").append(other.intColumns[property.ordinal()][atomIndex]).append("; ");
+				}
+				if (doubles != null && !(Math.abs(doubles[atomIndex] - other.doubleColumns[property.ordinal()][atomIndex]) <= tolerance)
+						&& !(Double.isNaN(doubles[atomIndex]) && Double.isNaN(other.doubleColumns[property.ordinal()][atomIndex]))) {
+					differences.append(atom).append(' ').append(property).append(' ').append(doubles[atomIndex])
+							.append(" != ").append(other.doubleColumns[property.ordinal()][atomIndex]).append("; ");
+				}
+			}
+		}
+		return (differences.length() == 0) ? null : differences.toString();
+	}
+
+	// the first atom with the symmetry number of atomIndex
+	private static int firstInClass(int[] symmetryNumbers, int atomIndex) {
+		int first = 0;
+		while (symmetryNumbers[first] != symmetryNumbers[atomIndex]) first++;
+		return first;
+	}
+
+	// Compatibility view: sets the values as NEWDESC_PROPERTY atom properties on the atoms of the molecule,
+	// which is where they used to be stored. Missing values are not set.
+	public void copyToAtomProperties(IAtomContainer molecule) {
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			IAtom atom = molecule.getAtom(atomIndex);
+			for (NEWDESC_PROPERTY property : PROPERTIES) {
+				int[] ints = intColumns[property.ordinal()];
+				double[] doubles = doubleColumns[property.ordinal()];
+				if (ints != null && ints[atomIndex] != Integer.MIN_VALUE) property.set(atom, ints[atomIndex]);
+				if (doubles != null && !Double.isNaN(doubles[atomIndex])) property.set(atom, doubles[atomIndex]);
+			}
+			NEWDESC_PROPERTY.IsSymmetric.set(atom, symmetric[atomIndex] ? 1 : 0);
+		}
+	}
+
+	public boolean isFailed() {
+		return error != null;
+	}
+
+	// why the molecule failed, null if it did not
+	public String getError() {
+		return error;
+	}
+
+	public int getAtomCount() {
+		return atomCount;
+	}
+
+	// How many alternative fragments (towards equally close end atoms) were compared with the chosen ones,
+	// over all atoms and both fragment kinds, a measure of how hard the molecule was. 0 for a molecule
+	// taken from the molecule cache.
+	public int getAlternativeCount() {
+		return alternativeCount;
+	}
+
+	public String getSymbol(int atomIndex) {
+		return symbols[atomIndex];
+	}
+
+	public String getID(int atomIndex) {
+		return ids[atomIndex];
+	}
+
+	// symbol.ID, as in the Atom column of the CSV output
+	public String getAtomID(int atomIndex) {
+		return symbols[atomIndex] + "." + ids[atomIndex];
+	}
+
+	// true for the atoms left out of the output in the symmetry representatives mode
+	public boolean isSymmetric(int atomIndex) {
+		return symmetric[atomIndex];
+	}
+
+	public int getInt(NEWDESC_PROPERTY property, int atomIndex) {
+		return getInts(property)[atomIndex];
+	}
+
+	public double getDouble(NEWDESC_PROPERTY property, int atomIndex) {
+		return getDoubles(property)[atomIndex];
+	}
+
+	// the column of an INT32 property, not a copy, it can be longer than getAtomCount
+	public int[] getInts(NEWDESC_PROPERTY property) {
+		int[] column = intColumns[property.ordinal()];
+		if (column == null) throw new IllegalArgumentException(property + " is not an int32 column");
+		return column;
+	}
+
+	// the column of a FLOAT32 property, not a copy, it can be longer than getAtomCount
+	public double[] getDoubles(NEWDESC_PROPERTY property) {
+		double[] column = doubleColumns[property.ordinal()];
+		if (column == null) throw new IllegalArgumentException(property + " is not a float32 column");
+		return column;
+	}
+
+	// the properties that have columns
+	public static List<NEWDESC_PROPERTY> getColumns() {
+		List<NEWDESC_PROPERTY> columns = new ArrayList<NEWDESC_PROPERTY>();
+		for (NEWDESC_PROPERTY property : PROPERTIES) {
+			if (property.getColumnType() != ColumnType.NONE) columns.add(property);
+		}
+		return columns;
+	}
+
+}
@@ -0,0 +1,151 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+// Distance computation by one breadth first search per atom over CSR neighbour lists.
+// Molecular graphs are sparse (degree <= 4-6), so this is O(n*m) instead of Floyd-Warshall's O(n^3).
+// Eccentricities and the diameter are collected during the searches.
+// Each row is searched into one reusable int row and stored in the matrix, which is packed as small
+// as the diameter allows: in a connected molecule no distance is longer than twice the eccentricity
+// of any atom, so the search from atom 0 decides it before the matrix is allocated.
+// The rows of a large molecule can be searched in parallel, see SearchRows.
+public class BFSDistanceEngine implements DistanceEngine {
+
+	private static final int ROWS_PER_TASK = 64;
+
+	public DistanceMatrix compute(IAtomContainer molecule, DistanceMatrix.Storage storage) {
+		return compute(NeighbourList.fromContainer(molecule), storage);
+	}
+
+	public static DistanceMatrix compute(NeighbourList neighbourList, DistanceMatrix.Storage storage) {
+		int atomCount = neighbourList.getAtomCount();
+		int[] row = new int[atomCount];
+		int[] eccentricities = new int[atomCount];
+		int[] queue = new int[atomCount];
+		int maxDistance = Math.max(atomCount - 1, 0);
+		if (atomCount > 0) {
+			int eccentricity = searchRow(neighbourList, 0, row, 0, queue);
+			if (eccentricity != DistanceMatrix.UNREACHABLE) maxDistance = Math.min(maxDistance, 2 * eccentricity);
+		}
+		FilledDistanceMatrix matrix = FilledDistanceMatrix.allocate(storage, atomCount, maxDistance);
+		int diameter = 0;
+		for (int source = 0; source < atomCount; source++) {
+			int eccentricity = searchRow(neighbourList, source, row, 0, queue);
+			matrix.setRow(source, row, 0);
+			eccentricities[source] = eccentricity;
+			if (eccentricity > diameter) diameter = eccentricity;
+		}
+		matrix.setEccentricities(eccentricities, diameter);
+		return matrix;
+	}
+
+	// As compute, with the rows searched on the fork/join pool of settings (see DescriptorSettings.invokeParallel).
+	// Every row is written by one task only, so the matrix is the same as from compute.
+	public static DistanceMatrix compute(NeighbourList neighbourList, DistanceMatrix.Storage storage, DescriptorSettings settings) {
+		int atomCount = neighbourList.getAtomCount();
+		int maxDistance = Math.max(atomCount - 1, 0);
+		if (atomCount > 0) {
+			int eccentricity = searchRow(neighbourList, 0, new int[atomCount], 0, new int[atomCount]);
+			if (eccentricity != DistanceMatrix.UNREACHABLE) maxDistance = Math.min(maxDistance, 2 * eccentricity);
+		}
+		FilledDistanceMatrix matrix = FilledDistanceMatrix.allocate(storage, atomCount, maxDistance);
+		int[] eccentricities = new int[atomCount];
+		settings.invokeParallel(new SearchRows(neighbourList, matrix, eccentricities, 0, atomCount));
+		int diameter = 0;
+		for (int source = 0; source < atomCount; source++) {
+			if (eccentricities[source] > diameter) diameter = eccentricities[source];
+		}
+		matrix.setEccentricities(eccentricities, diameter);
+		return matrix;
+	}
+
+	// Searches the rows from..to-1 into the matrix, split into halves down to ROWS_PER_TASK rows,
+	// each task with its own row and queue
+	private static class SearchRows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final NeighbourList neighbourList;
+		private final FilledDistanceMatrix matrix;
+		private final int[] eccentricities;
+		private final int from;
+		private final int to;
+
+		SearchRows(NeighbourList neighbourList, FilledDistanceMatrix matrix, int[] eccentricities, int from, int to) {
+			this.neighbourList = neighbourList;
+			this.matrix = matrix;
+			this.eccentricities = eccentricities;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > ROWS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SearchRows(neighbourList, matrix, eccentricities, from, middle), new SearchRows(neighbourList, matrix, eccentricities, middle, to));
+				return;
+			}
+			int atomCount = neighbourList.getAtomCount();
+			int[] row = new int[atomCount];
+			int[] queue = new int[atomCount];
+			for (int source = from; source < to; source++) {
+				eccentricities[source] = searchRow(neighbourList, source, row, 0, queue);
+				matrix.setRow(source, row, 0);
+			}
+		}
+
+	}
+
+	// fills row[rowOffset .. rowOffset+n-1] with the distances from source and returns its eccentricity,
+	// atoms that cannot be reached get DistanceMatrix.UNREACHABLE just like PathTools.computeFloydAPSP
+	public static int searchRow(NeighbourList neighbourList, int source, int[] row, int rowOffset, int[] queue) {
+		int atomCount = neighbourList.getAtomCount();
+		Arrays.fill(row, rowOffset, rowOffset + atomCount, DistanceMatrix.UNREACHABLE);
+		row[rowOffset + source] = 0;
+		queue[0] = source;
+		int head = 0;
+		int tail = 1;
+		while (head < tail) {
+			int atom = queue[head++];
+			int nextDistance = row[rowOffset + atom] + 1;
+			for (int position = neighbourList.start(atom); position < neighbourList.end(atom); position++) {
+				int neighbour = neighbourList.neighbour(position);
+				if (row[rowOffset + neighbour] == DistanceMatrix.UNREACHABLE) {
+					row[rowOffset + neighbour] = nextDistance;
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		if (tail < atomCount) return DistanceMatrix.UNREACHABLE;
+		return row[rowOffset + queue[tail - 1]];
+	}
+
+}
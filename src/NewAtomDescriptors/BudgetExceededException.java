@@ -0,0 +1,40 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+// Thrown when a molecule goes over its atom count or time budget (DescriptorSettings.getMaxAtoms and
+// getMaxSeconds). The time budget is checked between the stages and before each atom's fragments, so a
+// molecule stops soon after its time is up, but not inside a CDK call. MoleculePipeline skips the molecule
+// and goes on with the next one.
+public class BudgetExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public BudgetExceededException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,54 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+// Distances as one unsigned byte per atom pair, for molecules whose distances are all below 255.
+// 255 stands for unreachable.
+public class ByteDistanceMatrix extends FilledDistanceMatrix {
+
+	static final int UNREACHABLE_CELL = 0xFF;
+
+	private final byte[] distances;
+
+	public ByteDistanceMatrix(int atomCount) {
+		super(atomCount);
+		distances = new byte[atomCount * atomCount];
+	}
+
+	void setRow(int row, int[] rowDistances, int offset) {
+		int start = row * atomCount;
+		for (int column = 0; column < atomCount; column++) {
+			int distance = rowDistances[offset + column];
+			distances[start + column] = (byte) ((distance == UNREACHABLE) ? UNREACHABLE_CELL : distance);
+		}
+	}
+
+	public int getDistance(int atom1, int atom2) {
+		int distance = distances[atom1 * atomCount + atom2] & 0xFF;
+		return (distance == UNREACHABLE_CELL) ? UNREACHABLE : distance;
+	}
+
+}
@@ -0,0 +1,160 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Arrays;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IBond;
+
+// A canonical atom order and a canonical text key of a standardised molecule, for MoleculeResultCache.
+// Atoms start in classes of equal label (element, formal charge, implicit hydrogens, aromaticity, ring flag,
+// atom type) and degree and are refined by their neighbour classes and bonds as in RefinementPartitioner.
+// While a class has more than one atom, its lowest index atom is given a class of its own and the classes
+// are refined again, so every atom ends up in a class of its own, and the class is its canonical position.
+// The key lists the atom labels and the bonds in canonical order, it is the whole molecule and not a hash,
+// so equal keys always mean the same molecule. Symmetric atoms make the order depend on which atom is
+// picked first only in rare graphs (where refinement does not find the symmetry classes), which gives
+// different keys for the same molecule, a missed duplicate and never a wrong one.
+public class CanonicalMolecule {
+
+	private final String key;
+	// order[position] = atom index
+	private final int[] order;
+
+	private CanonicalMolecule(String key, int[] order) {
+		this.key = key;
+		this.order = order;
+	}
+
+	public static CanonicalMolecule of(MoleculeKU molecule) {
+		NeighbourList neighbourList = molecule.getNeighbourList();
+		String[] atomLabels = new String[neighbourList.getAtomCount()];
+		for (int atomIndex = 0; atomIndex < atomLabels.length; atomIndex++) {
+			IAtom atom = molecule.getAtom(atomIndex);
+			atomLabels[atomIndex] = atom.getSymbol()
+					+ "," + ((atom.getFormalCharge() == null) ? 0 : atom.getFormalCharge())
+					+ "," + ((atom.getImplicitHydrogenCount() == null) ? -1 : atom.getImplicitHydrogenCount())
+					+ "," + (atom.getFlag(CDKConstants.ISAROMATIC) ? "a" : "") + (atom.getFlag(CDKConstants.ISINRING) ? "r" : "")
+					+ "," + atom.getAtomTypeName();
+		}
+		int[] bondCodes = new int[neighbourList.getBondCount()];
+		for (int bondIndex = 0; bondIndex < bondCodes.length; bondIndex++) {
+			IBond bond = molecule.getBond(bondIndex);
+			int order = (bond.getOrder() == null) ? 0 : bond.getOrder().ordinal() + 1;
+			bondCodes[bondIndex] = order * 4 + (bond.getFlag(CDKConstants.ISAROMATIC) ? 2 : 0) + (bond.getFlag(CDKConstants.ISINRING) ? 1 : 0);
+		}
+		return of(neighbourList, atomLabels, bondCodes);
+	}
+
+	// bondCodes must be below 64
+	static CanonicalMolecule of(NeighbourList neighbourList, String[] atomLabels, int[] bondCodes) {
+		int atomCount = neighbourList.getAtomCount();
+		//first classes from the sorted position of the label and the degree
+		String[] sortedLabels = atomLabels.clone();
+		Arrays.sort(sortedLabels);
+		long[][] signatures = new long[atomCount][];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			signatures[atomIndex] = new long[] {Arrays.binarySearch(sortedLabels, atomLabels[atomIndex]), neighbourList.degree(atomIndex)};
+		}
+		int[] classes = new int[atomCount];
+		int classCount = refine(neighbourList, bondCodes, signatures, classes, RefinementPartitioner.rank(signatures, classes));
+
+		while (classCount < atomCount) {
+			//individualise the lowest index atom of the first class with more than one atom
+			int[] classSizes = new int[classCount];
+			for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) classSizes[classes[atomIndex]]++;
+			int splitClass = 0;
+			while (classSizes[splitClass] == 1) splitClass++;
+			int chosen = -1;
+			for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+				long first = 0;
+				if (classes[atomIndex] == splitClass && chosen < 0) {
+					chosen = atomIndex;
+				}
+				else if (classes[atomIndex] == splitClass) first = 1;
+				signatures[atomIndex] = new long[] {classes[atomIndex] * 2L + first};
+			}
+			classCount = refine(neighbourList, bondCodes, signatures, classes, RefinementPartitioner.rank(signatures, classes));
+		}
+
+		int[] order = new int[atomCount];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) order[classes[atomIndex]] = atomIndex;
+		StringBuilder key = new StringBuilder(atomCount * 16);
+		for (int position = 0; position < atomCount; position++) key.append(atomLabels[order[position]]).append(';');
+		long[] bonds = new long[neighbourList.getBondCount()];
+		for (int bondIndex = 0; bondIndex < bonds.length; bondIndex++) {
+			long position0 = classes[neighbourList.bondAtom0(bondIndex)];
+			long position1 = classes[neighbourList.bondAtom1(bondIndex)];
+			bonds[bondIndex] = (Math.min(position0, position1) * atomCount + Math.max(position0, position1)) * 64 + bondCodes[bondIndex];
+		}
+		Arrays.sort(bonds);
+		key.append('|');
+		for (long bond : bonds) {
+			long pair = bond / 64;
+			key.append(pair / atomCount).append('-').append(pair % atomCount).append(':').append(bond % 64).append(';');
+		}
+		return new CanonicalMolecule(key.toString(), order);
+	}
+
+	// refines the classes by the sorted (neighbour class, bond) lists until a round splits nothing
+	private static int refine(NeighbourList neighbourList, int[] bondCodes, long[][] signatures, int[] classes, int classCount) {
+		int atomCount = classes.length;
+		while (classCount < atomCount) {
+			for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+				long[] signature = new long[neighbourList.degree(atomIndex) + 1];
+				signature[0] = classes[atomIndex];
+				int filled = 1;
+				for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+					signature[filled++] = (long) classes[neighbourList.neighbour(position)] * 64 + bondCodes[neighbourList.bond(position)];
+				}
+				Arrays.sort(signature, 1, filled);
+				signatures[atomIndex] = signature;
+			}
+			int[] refined = new int[atomCount];
+			int refinedCount = RefinementPartitioner.rank(signatures, refined);
+			if (refinedCount == classCount) break;
+			System.arraycopy(refined, 0, classes, 0, atomCount);
+			classCount = refinedCount;
+		}
+		return classCount;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public int getAtomCount() {
+		return order.length;
+	}
+
+	// the index of the atom at a canonical position
+	public int getAtom(int position) {
+		return order[position];
+	}
+
+}
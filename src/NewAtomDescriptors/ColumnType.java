@@ -0,0 +1,56 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+// How a descriptor column is stored in the columnar output format, the code is what the file holds
+public enum ColumnType {
+	NONE(0, 0), INT32(1, 4), FLOAT32(2, 4);
+
+	private final int code;
+	private final int size;
+
+	private ColumnType(int code, int size) {
+		this.code = code;
+		this.size = size;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	// bytes per value
+	public int getSize() {
+		return size;
+	}
+
+	public static ColumnType fromCode(int code) {
+		for (ColumnType type : values()) {
+			if (type.code == code) return type;
+		}
+		throw new IllegalArgumentException("Unknown column type " + code);
+	}
+
+}
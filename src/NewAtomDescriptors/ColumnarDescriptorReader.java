@@ -0,0 +1,236 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Reads files written by ColumnarDescriptorWriter through memory maps.
+// Each row group is mapped on its own when it is asked for, so files may be larger than one map can be.
+// The value columns are read straight from the map, molecule indices and atom IDs are decoded when
+// the row group is opened.
+public class ColumnarDescriptorReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final String[] columnNames;
+	private final ColumnType[] columnTypes;
+	private final long[] rowGroupOffsets;
+	private final int[] rowGroupRowCounts;
+	private final int[] rowGroupFirstMolecules;
+	private final long footerOffset;
+
+	public ColumnarDescriptorReader(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		try {
+			long size = channel.size();
+			if (size < 28) throw new IOException("Not a columnar descriptor file: " + path);
+			ByteBuffer tail = map(size - 16, 16);
+			int rowGroupCount = tail.getInt();
+			footerOffset = tail.getLong();
+			if (tail.getInt() != ColumnarDescriptorWriter.MAGIC) throw new IOException("Not a columnar descriptor file: " + path);
+
+			ByteBuffer footer = map(footerOffset, rowGroupCount * 16);
+			rowGroupOffsets = new long[rowGroupCount];
+			rowGroupRowCounts = new int[rowGroupCount];
+			rowGroupFirstMolecules = new int[rowGroupCount];
+			for (int rowGroup = 0; rowGroup < rowGroupCount; rowGroup++) {
+				rowGroupOffsets[rowGroup] = footer.getLong();
+				rowGroupRowCounts[rowGroup] = footer.getInt();
+				rowGroupFirstMolecules[rowGroup] = footer.getInt();
+			}
+
+			ByteBuffer header = map(0, (rowGroupCount > 0) ? rowGroupOffsets[0] : footerOffset);
+			if (header.getInt() != ColumnarDescriptorWriter.MAGIC) throw new IOException("Not a columnar descriptor file: " + path);
+			int version = header.getInt();
+			if (version != ColumnarDescriptorWriter.VERSION) throw new IOException("Unsupported columnar descriptor file version " + version + ": " + path);
+			int columnCount = header.getInt();
+			columnNames = new String[columnCount];
+			columnTypes = new ColumnType[columnCount];
+			for (int column = 0; column < columnCount; column++) {
+				byte[] name = new byte[header.getShort()];
+				header.get(name);
+				columnNames[column] = new String(name, UTF8);
+				columnTypes[column] = ColumnType.fromCode(header.get());
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		} catch (RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	public ColumnType getColumnType(int column) {
+		return columnTypes[column];
+	}
+
+	// -1 if the file has no such column
+	public int getColumnIndex(String name) {
+		for (int column = 0; column < columnNames.length; column++) {
+			if (columnNames[column].equals(name)) return column;
+		}
+		return -1;
+	}
+
+	public int getColumnIndex(NEWDESC_PROPERTY property) {
+		return getColumnIndex(property.name());
+	}
+
+	public int getRowGroupCount() {
+		return rowGroupOffsets.length;
+	}
+
+	public long getRowCount() {
+		long rows = 0;
+		for (int rowCount : rowGroupRowCounts) rows += rowCount;
+		return rows;
+	}
+
+	// index of the first molecule in a row group, from the footer without mapping the group
+	public int getFirstMolecule(int rowGroup) {
+		return rowGroupFirstMolecules[rowGroup];
+	}
+
+	public RowGroup getRowGroup(int rowGroup) throws IOException {
+		long end = (rowGroup + 1 < rowGroupOffsets.length) ? rowGroupOffsets[rowGroup + 1] : footerOffset;
+		return new RowGroup(map(rowGroupOffsets[rowGroup], end - rowGroupOffsets[rowGroup]));
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private MappedByteBuffer map(long offset, long length) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	// One row group, the rows are atoms
+	public class RowGroup {
+
+		private final ByteBuffer buffer;
+		private final int rowCount;
+		private final int[] moleculeIndices;
+		private final int[] atomCodes;
+		private final String[] dictionary;
+		private final int valuesOffset;
+
+		private RowGroup(ByteBuffer buffer) {
+			this.buffer = buffer;
+			rowCount = buffer.getInt();
+
+			moleculeIndices = new int[rowCount];
+			int molecule = buffer.getInt();
+			buffer.getInt();
+			for (int row = 0; row < rowCount; row++) {
+				molecule += getVarint(buffer);
+				moleculeIndices[row] = molecule;
+			}
+
+			dictionary = new String[buffer.getInt()];
+			for (int code = 0; code < dictionary.length; code++) {
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				dictionary[code] = new String(name, UTF8);
+			}
+			buffer.getInt();
+			atomCodes = new int[rowCount];
+			for (int row = 0; row < rowCount; row++) atomCodes[row] = getVarint(buffer);
+
+			//the value columns fill the end of the row group, after the padding
+			int position = buffer.position();
+			valuesOffset = position + (buffer.limit() - position - columnNames.length * rowCount * 4);
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public int getMoleculeIndex(int row) {
+			return moleculeIndices[row];
+		}
+
+		// symbol.ID, as in the Atom column of the CSV output
+		public String getAtomID(int row) {
+			return dictionary[atomCodes[row]];
+		}
+
+		public int getInt(int column, int row) {
+			if (columnTypes[column] != ColumnType.INT32) throw new IllegalArgumentException("Column " + columnNames[column] + " is not int32");
+			return buffer.getInt(valuesOffset + (column * rowCount + row) * 4);
+		}
+
+		public float getFloat(int column, int row) {
+			if (columnTypes[column] != ColumnType.FLOAT32) throw new IllegalArgumentException("Column " + columnNames[column] + " is not float32");
+			return buffer.getFloat(valuesOffset + (column * rowCount + row) * 4);
+		}
+
+		// either column type, missing values as NaN
+		public double getDouble(int column, int row) {
+			if (columnTypes[column] == ColumnType.INT32) {
+				int value = getInt(column, row);
+				return (value == Integer.MIN_VALUE) ? Double.NaN : value;
+			}
+			return getFloat(column, row);
+		}
+
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+
+}
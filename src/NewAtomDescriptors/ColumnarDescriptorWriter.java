@@ -0,0 +1,233 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Writes the per-atom descriptors column by column in row groups, one row per atom like the CSV output.
+// The columns are the default NEWDESC_PROPERTY columns in enum order (see getColumns), or the chosen ones.
+// All numbers are little endian, a missing value is Integer.MIN_VALUE (int32) or NaN (float32).
+//
+// file      = "AFBD" int32:version int32:columnCount column* rowGroup* footer
+// column    = int16:nameLength name(UTF-8) int8:typeCode
+// rowGroup  = int32:rowCount
+//             int32:firstMolecule int32:byteCount varint*       molecule index, delta to the row before
+//             int32:dictionarySize (int16:length UTF-8)* int32:byteCount varint*     atom IDs as dictionary codes
+//             zero padding to a multiple of 4 bytes from the start of the file
+//             int32|float32 [rowCount] for each column
+// footer    = (int64:offset int32:rowCount int32:firstMolecule) per row group
+//             int32:rowGroupCount int64:footerOffset "AFBD"
+//
+// A molecule is never split over two row groups. ColumnarDescriptorReader reads the files.
+public class ColumnarDescriptorWriter implements DescriptorWriter {
+
+	public static final int MAGIC = 0x44424641; // "AFBD" read little endian
+	public static final int VERSION = 1;
+	public static final int DEFAULT_ROW_GROUP_SIZE = 1 << 16;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final FileChannel channel;
+	private final int rowGroupSize;
+	private final NEWDESC_PROPERTY[] columns;
+	private long position = 0;
+
+	// the row group being collected
+	private int rowCount = 0;
+	private int[] moleculeIndices = new int[1024];
+	private int[] atomCodes = new int[1024];
+	private int[][] values;
+	private final List<String> dictionary = new ArrayList<String>();
+	private final Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+	// the footer
+	private final List<long[]> rowGroups = new ArrayList<long[]>();
+
+	public ColumnarDescriptorWriter(File file) throws IOException {
+		this(file, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	// columns null for the default ones
+	public ColumnarDescriptorWriter(File file, NEWDESC_PROPERTY[] columns) throws IOException {
+		this(file, DEFAULT_ROW_GROUP_SIZE, columns);
+	}
+
+	public ColumnarDescriptorWriter(File file, int rowGroupSize) throws IOException {
+		this(file, rowGroupSize, null);
+	}
+
+	public ColumnarDescriptorWriter(File file, int rowGroupSize, NEWDESC_PROPERTY[] columns) throws IOException {
+		this.channel = new FileOutputStream(file).getChannel();
+		this.rowGroupSize = rowGroupSize;
+		this.columns = (columns == null) ? getColumns() : columns;
+		this.values = new int[this.columns.length][1024];
+
+		int headerSize = 12;
+		for (NEWDESC_PROPERTY column : this.columns) headerSize += 3 + column.name().getBytes(UTF8).length;
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(this.columns.length);
+		for (NEWDESC_PROPERTY column : this.columns) {
+			byte[] name = column.name().getBytes(UTF8);
+			header.putShort((short) name.length).put(name).put((byte) column.getColumnType().getCode());
+		}
+		header.flip();
+		write(header);
+	}
+
+	// the properties that are written by default, in file order
+	public static NEWDESC_PROPERTY[] getColumns() {
+		List<NEWDESC_PROPERTY> columns = new ArrayList<NEWDESC_PROPERTY>();
+		for (NEWDESC_PROPERTY property : NEWDESC_PROPERTY.values()) {
+			if (property.isDefaultColumn()) columns.add(property);
+		}
+		return columns.toArray(new NEWDESC_PROPERTY[columns.size()]);
+	}
+
+	public void writeMolecule(MoleculeKU moleculeKU, int moleculeIndex) throws IOException {
+		AtomDescriptorResult result = moleculeKU.getResult();
+		for (int atomIndex = 0; atomIndex < result.getAtomCount(); atomIndex++) {
+			//symmetric atoms are left out, as in the CSV output
+			if (result.isSymmetric(atomIndex)) continue;
+
+			if (rowCount == moleculeIndices.length) grow();
+			moleculeIndices[rowCount] = moleculeIndex;
+			atomCodes[rowCount] = dictionaryCode(result.getAtomID(atomIndex));
+			for (int column = 0; column < columns.length; column++) {
+				if (columns[column].getColumnType() == ColumnType.INT32) {
+					values[column][rowCount] = result.getInt(columns[column], atomIndex);
+				}
+				else {
+					values[column][rowCount] = Float.floatToRawIntBits((float) result.getDouble(columns[column], atomIndex));
+				}
+			}
+			rowCount++;
+		}
+		if (rowCount >= rowGroupSize) writeRowGroup();
+	}
+
+	public void close() throws IOException {
+		try {
+			if (rowCount > 0) writeRowGroup();
+			ByteBuffer footer = ByteBuffer.allocate(rowGroups.size() * 16 + 16).order(ByteOrder.LITTLE_ENDIAN);
+			long footerOffset = position;
+			for (long[] rowGroup : rowGroups) {
+				footer.putLong(rowGroup[0]).putInt((int) rowGroup[1]).putInt((int) rowGroup[2]);
+			}
+			footer.putInt(rowGroups.size()).putLong(footerOffset).putInt(MAGIC);
+			footer.flip();
+			write(footer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private int dictionaryCode(String atomID) {
+		Integer code = dictionaryCodes.get(atomID);
+		if (code == null) {
+			code = dictionary.size();
+			dictionary.add(atomID);
+			dictionaryCodes.put(atomID, code);
+		}
+		return code;
+	}
+
+	private void grow() {
+		int capacity = moleculeIndices.length * 2;
+		moleculeIndices = Arrays.copyOf(moleculeIndices, capacity);
+		atomCodes = Arrays.copyOf(atomCodes, capacity);
+		for (int column = 0; column < columns.length; column++) values[column] = Arrays.copyOf(values[column], capacity);
+	}
+
+	private void writeRowGroup() throws IOException {
+		byte[][] names = new byte[dictionary.size()][];
+		int size = 32 + rowCount * 10 + columns.length * rowCount * 4;
+		for (int code = 0; code < names.length; code++) {
+			names[code] = dictionary.get(code).getBytes(UTF8);
+			size += 2 + names[code].length;
+		}
+		ByteBuffer group = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		group.putInt(rowCount);
+
+		//molecule indices, delta encoded
+		group.putInt(moleculeIndices[0]);
+		int lengthPosition = group.position();
+		group.putInt(0);
+		int previous = moleculeIndices[0];
+		for (int row = 0; row < rowCount; row++) {
+			putVarint(group, moleculeIndices[row] - previous);
+			previous = moleculeIndices[row];
+		}
+		group.putInt(lengthPosition, group.position() - lengthPosition - 4);
+
+		//atom IDs, dictionary encoded
+		group.putInt(names.length);
+		for (byte[] name : names) group.putShort((short) name.length).put(name);
+		lengthPosition = group.position();
+		group.putInt(0);
+		for (int row = 0; row < rowCount; row++) putVarint(group, atomCodes[row]);
+		group.putInt(lengthPosition, group.position() - lengthPosition - 4);
+
+		//the value columns start 4 byte aligned in the file
+		while ((position + group.position()) % 4 != 0) group.put((byte) 0);
+		for (int column = 0; column < columns.length; column++) {
+			for (int row = 0; row < rowCount; row++) group.putInt(values[column][row]);
+		}
+
+		rowGroups.add(new long[] {position, rowCount, moleculeIndices[0]});
+		group.flip();
+		write(group);
+		rowCount = 0;
+		dictionary.clear();
+		dictionaryCodes.clear();
+	}
+
+	// unsigned LEB128
+	private static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) position += channel.write(buffer);
+	}
+
+}
@@ -0,0 +1,112 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Writes the per-atom descriptors of finished molecules as CSV rows.
+// Numbers are formatted as by DecimalFormat("#.##"), see DescriptorRowWriter.
+// Not thread safe, molecules must be written from one thread in input order.
+public class DescriptorCsvWriter implements DescriptorWriter {
+
+	public static final String HEADER = "Molecule,Atom,Mol_bonds2end,Mol_rotablebonds,Mol_AtomCount,Mol_TPSA,Mol_TPSAperAtom,Mol_Volume,Mol_HAcount,Mol_HDcount," +
+	        "Mol_PIsystemSize," +
+	        "Branch_bonds2end,Branch_rotablebonds,Branch_AtomCount,Branch_TPSA,Branch_TPSAperAtom,Branch_Volume,Branch_HAcount," + 
+	        "Branch_HDcount,Branch_PIsystemSize";
+
+	// the default descriptor columns after Molecule and Atom, in order
+	public static final NEWDESC_PROPERTY[] COLUMNS = {
+		NEWDESC_PROPERTY.Mol_BondsToEnd, NEWDESC_PROPERTY.Mol_RotableBondCount, NEWDESC_PROPERTY.Mol_AtomCount,
+		NEWDESC_PROPERTY.Mol_TPSA, NEWDESC_PROPERTY.Mol_TPSAperAtom, NEWDESC_PROPERTY.Mol_Volume,
+		NEWDESC_PROPERTY.Mol_HAcount, NEWDESC_PROPERTY.Mol_HDcount, NEWDESC_PROPERTY.Mol_PIsystemSize,
+		NEWDESC_PROPERTY.Branch_BondsToEnd, NEWDESC_PROPERTY.Branch_RotableBondCount, NEWDESC_PROPERTY.Branch_AtomCount,
+		NEWDESC_PROPERTY.Branch_TPSA, NEWDESC_PROPERTY.Branch_TPSAperAtom, NEWDESC_PROPERTY.Branch_Volume,
+		NEWDESC_PROPERTY.Branch_HAcount, NEWDESC_PROPERTY.Branch_HDcount, NEWDESC_PROPERTY.Branch_PIsystemSize
+	};
+
+	private final DescriptorRowWriter rows;
+	private final NEWDESC_PROPERTY[] columns;
+	private final String header;
+
+	public DescriptorCsvWriter(Writer outfile) {
+		this(outfile, null);
+	}
+
+	// columns null for the default ones (and HEADER)
+	public DescriptorCsvWriter(Writer outfile, NEWDESC_PROPERTY[] columns) {
+		rows = new DescriptorRowWriter(outfile);
+		this.columns = (columns == null) ? COLUMNS : columns;
+		StringBuilder header = new StringBuilder("Molecule,Atom");
+		for (NEWDESC_PROPERTY column : this.columns) header.append(',').append(column.getColumnName());
+		this.header = header.toString();
+	}
+
+	// moleculeIndex counts molecules over all input files, the header goes before the very first one
+	public void writeMolecule(MoleculeKU moleculeKU, int moleculeIndex) throws IOException {
+
+		if (moleculeIndex == 1){
+			writeHeader();
+		}
+		writeResult(moleculeKU.getResult(), moleculeIndex);
+	}
+
+	public void writeHeader() throws IOException {
+		rows.append(header).append(System.getProperty("line.separator"));
+	}
+
+	// the rows of one molecule, symmetric atoms are left out, no header
+	public void writeResult(AtomDescriptorResult result, int moleculeIndex) throws IOException {
+		for (int atomIndex = 0; atomIndex < result.getAtomCount(); atomIndex++) {
+			if (result.isSymmetric(atomIndex)) continue;
+			rows.append(moleculeIndex).append(',').append(result.getSymbol(atomIndex)).append('.').append(result.getID(atomIndex));
+			//Atom2endofMol and Atom2endofBranch descriptors
+			for (NEWDESC_PROPERTY column : columns) {
+				rows.append(',');
+				if (column.getColumnType() == ColumnType.FLOAT32) rows.appendTwoDecimals(result.getDouble(column, atomIndex));
+				else rows.append(result.getInt(column, atomIndex));
+			}
+			rows.endRow();
+		}
+	}
+
+	// a line that is not a row, e.g. the status lines of DescriptorServer
+	public void writeLine(String line) throws IOException {
+		rows.append(line);
+		rows.endRow();
+	}
+
+	public void flush() throws IOException {
+		rows.flush();
+	}
+
+	public void close() throws IOException {
+		rows.close();
+	}
+
+}
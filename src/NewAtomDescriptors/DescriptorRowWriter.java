@@ -0,0 +1,173 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+// Builds descriptor rows in a reusable char buffer and hands them to a Writer in large blocks.
+// Numbers are written exactly as DecimalFormat("#.##") writes them (half even rounding of the exact
+// binary value, no grouping, "-0" for small negative values), without boxing or temporary Strings.
+// Not thread safe, like the Writer it wraps.
+public class DescriptorRowWriter {
+
+	// above this the hundredths of a value are not exact enough in a double, DecimalFormat is used
+	private static final double FAST_LIMIT = 1e7;
+	// a scaled value this close to .5 may be a tie or lie on either side of it, BigDecimal decides
+	private static final double TIE_MARGIN = 1e-6;
+
+	private final Writer out;
+	private final char[] buffer;
+	private int length = 0;
+	// for the values the fast path does not handle (NaN, infinity, very large values)
+	private final DecimalFormat twoDecimalFormat;
+
+	public DescriptorRowWriter(Writer out) {
+		this(out, 1 << 16);
+	}
+
+	public DescriptorRowWriter(Writer out, int bufferSize) {
+		this.out = out;
+		this.buffer = new char[Math.max(bufferSize, 64)];
+		twoDecimalFormat = new DecimalFormat("#.##");
+		twoDecimalFormat.setDecimalSeparatorAlwaysShown(false);
+		DecimalFormatSymbols decformat = new DecimalFormatSymbols();
+		decformat.setDecimalSeparator('.');
+		decformat.setGroupingSeparator(',');
+		twoDecimalFormat.setMaximumFractionDigits(2);
+		twoDecimalFormat.setDecimalFormatSymbols(decformat);
+	}
+
+	public DescriptorRowWriter append(char c) throws IOException {
+		ensure(1);
+		buffer[length++] = c;
+		return this;
+	}
+
+	public DescriptorRowWriter append(String text) throws IOException {
+		int textLength = text.length();
+		if (textLength > buffer.length) {
+			flushBuffer();
+			out.write(text);
+			return this;
+		}
+		ensure(textLength);
+		text.getChars(0, textLength, buffer, length);
+		length += textLength;
+		return this;
+	}
+
+	public DescriptorRowWriter append(long value) throws IOException {
+		ensure(20);
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) return append(Long.toString(value));
+			buffer[length++] = '-';
+			value = -value;
+		}
+		appendDigits(value);
+		return this;
+	}
+
+	// the value as DecimalFormat("#.##") would format it
+	public DescriptorRowWriter appendTwoDecimals(double value) throws IOException {
+		double magnitude = Math.abs(value);
+		if (!(magnitude < FAST_LIMIT)) return append(twoDecimalFormat.format(value));
+		boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+		double scaled = magnitude * 100;
+		double floor = Math.floor(scaled);
+		double fraction = scaled - floor;
+		long hundredths;
+		if (Math.abs(fraction - 0.5) < TIE_MARGIN) {
+			hundredths = new BigDecimal(magnitude).setScale(2, RoundingMode.HALF_EVEN).unscaledValue().longValue();
+		}
+		else hundredths = (long) floor + ((fraction > 0.5) ? 1 : 0);
+		ensure(24);
+		if (negative) buffer[length++] = '-';
+		appendDigits(hundredths / 100);
+		int fractionDigits = (int) (hundredths % 100);
+		if (fractionDigits != 0) {
+			buffer[length++] = '.';
+			buffer[length++] = (char) ('0' + fractionDigits / 10);
+			if (fractionDigits % 10 != 0) buffer[length++] = (char) ('0' + fractionDigits % 10);
+		}
+		return this;
+	}
+
+	// the number as DecimalFormat("#.##").format(Object) would format it, integers without decimals
+	public DescriptorRowWriter appendNumber(Number number) throws IOException {
+		if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+			return append(number.longValue());
+		}
+		if (number instanceof Double || number instanceof Float) {
+			return appendTwoDecimals(number.doubleValue());
+		}
+		return append(twoDecimalFormat.format(number));
+	}
+
+	// ends the row with a newline, rows are written out when the buffer is full
+	public void endRow() throws IOException {
+		append('\n');
+	}
+
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		flushBuffer();
+		out.close();
+	}
+
+	// digits of a non-negative value, the room for them must already be ensured
+	private void appendDigits(long value) {
+		int start = length;
+		do {
+			buffer[length++] = (char) ('0' + (int) (value % 10));
+			value /= 10;
+		} while (value != 0);
+		for (int low = start, high = length - 1; low < high; low++, high--) {
+			char digit = buffer[low];
+			buffer[low] = buffer[high];
+			buffer[high] = digit;
+		}
+	}
+
+	private void ensure(int room) throws IOException {
+		if (length + room > buffer.length) flushBuffer();
+	}
+
+	private void flushBuffer() throws IOException {
+		if (length == 0) return;
+		out.write(buffer, 0, length);
+		length = 0;
+	}
+
+}
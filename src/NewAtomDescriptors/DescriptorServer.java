@@ -0,0 +1,126 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Serves descriptor requests over a pair of streams (stdin and stdout with --serve), so that other
+// programs can keep one warm JVM instead of starting a new one per file.
+// Every input line is one request: a SMILES, optionally followed by whitespace and a name. Empty lines are ignored.
+// The output starts with the CSV header, then for request n (counting from 1) come its CSV rows with n in the
+// Molecule column, or "#error n message" if it failed, and always a final "#end n" (followed by the name if one was given).
+// Requests that arrive while a batch is being described are collected into the next batch, up to the batch size,
+// so a single request is answered at once and a stream of requests is described in parallel.
+// The output is flushed after every batch. The server stops at the end of the input.
+public class DescriptorServer {
+
+	// marks the end of the input in the queue
+	private static final String END_OF_INPUT = new String("end of input");
+
+	private final AtomDescriptorEngine engine;
+	private final int batchSize;
+
+	public DescriptorServer(AtomDescriptorEngine engine, int batchSize) {
+		this.engine = engine;
+		this.batchSize = batchSize;
+	}
+
+	public void run(InputStream in, OutputStream out) throws IOException, InterruptedException {
+		final BufferedReader input = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		final BlockingQueue<String> requests = new LinkedBlockingQueue<String>();
+		Thread readerThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					String line;
+					while ((line = input.readLine()) != null) {
+						if (line.trim().length() > 0) requests.add(line.trim());
+					}
+				} catch (IOException e) {
+					System.err.println("Could not read request: " + e.getMessage());
+				} finally {
+					requests.add(END_OF_INPUT);
+				}
+			}
+		}, "request reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+
+		DescriptorCsvWriter writer = new DescriptorCsvWriter(new OutputStreamWriter(out, "UTF-8"), engine.getSettings().getColumns());
+		writer.writeHeader();
+		writer.flush();
+		int requestIndex = 0;
+		boolean endOfInput = false;
+		List<String> batch = new ArrayList<String>();
+		while (!endOfInput) {
+			batch.clear();
+			batch.add(requests.take());
+			requests.drainTo(batch, batchSize - 1);
+			if (batch.get(batch.size() - 1) == END_OF_INPUT) {
+				batch.remove(batch.size() - 1);
+				endOfInput = true;
+			}
+
+			List<String> smiles = new ArrayList<String>();
+			List<String> names = new ArrayList<String>();
+			for (String request : batch) {
+				int space = indexOfWhitespace(request);
+				smiles.add((space < 0) ? request : request.substring(0, space));
+				names.add((space < 0) ? null : request.substring(space).trim());
+			}
+			List<AtomDescriptorResult> results = engine.describeAllSmiles(smiles);
+			for (int resultIndex = 0; resultIndex < results.size(); resultIndex++) {
+				requestIndex++;
+				AtomDescriptorResult result = results.get(resultIndex);
+				if (result.isFailed()) writer.writeLine("#error " + requestIndex + " " + oneLine(result.getError()));
+				else writer.writeResult(result, requestIndex);
+				String name = names.get(resultIndex);
+				writer.writeLine("#end " + requestIndex + ((name == null) ? "" : " " + name));
+			}
+			writer.flush();
+		}
+	}
+
+	private static int indexOfWhitespace(String request) {
+		for (int charIndex = 0; charIndex < request.length(); charIndex++) {
+			if (Character.isWhitespace(request.charAt(charIndex))) return charIndex;
+		}
+		return -1;
+	}
+
+	private static String oneLine(String message) {
+		return message.replace('\r', ' ').replace('\n', ' ');
+	}
+
+}
@@ -0,0 +1,313 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Switches that control how MoleculeKU computes its descriptors.
+// The defaults give the fast path, the legacy switches are kept so that output can be compared.
+public class DescriptorSettings {
+
+	// how fragment descriptors are computed:
+	// CDK		the CDK descriptor classes on a container of the fragment atoms
+	// NATIVE	FragmentDescriptorKernel, sums of per-atom contributions on the fragment bitset
+	// VALIDATE	both, failing if they differ by more than 1e-6, and the CDK values are used
+	public enum DescriptorKernel {
+		CDK, NATIVE, VALIDATE
+	}
+
+	// how the atoms of each fragment are found:
+	// LOOP		every atom tested against every end atom (the original)
+	// SWEEP	FragmentSweep, the same atoms from per-atom closest end atoms and distance layers
+	// VERIFY	both, failing if they differ
+	public enum FragmentEngine {
+		LOOP, SWEEP, VERIFY
+	}
+
+	// how symmetric atoms are handled:
+	// OFF				every atom is described (the original behaviour)
+	// COPY				one atom per symmetry class is described and its descriptors are copied to the others
+	// REPRESENTATIVES	as COPY, and the other atoms are marked IsSymmetric so that only one atom per class is written
+	public enum SymmetryMode {
+		OFF, COPY, REPRESENTATIVES
+	}
+
+	// how the symmetry classes are found: getTopoEquivClassbyHuXu in CDK, or RefinementPartitioner
+	public enum Partitioner {
+		HUXU, REFINE
+	}
+
+	private boolean cacheTopology = true;
+	private SymmetryMode symmetryMode = SymmetryMode.OFF;
+	private Partitioner partitioner = Partitioner.HUXU;
+	private DescriptorKernel descriptorKernel = DescriptorKernel.CDK;
+	private FragmentEngine fragmentEngine = FragmentEngine.LOOP;
+	private DistanceEngine distanceEngine = new BFSDistanceEngine();
+	private DistanceMatrix.Storage distanceStorage = DistanceMatrix.Storage.PACKED;
+	private int distanceRows = 256;
+	private FragmentDescriptorCache fragmentCache = null;
+	private boolean verifyFragmentCache = false;
+	private boolean atomProperties = false;
+	private MoleculeResultCache moleculeCache = null;
+	private boolean verifyMoleculeCache = false;
+	private boolean resolveTies = false;
+	private NEWDESC_PROPERTY[] columns = null;
+	private boolean fusedFragments = false;
+	private int maxAlternatives = 4;
+	private int parallelAtoms = 0;
+	private int maxAtoms = 0;
+	private int maxSeconds = 0;
+	private ForkJoinPool atomPool = null;
+	private final PipelineStats stats = new PipelineStats();
+
+	public DescriptorSettings() {
+	}
+
+	// if true the distance matrix is computed once per molecule and shared by all stages,
+	// if false every stage recomputes it from the adjacency matrix (the original behaviour)
+	public boolean isCacheTopology() {
+		return cacheTopology;
+	}
+
+	public void setCacheTopology(boolean cacheTopology) {
+		this.cacheTopology = cacheTopology;
+	}
+
+	// how the all-pairs distance matrix is computed, BFS over neighbour lists by default
+	public DistanceEngine getDistanceEngine() {
+		return distanceEngine;
+	}
+
+	public void setDistanceEngine(DistanceEngine distanceEngine) {
+		this.distanceEngine = distanceEngine;
+	}
+
+	// how the distances are kept, packed on the heap by default, see DistanceMatrix.Storage
+	public DistanceMatrix.Storage getDistanceStorage() {
+		return distanceStorage;
+	}
+
+	public void setDistanceStorage(DistanceMatrix.Storage distanceStorage) {
+		this.distanceStorage = distanceStorage;
+	}
+
+	// the number of rows a lazy distance matrix keeps
+	public int getDistanceRows() {
+		return distanceRows;
+	}
+
+	public void setDistanceRows(int distanceRows) {
+		this.distanceRows = distanceRows;
+	}
+
+	public DescriptorKernel getDescriptorKernel() {
+		return descriptorKernel;
+	}
+
+	public void setDescriptorKernel(DescriptorKernel descriptorKernel) {
+		this.descriptorKernel = descriptorKernel;
+	}
+
+	public FragmentEngine getFragmentEngine() {
+		return fragmentEngine;
+	}
+
+	public void setFragmentEngine(FragmentEngine fragmentEngine) {
+		this.fragmentEngine = fragmentEngine;
+	}
+
+	// fragment descriptors shared over molecules, null (the default) when every fragment is described
+	public FragmentDescriptorCache getFragmentCache() {
+		return fragmentCache;
+	}
+
+	public void setFragmentCache(FragmentDescriptorCache fragmentCache) {
+		this.fragmentCache = fragmentCache;
+	}
+
+	// The descriptor columns that are written, in output order, null (the default) for the default columns
+	// of each writer. Only what these columns need is computed: a fragment descriptor that is in none of
+	// them is not calculated, and without any Mol_ or Branch_ column the fragments are not searched at all.
+	public NEWDESC_PROPERTY[] getColumns() {
+		return columns;
+	}
+
+	public void setColumns(NEWDESC_PROPERTY[] columns) {
+		this.columns = columns;
+	}
+
+	// true if property is written and so has to be computed
+	public boolean isComputed(NEWDESC_PROPERTY property) {
+		if (columns == null) return property.isDefaultColumn();
+		for (NEWDESC_PROPERTY column : columns) {
+			if (column == property) return true;
+		}
+		return false;
+	}
+
+	// true if any column of the prefix ("Mol" or "Branch") fragments is written
+	public boolean isComputed(String prefix) {
+		for (NEWDESC_PROPERTY property : NEWDESC_PROPERTY.values()) {
+			if (property.name().startsWith(prefix + "_") && isComputed(property)) return true;
+		}
+		return false;
+	}
+
+	// true to find the Mol and Branch fragments in one pass and describe identical ones once,
+	// see MoleculeKU.getFusedFragmentMolecules
+	public boolean isFusedFragments() {
+		return fusedFragments;
+	}
+
+	public void setFusedFragments(boolean fusedFragments) {
+		this.fusedFragments = fusedFragments;
+	}
+
+	// true for the bounded search for fragments towards equally close end atoms in MoleculeKU.resolveTies,
+	// false for the original search
+	public boolean isResolveTies() {
+		return resolveTies;
+	}
+
+	public void setResolveTies(boolean resolveTies) {
+		this.resolveTies = resolveTies;
+	}
+
+	// how many equally close end atoms of other symmetry classes resolveTies compares with the closest one
+	public int getMaxAlternatives() {
+		return maxAlternatives;
+	}
+
+	public void setMaxAlternatives(int maxAlternatives) {
+		this.maxAlternatives = maxAlternatives;
+	}
+
+	// if true cache hits are described anyway and must agree with the cached values
+	public boolean isVerifyFragmentCache() {
+		return verifyFragmentCache;
+	}
+
+	public void setVerifyFragmentCache(boolean verifyFragmentCache) {
+		this.verifyFragmentCache = verifyFragmentCache;
+	}
+
+	// descriptors of whole molecules shared over the run, null (the default) when duplicates are described again
+	public MoleculeResultCache getMoleculeCache() {
+		return moleculeCache;
+	}
+
+	public void setMoleculeCache(MoleculeResultCache moleculeCache) {
+		this.moleculeCache = moleculeCache;
+	}
+
+	// if true duplicate molecules are described anyway and the ones that differ from the cached values are counted
+	public boolean isVerifyMoleculeCache() {
+		return verifyMoleculeCache;
+	}
+
+	public void setVerifyMoleculeCache(boolean verifyMoleculeCache) {
+		this.verifyMoleculeCache = verifyMoleculeCache;
+	}
+
+	// if true the descriptors are also set as NEWDESC_PROPERTY atom properties and the fragments
+	// get their string keyed properties, as before AtomDescriptorResult, for code that reads them from there
+	public boolean isAtomProperties() {
+		return atomProperties;
+	}
+
+	public void setAtomProperties(boolean atomProperties) {
+		this.atomProperties = atomProperties;
+	}
+
+	public SymmetryMode getSymmetryMode() {
+		return symmetryMode;
+	}
+
+	public void setSymmetryMode(SymmetryMode symmetryMode) {
+		this.symmetryMode = symmetryMode;
+	}
+
+	public Partitioner getPartitioner() {
+		return partitioner;
+	}
+
+	public void setPartitioner(Partitioner partitioner) {
+		this.partitioner = partitioner;
+	}
+
+	// molecules with at least this many atoms have their atoms described (and their distances searched)
+	// in parallel, 0 (the default) for never
+	public int getParallelAtoms() {
+		return parallelAtoms;
+	}
+
+	public void setParallelAtoms(int parallelAtoms) {
+		this.parallelAtoms = parallelAtoms;
+	}
+
+	// molecules with more heavy atoms are skipped (BudgetExceededException), 0 (the default) for no limit
+	public int getMaxAtoms() {
+		return maxAtoms;
+	}
+
+	public void setMaxAtoms(int maxAtoms) {
+		this.maxAtoms = maxAtoms;
+	}
+
+	// molecules that take longer to describe are stopped and skipped (BudgetExceededException),
+	// 0 (the default) for no limit
+	public int getMaxSeconds() {
+		return maxSeconds;
+	}
+
+	public void setMaxSeconds(int maxSeconds) {
+		this.maxSeconds = maxSeconds;
+	}
+
+	// Runs task and its subtasks in the pool of the calling thread if it is a pool thread (as with
+	// MoleculeScheduler), else in a pool shared by all molecules with one thread per processor
+	public void invokeParallel(ForkJoinTask<?> task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+			return;
+		}
+		ForkJoinPool pool;
+		synchronized (this) {
+			if (atomPool == null) atomPool = new ForkJoinPool();
+			pool = atomPool;
+		}
+		pool.invoke(task);
+	}
+
+	// stage timings and counters of the run
+	public PipelineStats getStats() {
+		return stats;
+	}
+
+}
@@ -0,0 +1,100 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+// Topological distance matrix of one molecule. Distances are in bonds, unreachable pairs give the
+// PathTools.computeFloydAPSP value of 999999999 so that results are identical to the old int[][] path.
+// How the distances are kept is up to the subclass, see Storage; the eccentricities and the diameter
+// are always kept here, one int per atom.
+public abstract class DistanceMatrix {
+
+	public static final int UNREACHABLE = 999999999;
+
+	// INT		one int per atom pair on the heap
+	// PACKED	one byte per pair if the distances fit, else one short (or int), on the heap (the default)
+	// OFF_HEAP	as PACKED, in a direct buffer outside the Java heap
+	// LAZY		no matrix, rows are found by breadth first search when needed and a bounded number is kept
+	public enum Storage {
+		INT, PACKED, OFF_HEAP, LAZY
+	}
+
+	protected final int atomCount;
+	// longest distance from each atom, and the longest distance of all
+	private int[] eccentricities;
+	private int diameter;
+
+	protected DistanceMatrix(int atomCount) {
+		this.atomCount = atomCount;
+	}
+
+	// packs a square matrix as returned by PathTools.computeFloydAPSP
+	public static DistanceMatrix fromMatrix(int[][] matrix, Storage storage) {
+		int n = matrix.length;
+		int maxDistance = 0;
+		int[] eccentricities = new int[n];
+		int diameter = 0;
+		for (int row = 0; row < n; row++) {
+			for (int column = 0; column < n; column++) {
+				int distance = matrix[row][column];
+				if (distance > eccentricities[row]) eccentricities[row] = distance;
+				if (distance != UNREACHABLE && distance > maxDistance) maxDistance = distance;
+			}
+			if (eccentricities[row] > diameter) diameter = eccentricities[row];
+		}
+		FilledDistanceMatrix distanceMatrix = FilledDistanceMatrix.allocate(storage, n, maxDistance);
+		for (int row = 0; row < n; row++) distanceMatrix.setRow(row, matrix[row], 0);
+		distanceMatrix.setEccentricities(eccentricities, diameter);
+		return distanceMatrix;
+	}
+
+	void setEccentricities(int[] eccentricities, int diameter) {
+		this.eccentricities = eccentricities;
+		this.diameter = diameter;
+	}
+
+	public int getAtomCount() {
+		return atomCount;
+	}
+
+	public abstract int getDistance(int atom1, int atom2);
+
+	// the longest shortest path starting in atomIndex
+	public int getEccentricity(int atomIndex) {
+		return eccentricities[atomIndex];
+	}
+
+	// the longest shortest path in the molecule
+	public int getDiameter() {
+		return diameter;
+	}
+
+	// A matrix of the same distances that another thread can read at the same time as this one.
+	// The filled matrices are never written again and are their own copy.
+	public DistanceMatrix threadCopy() {
+		return this;
+	}
+
+}
@@ -0,0 +1,53 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+// A distance matrix that is filled row by row once, by a distance engine, and only read after that:
+// the INT, PACKED and OFF_HEAP storages. Lazy matrices find their own rows and are not one of these.
+abstract class FilledDistanceMatrix extends DistanceMatrix {
+
+	protected FilledDistanceMatrix(int atomCount) {
+		super(atomCount);
+	}
+
+	// An empty matrix for distances up to maxDistance, filled with setRow and setEccentricities.
+	// LAZY matrices fill themselves and cannot be made here.
+	static FilledDistanceMatrix allocate(Storage storage, int atomCount, int maxDistance) {
+		if (storage == Storage.INT) return new IntDistanceMatrix(atomCount);
+		int cellSize = (maxDistance < ByteDistanceMatrix.UNREACHABLE_CELL) ? 1 : (maxDistance < ShortDistanceMatrix.UNREACHABLE_CELL) ? 2 : 4;
+		if (storage == Storage.OFF_HEAP) return new OffHeapDistanceMatrix(atomCount, cellSize);
+		if (storage == Storage.PACKED) {
+			if (cellSize == 1) return new ByteDistanceMatrix(atomCount);
+			if (cellSize == 2) return new ShortDistanceMatrix(atomCount);
+			return new IntDistanceMatrix(atomCount);
+		}
+		throw new IllegalArgumentException("Cannot allocate a " + storage + " distance matrix");
+	}
+
+	// copies the distances from atom row to every atom, distances[offset + column]
+	abstract void setRow(int row, int[] distances, int offset);
+
+}
@@ -0,0 +1,86 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// The Java Flight Recorder events of PipelineStats: every finished stage is a StageEvent and every
+// described molecule a MoleculeEvent, which cost next to nothing unless a recording is running.
+// The only class that uses jdk.jfr, PipelineStats only loads it when the JVM has jdk.jfr (Java 11 or later),
+// so the rest runs on Java 8. Building it needs JDK 11 or later.
+public class FlightRecorderEvents {
+
+	@Name("NewAtomDescriptors.Stage")
+	@Label("Descriptor stage")
+	@Category("NewAtomDescriptors")
+	public static class StageEvent extends Event {
+		@Label("Stage")
+		String stage;
+		@Label("Stage duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long stageDuration;
+	}
+
+	@Name("NewAtomDescriptors.Molecule")
+	@Label("Described molecule")
+	@Category("NewAtomDescriptors")
+	public static class MoleculeEvent extends Event {
+		@Label("Molecule index")
+		int moleculeIndex;
+		@Label("Atoms")
+		int atomCount;
+		@Label("Alternative fragments")
+		int alternativeCount;
+		@Label("Molecule duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long moleculeDuration;
+	}
+
+	static void stage(String stage, long nanos) {
+		StageEvent event = new StageEvent();
+		if (event.isEnabled()) {
+			event.stage = stage;
+			event.stageDuration = nanos;
+			event.commit();
+		}
+	}
+
+	static void molecule(int moleculeIndex, int atomCount, int alternativeCount, long nanos) {
+		MoleculeEvent event = new MoleculeEvent();
+		if (event.isEnabled()) {
+			event.moleculeIndex = moleculeIndex;
+			event.atomCount = atomCount;
+			event.alternativeCount = alternativeCount;
+			event.moleculeDuration = nanos;
+			event.commit();
+		}
+	}
+
+}
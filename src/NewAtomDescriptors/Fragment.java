@@ -0,0 +1,136 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Arrays;
+
+import org.openscience.cdk.AtomContainer;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.ILonePair;
+import org.openscience.cdk.interfaces.ISingleElectron;
+
+// A fragment of a molecule as a bitset over its atom indices (one bit per atom in a long[]).
+// Fragments are built, compared and counted on the bits; an IAtomContainer is only made by
+// materialise() when a CDK descriptor needs one.
+public class Fragment {
+
+	private final int atomCount;
+	private final long[] words;
+
+	public Fragment(int atomCount) {
+		this.atomCount = atomCount;
+		this.words = new long[(atomCount + 63) >>> 6];
+	}
+
+	public Fragment(Fragment other) {
+		this.atomCount = other.atomCount;
+		this.words = other.words.clone();
+	}
+
+	public void add(int atomIndex) {
+		words[atomIndex >>> 6] |= 1L << atomIndex;
+	}
+
+	public void remove(int atomIndex) {
+		words[atomIndex >>> 6] &= ~(1L << atomIndex);
+	}
+
+	public boolean contains(int atomIndex) {
+		return (words[atomIndex >>> 6] & (1L << atomIndex)) != 0;
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0L);
+	}
+
+	public void copyFrom(Fragment other) {
+		System.arraycopy(other.words, 0, words, 0, words.length);
+	}
+
+	// number of atoms in the fragment
+	public int size() {
+		int size = 0;
+		for (long word : words) size += Long.bitCount(word);
+		return size;
+	}
+
+	// index of the first atom at or after fromIndex, or -1
+	public int nextAtom(int fromIndex) {
+		if (fromIndex >= atomCount) return -1;
+		int wordIndex = fromIndex >>> 6;
+		long word = words[wordIndex] & (-1L << fromIndex);
+		while (true) {
+			if (word != 0) return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+			if (++wordIndex == words.length) return -1;
+			word = words[wordIndex];
+		}
+	}
+
+	// true if every atom of other is in this fragment
+	public boolean containsAll(Fragment other) {
+		for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+			if ((other.words[wordIndex] & ~words[wordIndex]) != 0) return false;
+		}
+		return true;
+	}
+
+	// true if the fragments have an atom in common
+	public boolean intersects(Fragment other) {
+		for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+			if ((other.words[wordIndex] & words[wordIndex]) != 0) return true;
+		}
+		return false;
+	}
+
+	public boolean sameAtoms(Fragment other) {
+		return Arrays.equals(words, other.words);
+	}
+
+	// A container with the fragment atoms and the bonds between them, in the order of the molecule.
+	// This is what new AtomContainer(molecule) followed by removeAtomAndConnectedElectronContainers on
+	// every other atom used to give; atoms and bonds are shared with the molecule, not copied.
+	public IAtomContainer materialise(IAtomContainer molecule, NeighbourList neighbourList) {
+		IAtomContainer container = new AtomContainer();
+		for (int atomIndex = nextAtom(0); atomIndex >= 0; atomIndex = nextAtom(atomIndex + 1)) {
+			container.addAtom(molecule.getAtom(atomIndex));
+		}
+		for (int bondIndex = 0; bondIndex < molecule.getBondCount(); bondIndex++) {
+			if (contains(neighbourList.bondAtom0(bondIndex)) && contains(neighbourList.bondAtom1(bondIndex))) {
+				container.addBond(molecule.getBond(bondIndex));
+			}
+		}
+		for (int index = 0; index < molecule.getLonePairCount(); index++) {
+			ILonePair lonePair = molecule.getLonePair(index);
+			if (contains(molecule.getAtomNumber(lonePair.getAtom()))) container.addLonePair(lonePair);
+		}
+		for (int index = 0; index < molecule.getSingleElectronCount(); index++) {
+			ISingleElectron singleElectron = molecule.getSingleElectron(index);
+			if (contains(molecule.getAtomNumber(singleElectron.getAtom()))) container.addSingleElectron(singleElectron);
+		}
+		return container;
+	}
+
+}
@@ -0,0 +1,111 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Fragment descriptors shared over molecules, keyed by the canonical fragment hash from FragmentHasher.
+// Holds at most maxSize fragments and evicts the least recently used one.
+// Thread safe, all worker threads share one cache through DescriptorSettings.
+public class FragmentDescriptorCache {
+
+	// 128 bit fragment hash
+	public static final class Key {
+		private final long high;
+		private final long low;
+
+		public Key(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) return false;
+			Key key = (Key) other;
+			return high == key.high && low == key.low;
+		}
+
+		public int hashCode() {
+			return (int) (high ^ (high >>> 32));
+		}
+
+		public String toString() {
+			return String.format("%016x%016x", high, low);
+		}
+	}
+
+	private final int maxSize;
+	private final LinkedHashMap<Key, FragmentDescriptors> entries;
+	private long hits = 0;
+	private long misses = 0;
+
+	public FragmentDescriptorCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<Key, FragmentDescriptors>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, FragmentDescriptors> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	// null if the fragment is not in the cache, counts a hit or a miss
+	public synchronized FragmentDescriptors get(Key key) {
+		FragmentDescriptors descriptors = entries.get(key);
+		if (descriptors == null) misses++;
+		else hits++;
+		return descriptors;
+	}
+
+	public synchronized void put(Key key, FragmentDescriptors descriptors) {
+		entries.put(key, descriptors);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return String.format("fragment cache: %d hits, %d misses (%.1f%% hits), %d of %d entries used", hits, misses,
+				(lookups == 0) ? 0.0 : 100.0 * hits / lookups, entries.size(), maxSize);
+	}
+
+}
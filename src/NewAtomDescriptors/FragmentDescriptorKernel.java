@@ -0,0 +1,490 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openscience.cdk.Atom;
+import org.openscience.cdk.AtomContainer;
+import org.openscience.cdk.Bond;
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IRingSet;
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.openscience.cdk.qsar.descriptors.molecular.HBondAcceptorCountDescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.TPSADescriptor;
+import org.openscience.cdk.qsar.descriptors.molecular.VABCDescriptor;
+import org.openscience.cdk.qsar.result.DoubleResult;
+import org.openscience.cdk.qsar.result.IntegerResult;
+import org.openscience.cdk.ringsearch.SSSRFinder;
+
+// Native fragment descriptors from per-atom contribution tables of one molecule.
+// Most descriptors are a sum over the fragment atoms, and what an atom contributes only depends on the atom
+// itself and on which of its bonds are inside the fragment:
+// TPSA		Ertl's polar atom contributions. The value for an atom with a given set of bonds comes from
+//		TPSADescriptor on that atom with carbon stand-ins as neighbours, so it is CDK's own table.
+// HAcount	likewise from HBondAcceptorCountDescriptor on the atom with its neighbours, charged so that
+//		they are not acceptors themselves
+// HDcount	the rule of HBondDonorCountDescriptor
+// Volume		VABC atom volumes with their hydrogens (VABCDescriptor on the single atom), plus what
+//		VABCDescriptor gives a bond (the bond itself and the two hydrogens it replaces) per bond,
+//		plus the ring term
+// PIsystemSize	the breadth-first search of LargestPiSystemDescriptor, by union-find over the fragment bonds
+// logP		Mannhold's 1.46 + 0.11 per carbon - 0.11 per hetero atom
+// VABCDescriptor finds the aromaticity of the fragment container itself and leaves it on the atoms and bonds,
+// where the H-bond acceptor count and the pi system see it, and as the fragment containers share the atoms and
+// bonds of the molecule, so does TPSA on the fragments after it. The kernel keeps those flags the same way.
+// Both that aromaticity and the ring term only depend on the fragment atoms in or next to a ring of the
+// molecule, so for a fragment with a ring VABCDescriptor is run on a copy of just those atoms, once for each
+// such set of atoms.
+// Used for one molecule at a time from one thread, for its fragments in the order the CDK descriptors get them.
+public class FragmentDescriptorKernel {
+
+	private static final int OTHER = 0;
+	private static final int CARBON = 1;
+	private static final int NITROGEN = 2;
+	private static final int OXYGEN = 3;
+	private static final int HYDROGEN = 4;
+	private static final int SULPHUR = 5;
+	private static final int PHOSPHORUS = 6;
+
+	private final IAtomContainer molecule;
+	private final NeighbourList neighbourList;
+	private final VABCDescriptor vabcDescriptor = new VABCDescriptor();
+	// per atom
+	private final int[] elements;
+	private final int[] formalCharges;
+	private final int[] implicitHydrogens;
+	private final double[] atomVolumes;
+	// the aromatic flags VABCDescriptor left on the atoms and bonds
+	private final boolean[] aromaticAtoms;
+	private final boolean[] aromaticBonds;
+	// per bond
+	private final IBond.Order[] bondOrders;
+	// VABC volume of a bond, less what it takes away from the volumes of its two atoms
+	private double bondVolume = Double.NaN;
+	// the atoms in a ring of the molecule and their neighbours
+	private final Fragment ringNeighbourhood;
+	// ring term and aromatic atoms by the ring neighbourhood atoms of a fragment
+	private final Map<BitSet, RingTerm> ringTerms = new HashMap<BitSet, RingTerm>();
+	// TPSA contribution by atom index, bit mask of the atom's bonds that are in the fragment and bit mask of
+	// those that are aromatic
+	private final Map<Long, Double> tpsaContributions = new HashMap<Long, Double>();
+	private final TPSADescriptor tpsaDescriptor = new TPSADescriptor();
+	// 1 for an acceptor by atom index, bit mask of the atom's bonds that are in the fragment, bit mask of the
+	// neighbours that are aromatic and whether the atom is
+	private final Map<Long, Integer> acceptorContributions = new HashMap<Long, Integer>();
+	private final HBondAcceptorCountDescriptor acceptorDescriptor = new HBondAcceptorCountDescriptor();
+	// work arrays: union-find, and per fragment atom its bonds in the fragment and whether it is a pi atom
+	private final int[] parents;
+	private final int[] sizes;
+	private final int[] degrees;
+	private final boolean[] piAtoms;
+
+	// The VABC volume a set of ring atoms and their neighbours has beyond its atoms and bonds, and which of
+	// its atoms VABCDescriptor found aromatic.
+	private static class RingTerm {
+
+		private final double volume;
+		private final int[] aromaticAtoms;
+		private final int[] aromaticBonds;
+
+		private RingTerm(double volume, int[] aromaticAtoms, int[] aromaticBonds) {
+			this.volume = volume;
+			this.aromaticAtoms = aromaticAtoms;
+			this.aromaticBonds = aromaticBonds;
+		}
+
+	}
+
+	public FragmentDescriptorKernel(MoleculeKU molecule) throws CDKException {
+		this.molecule = molecule;
+		this.neighbourList = molecule.getNeighbourList();
+		int atomCount = molecule.getAtomCount();
+		elements = new int[atomCount];
+		formalCharges = new int[atomCount];
+		implicitHydrogens = new int[atomCount];
+		atomVolumes = new double[atomCount];
+		aromaticAtoms = new boolean[atomCount];
+		aromaticBonds = new boolean[molecule.getBondCount()];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			IAtom atom = molecule.getAtom(atomIndex);
+			//two bond masks share an int in the table keys
+			if (neighbourList.degree(atomIndex) > 15) throw new CDKException("Atom " + (atomIndex + 1) + " has more than 15 bonds");
+			elements[atomIndex] = element(atom.getSymbol());
+			formalCharges[atomIndex] = atom.getFormalCharge();
+			Integer hcount = atom.getImplicitHydrogenCount();
+			implicitHydrogens[atomIndex] = (hcount == CDKConstants.UNSET) ? 0 : hcount;
+			aromaticAtoms[atomIndex] = atom.getFlag(CDKConstants.ISAROMATIC);
+			//the volume of the atom and its hydrogens, less the bonds to the hydrogens
+			IAtomContainer single = new AtomContainer();
+			single.addAtom(copyAtom(atomIndex));
+			atomVolumes[atomIndex] = doubleValue(vabcDescriptor.calculate(single));
+		}
+		bondOrders = new IBond.Order[molecule.getBondCount()];
+		for (int bondIndex = 0; bondIndex < bondOrders.length; bondIndex++) {
+			bondOrders[bondIndex] = molecule.getBond(bondIndex).getOrder();
+			aromaticBonds[bondIndex] = molecule.getBond(bondIndex).getFlag(CDKConstants.ISAROMATIC);
+			//VABC is the same for every bond, but atoms it has no radius for give NaN
+			if (Double.isNaN(bondVolume)) {
+				int atom0 = neighbourList.bondAtom0(bondIndex);
+				int atom1 = neighbourList.bondAtom1(bondIndex);
+				Fragment pair = new Fragment(atomCount);
+				pair.add(atom0);
+				pair.add(atom1);
+				bondVolume = doubleValue(vabcDescriptor.calculate(copy(pair))) - atomVolumes[atom0] - atomVolumes[atom1];
+			}
+		}
+		ringNeighbourhood = new Fragment(atomCount);
+		IRingSet ringSet = new SSSRFinder(molecule).findSSSR();
+		for (int ringIndex = 0; ringIndex < ringSet.getAtomContainerCount(); ringIndex++) {
+			IAtomContainer ring = ringSet.getAtomContainer(ringIndex);
+			for (int ringAtom = 0; ringAtom < ring.getAtomCount(); ringAtom++) {
+				int atomIndex = molecule.getAtomNumber(ring.getAtom(ringAtom));
+				ringNeighbourhood.add(atomIndex);
+				for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+					ringNeighbourhood.add(neighbourList.neighbour(position));
+				}
+			}
+		}
+		parents = new int[atomCount];
+		sizes = new int[atomCount];
+		degrees = new int[atomCount];
+		piAtoms = new boolean[atomCount];
+	}
+
+	// The descriptors of values for the fragment. The aromatic flags change as they do on the CDK path, where
+	// VABCDescriptor only runs when the volume is one of the values.
+	public FragmentDescriptors calculate(Fragment fragment, EnumSet<FragmentDescriptors.Value> values) throws CDKException {
+		double tpsa = 0;
+		double volume = 0;
+		int acceptors = 0;
+		int donors = 0;
+		int carbons = 0;
+		int heteroAtoms = 0;
+		int fragmentAtoms = 0;
+		int fragmentBonds = 0;
+
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			int element = elements[atomIndex];
+			int start = neighbourList.start(atomIndex);
+			int bondMask = 0;
+			int aromaticMask = 0;
+			int degree = 0;
+			boolean multipleBond = false;
+			for (int position = start; position < neighbourList.end(atomIndex); position++) {
+				int neighbour = neighbourList.neighbour(position);
+				if (!fragment.contains(neighbour)) continue;
+				int bond = neighbourList.bond(position);
+				bondMask |= 1 << (position - start);
+				if (aromaticBonds[bond]) aromaticMask |= 1 << (position - start);
+				degree++;
+				if (bondOrders[bond] != IBond.Order.SINGLE) multipleBond = true;
+				if (neighbour > atomIndex) fragmentBonds++;
+			}
+			fragmentAtoms++;
+			degrees[atomIndex] = degree;
+			if (isPolar(atomIndex)) tpsa += tpsaContribution(atomIndex, bondMask, aromaticMask);
+			volume += atomVolumes[atomIndex];
+			if (element == CARBON) carbons++;
+			else if (element != HYDROGEN) heteroAtoms++;
+			//the atoms LargestPiSystemDescriptor puts into pi systems, before the aromatic ones
+			piAtoms[atomIndex] = multipleBond || Math.abs(formalCharges[atomIndex]) >= 1 || element == NITROGEN || element == OXYGEN;
+		}
+		if (fragmentBonds > 0) volume += bondVolume * fragmentBonds;
+
+		if (values.contains(FragmentDescriptors.Value.VOLUME)) {
+			//VABCDescriptor clears the aromatic flags of the fragment and sets those of its aromatic rings,
+			//only a fragment with a cycle has any
+			for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+				aromaticAtoms[atomIndex] = false;
+				for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+					if (fragment.contains(neighbourList.neighbour(position))) aromaticBonds[neighbourList.bond(position)] = false;
+				}
+			}
+			int components = countComponents(fragment, false);
+			if (fragmentBonds - fragmentAtoms + components > 0) {
+				RingTerm ringTerm = ringTerm(fragment);
+				volume += ringTerm.volume;
+				for (int atomIndex : ringTerm.aromaticAtoms) aromaticAtoms[atomIndex] = true;
+				for (int bondIndex : ringTerm.aromaticBonds) aromaticBonds[bondIndex] = true;
+			}
+		}
+
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			if (aromaticAtoms[atomIndex]) piAtoms[atomIndex] = true;
+			int element = elements[atomIndex];
+			if (element != NITROGEN && element != OXYGEN) continue;
+			int start = neighbourList.start(atomIndex);
+			int bondMask = 0;
+			int aromaticMask = 0;
+			boolean explicitHydrogen = false;
+			for (int position = start; position < neighbourList.end(atomIndex); position++) {
+				int neighbour = neighbourList.neighbour(position);
+				if (!fragment.contains(neighbour)) continue;
+				bondMask |= 1 << (position - start);
+				if (aromaticAtoms[neighbour]) aromaticMask |= 1 << (position - start);
+				if (elements[neighbour] == HYDROGEN) explicitHydrogen = true;
+			}
+			acceptors += acceptorContribution(atomIndex, bondMask, aromaticMask);
+			if (formalCharges[atomIndex] >= 0 && (implicitHydrogens[atomIndex] > 0 || explicitHydrogen)) donors++;
+		}
+
+		//LargestPiSystemDescriptor searches from the first pi atom of each pi system in atom order and does not
+		//count that atom unless the search comes back to it, which it does from a neighbour with more than one bond
+		countComponents(fragment, true);
+		int largestPiSystem = 0;
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			if (!piAtoms[atomIndex]) continue;
+			int root = find(atomIndex);
+			if (sizes[root] < 0) continue;
+			int piSystem = sizes[root] - 1;
+			for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+				int neighbour = neighbourList.neighbour(position);
+				if (fragment.contains(neighbour) && piAtoms[neighbour] && degrees[neighbour] > 1) {
+					piSystem++;
+					break;
+				}
+			}
+			if (piSystem > largestPiSystem) largestPiSystem = piSystem;
+			//the rest of this pi system has been searched
+			sizes[root] = -1;
+		}
+
+		double logP = 1.46 + 0.11 * carbons - 0.11 * heteroAtoms;
+		return new FragmentDescriptors(tpsa, volume, acceptors, donors, largestPiSystem, logP).select(values);
+	}
+
+	// VABCDescriptor on a copy of the fragment atoms in or next to a ring, less the atom and bond volumes
+	private RingTerm ringTerm(Fragment fragment) throws CDKException {
+		Fragment ringAtoms = new Fragment(fragment);
+		BitSet key = new BitSet();
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			if (ringNeighbourhood.contains(atomIndex)) key.set(atomIndex);
+			else ringAtoms.remove(atomIndex);
+		}
+		RingTerm ringTerm = ringTerms.get(key);
+		if (ringTerm == null) {
+			IAtomContainer copy = copy(ringAtoms);
+			double volume = doubleValue(vabcDescriptor.calculate(copy)) - bondVolume * copy.getBondCount();
+			int aromaticCount = 0;
+			for (int index = 0; index < copy.getAtomCount(); index++) {
+				if (copy.getAtom(index).getFlag(CDKConstants.ISAROMATIC)) aromaticCount++;
+			}
+			int[] aromatic = new int[aromaticCount];
+			aromaticCount = 0;
+			int index = 0;
+			for (int atomIndex = ringAtoms.nextAtom(0); atomIndex >= 0; atomIndex = ringAtoms.nextAtom(atomIndex + 1), index++) {
+				volume -= atomVolumes[atomIndex];
+				if (copy.getAtom(index).getFlag(CDKConstants.ISAROMATIC)) aromatic[aromaticCount++] = atomIndex;
+			}
+			//the bonds of the copy are in the order of the molecule
+			int aromaticBondCount = 0;
+			for (index = 0; index < copy.getBondCount(); index++) {
+				if (copy.getBond(index).getFlag(CDKConstants.ISAROMATIC)) aromaticBondCount++;
+			}
+			int[] aromaticBondIndices = new int[aromaticBondCount];
+			aromaticBondCount = 0;
+			index = 0;
+			for (int bondIndex = 0; bondIndex < bondOrders.length; bondIndex++) {
+				if (!ringAtoms.contains(neighbourList.bondAtom0(bondIndex)) || !ringAtoms.contains(neighbourList.bondAtom1(bondIndex))) continue;
+				if (copy.getBond(index++).getFlag(CDKConstants.ISAROMATIC)) aromaticBondIndices[aromaticBondCount++] = bondIndex;
+			}
+			ringTerm = new RingTerm(volume, aromatic, aromaticBondIndices);
+			ringTerms.put(key, ringTerm);
+		}
+		return ringTerm;
+	}
+
+	// Union-find over the bonds inside the fragment, or only over those between two pi atoms.
+	// Afterwards every root in parents[] has its component size in sizes[]. Returns the number of components.
+	private int countComponents(Fragment fragment, boolean piBondsOnly) {
+		int components = 0;
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			parents[atomIndex] = atomIndex;
+			sizes[atomIndex] = 1;
+			components++;
+		}
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			if (piBondsOnly && !piAtoms[atomIndex]) continue;
+			for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+				int neighbour = neighbourList.neighbour(position);
+				if (neighbour < atomIndex || !fragment.contains(neighbour)) continue;
+				if (piBondsOnly && !piAtoms[neighbour]) continue;
+				int root = find(atomIndex);
+				int otherRoot = find(neighbour);
+				if (root == otherRoot) continue;
+				if (sizes[root] < sizes[otherRoot]) {
+					int swap = root;
+					root = otherRoot;
+					otherRoot = swap;
+				}
+				parents[otherRoot] = root;
+				sizes[root] += sizes[otherRoot];
+				components--;
+			}
+		}
+		return components;
+	}
+
+	private int find(int atomIndex) {
+		while (parents[atomIndex] != atomIndex) {
+			parents[atomIndex] = parents[parents[atomIndex]];
+			atomIndex = parents[atomIndex];
+		}
+		return atomIndex;
+	}
+
+	private boolean isPolar(int atomIndex) {
+		int element = elements[atomIndex];
+		return element == NITROGEN || element == OXYGEN || element == SULPHUR || element == PHOSPHORUS;
+	}
+
+	// bondMask has bit k set if the bond to the k-th neighbour of the atom is inside the fragment,
+	// aromaticMask if that bond is also aromatic
+	private double tpsaContribution(int atomIndex, int bondMask, int aromaticMask) throws CDKException {
+		Long key = Long.valueOf(((long) atomIndex << 32) | (aromaticMask << 16) | bondMask);
+		Double contribution = tpsaContributions.get(key);
+		if (contribution == null) {
+			contribution = doubleValue(tpsaDescriptor.calculate(localEnvironment(atomIndex, bondMask)));
+			tpsaContributions.put(key, contribution);
+		}
+		return contribution.doubleValue();
+	}
+
+	// aromaticMask has bit k set if the k-th neighbour of the atom is inside the fragment and aromatic
+	private int acceptorContribution(int atomIndex, int bondMask, int aromaticMask) throws CDKException {
+		Long key = Long.valueOf(((long) atomIndex << 32) | ((aromaticAtoms[atomIndex]) ? 1L << 31 : 0) | (aromaticMask << 16) | bondMask);
+		Integer contribution = acceptorContributions.get(key);
+		if (contribution == null) {
+			IAtomContainer environment = new AtomContainer();
+			IAtom centre = copyAtom(atomIndex);
+			environment.addAtom(centre);
+			int start = neighbourList.start(atomIndex);
+			for (int k = 0; k < neighbourList.degree(atomIndex); k++) {
+				if ((bondMask & (1 << k)) == 0) continue;
+				IAtom neighbour = copyAtom(neighbourList.neighbour(start + k));
+				neighbour.setFormalCharge(1);
+				environment.addAtom(neighbour);
+				environment.addBond(copyBond(neighbourList.bond(start + k), centre, neighbour));
+			}
+			DescriptorValue value = acceptorDescriptor.calculate(environment);
+			contribution = Integer.valueOf(((IntegerResult) value.getValue()).intValue());
+			acceptorContributions.put(key, contribution);
+		}
+		return contribution.intValue();
+	}
+
+	// The atom with the bonds of bondMask, to carbon stand-ins for its neighbours (explicit hydrogens stay
+	// hydrogens), and the bonds between those neighbours so that 3-membered rings are kept.
+	// TPSADescriptor only profiles N, O, S and P atoms, so the result is exactly the atom's contribution.
+	private IAtomContainer localEnvironment(int atomIndex, int bondMask) throws CDKException {
+		IAtomContainer environment = new AtomContainer();
+		IAtom centre = copyAtom(atomIndex);
+		environment.addAtom(centre);
+		int start = neighbourList.start(atomIndex);
+		int degree = neighbourList.degree(atomIndex);
+		IAtom[] standIns = new IAtom[degree];
+		for (int k = 0; k < degree; k++) {
+			if ((bondMask & (1 << k)) == 0) continue;
+			standIns[k] = new Atom(elements[neighbourList.neighbour(start + k)] == HYDROGEN ? "H" : "C");
+			standIns[k].setFormalCharge(0);
+			standIns[k].setImplicitHydrogenCount(0);
+			environment.addAtom(standIns[k]);
+			environment.addBond(copyBond(neighbourList.bond(start + k), centre, standIns[k]));
+		}
+		for (int k = 0; k < degree; k++) {
+			if (standIns[k] == null) continue;
+			int neighbourK = neighbourList.neighbour(start + k);
+			for (int l = k + 1; l < degree; l++) {
+				if (standIns[l] == null) continue;
+				int neighbourL = neighbourList.neighbour(start + l);
+				for (int position = neighbourList.start(neighbourK); position < neighbourList.end(neighbourK); position++) {
+					if (neighbourList.neighbour(position) == neighbourL) {
+						environment.addBond(copyBond(neighbourList.bond(position), standIns[k], standIns[l]));
+					}
+				}
+			}
+		}
+		return environment;
+	}
+
+	// A container with copies of the fragment atoms and of the bonds between them, in the order of the molecule
+	private IAtomContainer copy(Fragment fragment) throws CDKException {
+		IAtomContainer copy = new AtomContainer();
+		IAtom[] copies = new IAtom[molecule.getAtomCount()];
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			copies[atomIndex] = copyAtom(atomIndex);
+			copy.addAtom(copies[atomIndex]);
+		}
+		for (int bondIndex = 0; bondIndex < bondOrders.length; bondIndex++) {
+			IAtom atom0 = copies[neighbourList.bondAtom0(bondIndex)];
+			IAtom atom1 = copies[neighbourList.bondAtom1(bondIndex)];
+			if (atom0 != null && atom1 != null) copy.addBond(copyBond(bondIndex, atom0, atom1));
+		}
+		return copy;
+	}
+
+	private IBond copyBond(int bondIndex, IAtom atom0, IAtom atom1) {
+		IBond original = molecule.getBond(bondIndex);
+		IBond copy = new Bond(atom0, atom1, original.getOrder());
+		copy.setFlag(CDKConstants.ISAROMATIC, aromaticBonds[bondIndex]);
+		return copy;
+	}
+
+	// the descriptors may change flags of the atoms they get, so they only get copies, with the aromatic flag
+	// the atom has on the CDK path
+	private IAtom copyAtom(int atomIndex) throws CDKException {
+		try {
+			IAtom copy = molecule.getAtom(atomIndex).clone();
+			copy.setFlag(CDKConstants.ISAROMATIC, aromaticAtoms[atomIndex]);
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new CDKException("Could not copy atom", e);
+		}
+	}
+
+	private static double doubleValue(DescriptorValue value) {
+		return ((DoubleResult) value.getValue()).doubleValue();
+	}
+
+	private static int element(String symbol) {
+		if (symbol.equals("C")) return CARBON;
+		if (symbol.equals("N")) return NITROGEN;
+		if (symbol.equals("O")) return OXYGEN;
+		if (symbol.equals("H")) return HYDROGEN;
+		if (symbol.equals("S")) return SULPHUR;
+		if (symbol.equals("P")) return PHOSPHORUS;
+		return OTHER;
+	}
+
+}
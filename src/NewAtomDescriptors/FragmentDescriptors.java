@@ -0,0 +1,115 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.EnumSet;
+
+// The CDK descriptor values of one fragment: TPSA, VABC volume, H-bond acceptor and donor counts,
+// largest pi system and Mannhold logP.
+// Only the values of the chosen columns are computed, a value that is not is NaN or Integer.MIN_VALUE.
+public class FragmentDescriptors {
+
+	public enum Value {
+		TPSA, VOLUME, HBOND_ACCEPTORS, HBOND_DONORS, PI_SYSTEM, LOGP
+	}
+
+	// no values at all, for fragments of which only the atom count and distance are written
+	public static final FragmentDescriptors NONE = new FragmentDescriptors(Double.NaN, Double.NaN, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Double.NaN);
+
+	private final double tpsa;
+	private final double volume;
+	private final int hbondAcceptorCount;
+	private final int hbondDonorCount;
+	private final int piSystemSize;
+	private final double logP;
+
+	public FragmentDescriptors(double tpsa, double volume, int hbondAcceptorCount, int hbondDonorCount, int piSystemSize, double logP) {
+		this.tpsa = tpsa;
+		this.volume = volume;
+		this.hbondAcceptorCount = hbondAcceptorCount;
+		this.hbondDonorCount = hbondDonorCount;
+		this.piSystemSize = piSystemSize;
+		this.logP = logP;
+	}
+
+	public double getTPSA() {
+		return tpsa;
+	}
+
+	public double getVolume() {
+		return volume;
+	}
+
+	public int getHBondAcceptorCount() {
+		return hbondAcceptorCount;
+	}
+
+	public int getHBondDonorCount() {
+		return hbondDonorCount;
+	}
+
+	public int getPiSystemSize() {
+		return piSystemSize;
+	}
+
+	public double getLogP() {
+		return logP;
+	}
+
+	// a copy with only the given values, the others missing
+	public FragmentDescriptors select(EnumSet<Value> values) {
+		return new FragmentDescriptors(values.contains(Value.TPSA) ? tpsa : Double.NaN, values.contains(Value.VOLUME) ? volume : Double.NaN,
+				values.contains(Value.HBOND_ACCEPTORS) ? hbondAcceptorCount : Integer.MIN_VALUE,
+				values.contains(Value.HBOND_DONORS) ? hbondDonorCount : Integer.MIN_VALUE,
+				values.contains(Value.PI_SYSTEM) ? piSystemSize : Integer.MIN_VALUE, values.contains(Value.LOGP) ? logP : Double.NaN);
+	}
+
+	// Returns null if every value agrees with other within tolerance (NaN only agrees with NaN),
+	// otherwise a description of the values that differ
+	public String differences(FragmentDescriptors other, double tolerance) {
+		StringBuilder differences = new StringBuilder();
+		compare(differences, "TPSA", tpsa, other.tpsa, tolerance);
+		compare(differences, "Volume", volume, other.volume, tolerance);
+		compare(differences, "HAcount", hbondAcceptorCount, other.hbondAcceptorCount, tolerance);
+		compare(differences, "HDcount", hbondDonorCount, other.hbondDonorCount, tolerance);
+		compare(differences, "PIsystemSize", piSystemSize, other.piSystemSize, tolerance);
+		compare(differences, "logP", logP, other.logP, tolerance);
+		return (differences.length() == 0) ? null : differences.toString();
+	}
+
+	private static void compare(StringBuilder differences, String name, double value, double otherValue, double tolerance) {
+		if (Double.isNaN(value) && Double.isNaN(otherValue)) return;
+		if (Math.abs(value - otherValue) <= tolerance) return;
+		if (differences.length() > 0) differences.append(", ");
+		differences.append(name).append(' ').append(value).append(" vs ").append(otherValue);
+	}
+
+	public String toString() {
+		return "TPSA:" + tpsa + " Volume:" + volume + " HAcount:" + hbondAcceptorCount + " HDcount:" + hbondDonorCount
+				+ " PIsystemSize:" + piSystemSize + " logP:" + logP;
+	}
+
+}
@@ -0,0 +1,155 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Arrays;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IBond;
+
+// Canonical 128 bit hashes of fragments, for FragmentDescriptorCache.
+// Atoms start from an invariant of everything the fragment descriptors look at (element, formal charge,
+// implicit hydrogens, aromaticity) and are refined Morgan style with the hashes of their neighbours
+// and the bonds to them (order, aromaticity) until the number of distinct hashes stops growing.
+// The sorted atom hashes then give the fragment hash, which does not depend on atom order.
+// The attachment atom takes part with an invariant of its own, so the key is fragment plus attachment.
+// Two independent 64 bit lanes make accidental collisions negligible.
+// One per molecule, not thread safe.
+public class FragmentHasher {
+
+	private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL};
+	private static final long ATTACHMENT = 0x5851F42D4C957F2DL;
+
+	private final NeighbourList neighbourList;
+	private final long[] atomInvariants;
+	private final long[] bondInvariants;
+
+	// work arrays, reused between fragments
+	private final int[] localIndex;
+	private int[] atoms;
+	private long[][] hashes;
+	private long[][] nextHashes;
+	private long[] sorted;
+
+	public FragmentHasher(MoleculeKU molecule) {
+		neighbourList = molecule.getNeighbourList();
+		int atomCount = neighbourList.getAtomCount();
+		atomInvariants = new long[atomCount];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			IAtom atom = molecule.getAtom(atomIndex);
+			long invariant = atom.getSymbol().hashCode();
+			invariant = invariant * 31 + ((atom.getFormalCharge() == null) ? 0 : atom.getFormalCharge());
+			invariant = invariant * 31 + ((atom.getImplicitHydrogenCount() == null) ? -1 : atom.getImplicitHydrogenCount());
+			invariant = invariant * 31 + (atom.getFlag(CDKConstants.ISAROMATIC) ? 1 : 0);
+			atomInvariants[atomIndex] = invariant;
+		}
+		bondInvariants = new long[neighbourList.getBondCount()];
+		for (int bondIndex = 0; bondIndex < bondInvariants.length; bondIndex++) {
+			IBond bond = molecule.getBond(bondIndex);
+			long invariant = (bond.getOrder() == null) ? 0 : bond.getOrder().ordinal() + 1;
+			bondInvariants[bondIndex] = invariant * 31 + (bond.getFlag(CDKConstants.ISAROMATIC) ? 1 : 0);
+		}
+		localIndex = new int[atomCount];
+		Arrays.fill(localIndex, -1);
+		atoms = new int[atomCount];
+		hashes = new long[2][atomCount];
+		nextHashes = new long[2][atomCount];
+		sorted = new long[atomCount];
+	}
+
+	// the key of the fragment atoms (attachment atom not included) seen from the attachment atom
+	public FragmentDescriptorCache.Key key(Fragment fragment, int attachmentAtom) {
+		int atomCount = 0;
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			atoms[atomCount++] = atomIndex;
+		}
+		if (!fragment.contains(attachmentAtom)) atoms[atomCount++] = attachmentAtom;
+		for (int local = 0; local < atomCount; local++) localIndex[atoms[local]] = local;
+
+		for (int lane = 0; lane < 2; lane++) {
+			for (int local = 0; local < atomCount; local++) {
+				long invariant = (atoms[local] == attachmentAtom) ? ATTACHMENT : atomInvariants[atoms[local]];
+				hashes[lane][local] = mix(SEEDS[lane] ^ invariant);
+			}
+		}
+
+		int classes = countClasses(hashes[0], atomCount);
+		for (int iteration = 0; iteration < atomCount; iteration++) {
+			for (int lane = 0; lane < 2; lane++) {
+				long[] current = hashes[lane];
+				long[] next = nextHashes[lane];
+				for (int local = 0; local < atomCount; local++) {
+					int atomIndex = atoms[local];
+					//sum of the neighbour terms, so neighbour order does not matter
+					long neighbourSum = 0;
+					for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+						int neighbourLocal = localIndex[neighbourList.neighbour(position)];
+						if (neighbourLocal < 0) continue;
+						neighbourSum += mix(current[neighbourLocal] + SEEDS[lane] * bondInvariants[neighbourList.bond(position)]);
+					}
+					next[local] = mix(current[local] * SEEDS[lane] + neighbourSum);
+				}
+			}
+			long[][] swap = hashes;
+			hashes = nextHashes;
+			nextHashes = swap;
+			int newClasses = countClasses(hashes[0], atomCount);
+			if (newClasses <= classes) break;
+			classes = newClasses;
+		}
+
+		long[] key = new long[2];
+		for (int lane = 0; lane < 2; lane++) {
+			System.arraycopy(hashes[lane], 0, sorted, 0, atomCount);
+			Arrays.sort(sorted, 0, atomCount);
+			long hash = SEEDS[lane] + atomCount;
+			for (int local = 0; local < atomCount; local++) hash = mix(hash * 31 + sorted[local]);
+			key[lane] = hash;
+		}
+
+		for (int local = 0; local < atomCount; local++) localIndex[atoms[local]] = -1;
+		return new FragmentDescriptorCache.Key(key[0], key[1]);
+	}
+
+	private int countClasses(long[] values, int count) {
+		System.arraycopy(values, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		int classes = (count > 0) ? 1 : 0;
+		for (int index = 1; index < count; index++) {
+			if (sorted[index] != sorted[index - 1]) classes++;
+		}
+		return classes;
+	}
+
+	// the splitmix64 finaliser
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+
+}
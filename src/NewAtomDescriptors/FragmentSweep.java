@@ -0,0 +1,127 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+// Finds the atoms of the fragment between an atom and an end atom (Atoms2Keep in getAtoms2EndOfMolMolecules)
+// for one set of end atoms, giving the same atoms as MoleculeKU.collectFragmentAtoms with much less work.
+// For the atom a and the end atom c, at distance d from each other, an atom t is kept if
+//   t is not a, and t-c is shorter than d and (t-a is at most d or t is c), or t-c is d and RelSpan(t) > RelSpan(a),
+// unless t is on another branch: t-a is not d and some other end atom is closer to t than c is.
+// The loop tests every atom against every end atom. Here the closest and second closest end atom of every atom
+// are found once, so the branch test is a lookup, and the atoms are sorted into layers by their distance from
+// each end atom (once per end atom that is used), so only the atoms within distance d of c are looked at.
+public class FragmentSweep {
+
+	private final DistanceMatrix minTopDistMatrix;
+	private final double[] relSpan;
+	private final int atomCount;
+	// distance from each atom to its closest end atom, which end atom that is,
+	// and the distance to the closest of the other end atoms (equal to the first one on a tie)
+	private final int[] closestEndDistance;
+	private final int[] closestEnd;
+	private final int[] secondEndDistance;
+	// per end atom, the atoms it reaches ordered by distance from it, and where each distance starts, null until used
+	private final int[][] layerAtoms;
+	private final int[][] layerStarts;
+
+	// endAtoms has a 1 for each end atom, as from findAtomsatEndOfMolecule or findAtomsatEndOfBranch
+	public FragmentSweep(DistanceMatrix minTopDistMatrix, double[] relSpan, int[] endAtoms) {
+		this.minTopDistMatrix = minTopDistMatrix;
+		this.relSpan = relSpan;
+		this.atomCount = minTopDistMatrix.getAtomCount();
+		closestEndDistance = new int[atomCount];
+		closestEnd = new int[atomCount];
+		secondEndDistance = new int[atomCount];
+		layerAtoms = new int[atomCount][];
+		layerStarts = new int[atomCount][];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			closestEndDistance[atomIndex] = Integer.MAX_VALUE;
+			closestEnd[atomIndex] = -1;
+			secondEndDistance[atomIndex] = Integer.MAX_VALUE;
+		}
+		for (int endAtom = 0; endAtom < endAtoms.length; endAtom++) {
+			if (endAtoms[endAtom] != 1) continue;
+			for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+				int distance = minTopDistMatrix.getDistance(atomIndex, endAtom);
+				if (distance < closestEndDistance[atomIndex]) {
+					secondEndDistance[atomIndex] = closestEndDistance[atomIndex];
+					closestEndDistance[atomIndex] = distance;
+					closestEnd[atomIndex] = endAtom;
+				}
+				else if (distance < secondEndDistance[atomIndex]) {
+					secondEndDistance[atomIndex] = distance;
+				}
+			}
+		}
+	}
+
+	// Adds the atoms in between atomIndex and endAtom to fragment, atomIndex itself is not added
+	public void collect(int atomIndex, int endAtom, Fragment fragment) {
+		int shortest = minTopDistMatrix.getDistance(atomIndex, endAtom);
+		if (layerAtoms[endAtom] == null) sortIntoLayers(endAtom);
+		int[] atoms = layerAtoms[endAtom];
+		int[] starts = layerStarts[endAtom];
+		int lastLayer = Math.min(shortest, starts.length - 2);
+		for (int position = 0; position < starts[lastLayer + 1]; position++) {
+			int trialatomindex = atoms[position];
+			if (trialatomindex == atomIndex) continue;
+			int toEnd = minTopDistMatrix.getDistance(trialatomindex, endAtom);
+			int toAtom = minTopDistMatrix.getDistance(trialatomindex, atomIndex);
+			if (toEnd < shortest) {
+				if (toAtom > shortest && trialatomindex != endAtom) continue;
+			}
+			else if (!(relSpan[trialatomindex] > relSpan[atomIndex])) continue;
+			//on another branch if some other end atom is closer
+			int otherEndDistance = (closestEnd[trialatomindex] == endAtom) ? secondEndDistance[trialatomindex] : closestEndDistance[trialatomindex];
+			if (toAtom != shortest && toEnd > otherEndDistance) continue;
+			fragment.add(trialatomindex);
+		}
+	}
+
+	// counting sort of the atoms reachable from endAtom by their distance from it
+	private void sortIntoLayers(int endAtom) {
+		int farthest = 0;
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			int distance = minTopDistMatrix.getDistance(atomIndex, endAtom);
+			if (distance < atomCount && distance > farthest) farthest = distance;
+		}
+		int[] starts = new int[farthest + 2];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			int distance = minTopDistMatrix.getDistance(atomIndex, endAtom);
+			if (distance < atomCount) starts[distance + 1]++;
+		}
+		for (int layer = 1; layer < starts.length; layer++) starts[layer] += starts[layer - 1];
+		int[] atoms = new int[starts[starts.length - 1]];
+		int[] next = starts.clone();
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			int distance = minTopDistMatrix.getDistance(atomIndex, endAtom);
+			if (distance < atomCount) atoms[next[distance]++] = atomIndex;
+		}
+		layerAtoms[endAtom] = atoms;
+		layerStarts[endAtom] = starts;
+	}
+
+}
@@ -0,0 +1,117 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Arrays;
+
+// Distances without a matrix: each row is found by a breadth first search when it is first needed,
+// and at most maxRows rows are kept (the least recently used row is dropped). Memory is maxRows * n ints
+// whatever the size of the molecule. The matrix is symmetric, so a distance is taken from the row of
+// either atom if one of them is kept. The eccentricities take one search per atom up front.
+// Not thread safe, like the MoleculeKU that owns it, threadCopy gives a matrix with its own rows.
+public class LazyDistanceMatrix extends DistanceMatrix {
+
+	private final NeighbourList neighbourList;
+	// rows[slot] holds the distances from slotAtoms[slot], atomSlots[atom] is the slot of an atom or -1
+	private final int[][] rows;
+	private final int[] slotAtoms;
+	private final long[] slotUses;
+	private final int[] atomSlots;
+	private final int[] queue;
+	private long uses = 0;
+
+	public LazyDistanceMatrix(NeighbourList neighbourList, int maxRows) {
+		super(neighbourList.getAtomCount());
+		this.neighbourList = neighbourList;
+		int slots = Math.max(1, Math.min(maxRows, atomCount));
+		rows = new int[slots][];
+		slotAtoms = new int[slots];
+		slotUses = new long[slots];
+		atomSlots = new int[atomCount];
+		queue = new int[atomCount];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) atomSlots[atomIndex] = -1;
+		for (int slot = 0; slot < slots; slot++) slotAtoms[slot] = -1;
+
+		int[] eccentricities = new int[atomCount];
+		int diameter = 0;
+		int[] row = new int[atomCount];
+		for (int source = 0; source < atomCount; source++) {
+			eccentricities[source] = BFSDistanceEngine.searchRow(neighbourList, source, row, 0, queue);
+			if (eccentricities[source] > diameter) diameter = eccentricities[source];
+		}
+		setEccentricities(eccentricities, diameter);
+	}
+
+	// the eccentricities of other, no rows yet
+	private LazyDistanceMatrix(LazyDistanceMatrix other) {
+		super(other.atomCount);
+		this.neighbourList = other.neighbourList;
+		rows = new int[other.rows.length][];
+		slotAtoms = new int[rows.length];
+		slotUses = new long[rows.length];
+		atomSlots = new int[atomCount];
+		queue = new int[atomCount];
+		Arrays.fill(atomSlots, -1);
+		Arrays.fill(slotAtoms, -1);
+		int[] eccentricities = new int[atomCount];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) eccentricities[atomIndex] = other.getEccentricity(atomIndex);
+		setEccentricities(eccentricities, other.getDiameter());
+	}
+
+	public DistanceMatrix threadCopy() {
+		return new LazyDistanceMatrix(this);
+	}
+
+	public int getDistance(int atom1, int atom2) {
+		int slot = atomSlots[atom1];
+		if (slot >= 0) {
+			slotUses[slot] = ++uses;
+			return rows[slot][atom2];
+		}
+		slot = atomSlots[atom2];
+		if (slot >= 0) {
+			slotUses[slot] = ++uses;
+			return rows[slot][atom1];
+		}
+		return searchRow(atom1)[atom2];
+	}
+
+	// finds the row of atom in the least recently used slot
+	private int[] searchRow(int atom) {
+		int slot = 0;
+		for (int candidate = 1; candidate < rows.length; candidate++) {
+			if (slotUses[candidate] < slotUses[slot]) slot = candidate;
+		}
+		if (slotAtoms[slot] >= 0) atomSlots[slotAtoms[slot]] = -1;
+		if (rows[slot] == null) rows[slot] = new int[atomCount];
+		BFSDistanceEngine.searchRow(neighbourList, atom, rows[slot], 0, queue);
+		slotAtoms[slot] = atom;
+		atomSlots[atom] = slot;
+		slotUses[slot] = ++uses;
+		return rows[slot];
+	}
+
+}
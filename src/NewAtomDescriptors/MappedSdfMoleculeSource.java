@@ -0,0 +1,76 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+
+import org.openscience.cdk.Molecule;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.io.MDLV2000Reader;
+
+// Molecules of an SD file through a memory mapped record index (SdfRecordIndex).
+// The jobs returned by next() read and parse their own record, so parsing runs on the worker threads.
+// Records start to start + count - 1 (counting from 0) are returned.
+public class MappedSdfMoleculeSource implements MoleculeSource {
+
+	private final SdfRecordIndex index;
+	private int nextRecord;
+	private final int endRecord;
+
+	public MappedSdfMoleculeSource(File file, int threads, int start, long count) throws IOException {
+		index = new SdfRecordIndex(file, threads);
+		nextRecord = Math.min(start, index.getRecordCount());
+		endRecord = (int) Math.min(index.getRecordCount(), nextRecord + count);
+	}
+
+	public boolean hasNext() {
+		return nextRecord < endRecord;
+	}
+
+	public Callable<Molecule> next() {
+		final int record = nextRecord++;
+		return new Callable<Molecule>() {
+			public Molecule call() throws Exception {
+				MDLV2000Reader reader = new MDLV2000Reader(new StringReader(index.readRecord(record)));
+				try {
+					return reader.read(new Molecule());
+				} catch (CDKException e) {
+					throw new CDKException("Could not read SD record " + (record + 1) + ": " + e.getMessage(), e);
+				} finally {
+					reader.close();
+				}
+			}
+		};
+	}
+
+	public void close() throws IOException {
+		index.close();
+	}
+
+}
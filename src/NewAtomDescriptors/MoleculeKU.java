@@ -24,10 +24,14 @@
 
 package NewAtomDescriptors;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.RecursiveAction;
 
 import org.openscience.cdk.Atom;
 import org.openscience.cdk.AtomContainer;
@@ -35,14 +39,14 @@ import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.atomtype.IAtomTypeMatcher;
 import org.openscience.cdk.atomtype.SybylAtomTypeMatcher;
 import org.openscience.cdk.config.AtomTypeFactory;
+import org.openscience.cdk.config.IsotopeFactory;
 import org.openscience.cdk.exception.CDKException;
-import org.openscience.cdk.graph.PathTools;
 import org.openscience.cdk.graph.invariant.EquivalentClassPartitioner;
-import org.openscience.cdk.graph.matrix.AdjacencyMatrix;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IAtomType;
 import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IIsotope;
 import org.openscience.cdk.interfaces.IMolecule;
 import org.openscience.cdk.interfaces.IRing;
 import org.openscience.cdk.interfaces.IRingSet;
@@ -64,24 +68,72 @@ import org.openscience.cdk.qsar.result.IntegerResult;
 import org.openscience.cdk.ringsearch.SSSRFinder;
 import org.openscience.cdk.tools.manipulator.BondManipulator;
 
+import NewAtomDescriptors.DescriptorSettings.DescriptorKernel;
+import NewAtomDescriptors.DescriptorSettings.FragmentEngine;
+import NewAtomDescriptors.DescriptorSettings.Partitioner;
+import NewAtomDescriptors.DescriptorSettings.SymmetryMode;
 import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
 
 public class MoleculeKU extends AtomContainer implements IMolecule {
 
+	// The descriptors of each atom are stored in an AtomDescriptorResult, set and get give the same values
+	// as atom properties (see AtomDescriptorResult.copyToAtomProperties).
+	// The column type says how a property is stored in AtomDescriptorResult and in columnar output
+	// (ColumnarDescriptorWriter), properties of type NONE are not stored there.
+	// The column name is the name in the CSV header and in --columns, null for the properties that are not
+	// columns. The fragment logP columns are not written unless they are chosen with --columns.
 	public enum NEWDESC_PROPERTY {
-		SymmetryNumber,
-		IsSymmetric,
-		NrofSymmetricSites,
-		AtomCount2BranchEnd,
-		RelSpan {
+		SymmetryNumber(ColumnType.INT32, "SymmetryNumber"),
+		IsSymmetric(ColumnType.NONE, null),
+		NrofSymmetricSites(ColumnType.INT32, "NrofSymmetricSites"),
+		AtomCount2BranchEnd(ColumnType.NONE, null),
+		RelSpan(ColumnType.FLOAT32, "RelSpan") {
 			@Override
 			public String getLabel() {
 				return "RS";
 			}
-		}, Mol_RotableBondCount, Mol_BondsToEnd, Mol_AtomCount, Mol_TPSA, Mol_TPSAperAtom, 
-		Mol_Volume, Mol_HAcount, Mol_HDcount, Mol_PIsystemSize, Branch_RotableBondCount, 
-		Branch_BondsToEnd, Branch_AtomCount, Branch_TPSA, Branch_TPSAperAtom, Branch_Volume, 
-		Branch_HAcount, Branch_HDcount, Branch_PIsystemSize;
+		}, Mol_RotableBondCount(ColumnType.INT32, "Mol_rotablebonds"), Mol_BondsToEnd(ColumnType.INT32, "Mol_bonds2end"), Mol_AtomCount(ColumnType.INT32, "Mol_AtomCount"), 
+		Mol_TPSA(ColumnType.FLOAT32, "Mol_TPSA"), Mol_TPSAperAtom(ColumnType.FLOAT32, "Mol_TPSAperAtom"), Mol_Volume(ColumnType.FLOAT32, "Mol_Volume"), 
+		Mol_HAcount(ColumnType.INT32, "Mol_HAcount"), Mol_HDcount(ColumnType.INT32, "Mol_HDcount"), Mol_PIsystemSize(ColumnType.INT32, "Mol_PIsystemSize"), 
+		Branch_RotableBondCount(ColumnType.INT32, "Branch_rotablebonds"), Branch_BondsToEnd(ColumnType.INT32, "Branch_bonds2end"), Branch_AtomCount(ColumnType.INT32, "Branch_AtomCount"), 
+		Branch_TPSA(ColumnType.FLOAT32, "Branch_TPSA"), Branch_TPSAperAtom(ColumnType.FLOAT32, "Branch_TPSAperAtom"), Branch_Volume(ColumnType.FLOAT32, "Branch_Volume"), 
+		Branch_HAcount(ColumnType.INT32, "Branch_HAcount"), Branch_HDcount(ColumnType.INT32, "Branch_HDcount"), Branch_PIsystemSize(ColumnType.INT32, "Branch_PIsystemSize"),
+		Mol_logP(ColumnType.FLOAT32, "Mol_logP", false), Branch_logP(ColumnType.FLOAT32, "Branch_logP", false);
+
+		private final ColumnType columnType;
+		private final String columnName;
+		private final boolean defaultColumn;
+
+		private NEWDESC_PROPERTY(ColumnType columnType, String columnName) {
+			this(columnType, columnName, columnType != ColumnType.NONE);
+		}
+
+		private NEWDESC_PROPERTY(ColumnType columnType, String columnName, boolean defaultColumn) {
+			this.columnType = columnType;
+			this.columnName = columnName;
+			this.defaultColumn = defaultColumn;
+		}
+
+		public ColumnType getColumnType() {
+			return columnType;
+		}
+
+		public String getColumnName() {
+			return columnName;
+		}
+
+		// true for the columns that are written (and computed) when no columns are chosen
+		public boolean isDefaultColumn() {
+			return defaultColumn;
+		}
+
+		// the property with the given column name or enum name, null if there is none
+		public static NEWDESC_PROPERTY forColumnName(String name) {
+			for (NEWDESC_PROPERTY property : values()) {
+				if (property.columnName != null && (property.columnName.equals(name) || property.name().equals(name))) return property;
+			}
+			return null;
+		}
 
 		public String  getLabel()  { return "";};
 
@@ -103,57 +155,125 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 	// Local variables
 	private static final long serialVersionUID = 1L;	
 	private int debug = 0;
+	private final DescriptorSettings settings;
+	// per-molecule topology cache, built on first use and dropped by releaseTopology()
+	private DistanceMatrix distanceMatrix = null;
+	private NeighbourList neighbourList = null;
+	// exact mass of each atom and of its implicit hydrogens, for comparing fragment weights
+	private double[] atomMasses = null;
+	private double[] atomHydrogenMasses = null;
+	private FragmentDescriptorKernel descriptorKernel = null;
+	private FragmentHasher fragmentHasher = null;
+	private RotatableBondTable rotatableBondTable = null;
+	// lowest atom index of each atom's symmetry class, set by setSymmetryNumbers
+	private int[] symmetryRepresentatives = null;
+	// the descriptors of the atoms
+	private final AtomDescriptorResult result;
+	// System.nanoTime() when the time budget of this molecule runs out
+	private long deadline = Long.MAX_VALUE;
+	private int budgetSeconds = 0;
 
 
 	// Constructor
 	// This constructor also calls the methods that calculate all needed properties
 	// This constructor is the only way to create MoleculeKU and Atom objects, -there is no add() method
 	public MoleculeKU(IAtomContainer iAtomContainer) throws CloneNotSupportedException
+	{
+		this(iAtomContainer, new DescriptorSettings());
+	}
+
+	public MoleculeKU(IAtomContainer iAtomContainer, DescriptorSettings settings) throws CloneNotSupportedException
+	{
+		this(iAtomContainer, settings, new AtomDescriptorResult());
+	}
+
+	// result is reset and filled with the descriptors of this molecule, it can be one reused from an earlier molecule
+	public MoleculeKU(IAtomContainer iAtomContainer, DescriptorSettings settings, AtomDescriptorResult result) throws CloneNotSupportedException
 	{
 		// Calls the constructor in org.openscience.cdk.AtomContainer
 		// Atoms are stored in the array atoms[] and accessed by getAtom() and setAtom()
 		super(iAtomContainer);			
+		this.settings = settings;
 		int number = 1;
 		for (int atomIndex=0; atomIndex < iAtomContainer.getAtomCount(); atomIndex++) {
-			iAtomContainer.getAtom(atomIndex).setID(String.valueOf(number));
+			//a container from the Standardiser is numbered already
+			if (!String.valueOf(number).equals(iAtomContainer.getAtom(atomIndex).getID())) iAtomContainer.getAtom(atomIndex).setID(String.valueOf(number));
 			number++;
 		}
+		this.result = result;
+		result.reset(iAtomContainer.getAtomCount());
+		for (int atomIndex=0; atomIndex < iAtomContainer.getAtomCount(); atomIndex++) {
+			result.setAtom(atomIndex, iAtomContainer.getAtom(atomIndex).getSymbol(), iAtomContainer.getAtom(atomIndex).getID());
+		}
 	}
 
-	public void calculateRelativeSpan() throws CloneNotSupportedException{
+	// The descriptors of the atoms, filled in by the stages
+	public AtomDescriptorResult getResult() {
+		return result;
+	}
+
+	// the time budget of seconds from startNanos (a System.nanoTime()) on, checked by checkDeadline
+	public void setDeadline(long startNanos, int seconds) {
+		deadline = startNanos + seconds * 1000000000L;
+		budgetSeconds = seconds;
+	}
 
+	// throws BudgetExceededException once the time budget is used up, called between the stages and per atom
+	public void checkDeadline() {
+		if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+			throw new BudgetExceededException("over the time budget of " + budgetSeconds + " s");
+		}
+	}
 
-		int[][] adjacencyMatrix = AdjacencyMatrix.getMatrix(this);
+	// Returns the topological distance matrix of this molecule.
+	// With topology caching (the default) it is computed once and shared by all stages,
+	// otherwise it is recomputed on every call, which is how the stages used to work.
+	// Lazy distance storage always finds its rows by breadth first search, whatever the distance engine.
+	// The breadth first searches of a molecule described in parallel are also done in parallel.
+	public DistanceMatrix getDistanceMatrix() {
+		if (distanceMatrix != null) return distanceMatrix;
+		DistanceMatrix matrix;
+		if (settings.getDistanceStorage() == DistanceMatrix.Storage.LAZY) matrix = new LazyDistanceMatrix(getNeighbourList(), settings.getDistanceRows());
+		else if (isParallel() && settings.getDistanceEngine() instanceof BFSDistanceEngine) matrix = BFSDistanceEngine.compute(getNeighbourList(), settings.getDistanceStorage(), settings);
+		else matrix = settings.getDistanceEngine().compute(this, settings.getDistanceStorage());
+		if (settings.isCacheTopology()) distanceMatrix = matrix;
+		return matrix;
+	}
+
+	// Bonds of this molecule as CSR neighbour lists, built once per molecule
+	public NeighbourList getNeighbourList() {
+		if (neighbourList == null) neighbourList = NeighbourList.fromContainer(this);
+		return neighbourList;
+	}
+
+	// Drops the cached topology, call when the molecule is done
+	public void releaseTopology() {
+		distanceMatrix = null;
+		neighbourList = null;
+		atomMasses = null;
+		atomHydrogenMasses = null;
+		descriptorKernel = null;
+		fragmentHasher = null;
+		rotatableBondTable = null;
+	}
+
+	public void calculateRelativeSpan() throws CloneNotSupportedException{
 
 		// Calculate the maximum topology distance
-		// Takes an adjacency matrix and outputs and MinTopDist matrix of the same size
-		int[][] minTopDistMatrix = PathTools.computeFloydAPSP(adjacencyMatrix);
-
-		// Find the longest Path of all, "longestMaxTopDistInMolecule"
-		double longestMaxTopDistInMolecule = 0;
-		double currentMaxTopDist = 0;
-		for(int x = 0; x < this.getAtomCount(); x++){
-			for(int y = 0; y < this.getAtomCount(); y++){
-				currentMaxTopDist =  minTopDistMatrix[x][y];
-				if(currentMaxTopDist > longestMaxTopDistInMolecule) longestMaxTopDistInMolecule = currentMaxTopDist;
-			}
-		}
+		// MinTopDist matrix from the distance engine (see getDistanceMatrix)
+		DistanceMatrix minTopDistMatrix = getDistanceMatrix();
+
+		// The longest Path of all, "longestMaxTopDistInMolecule"
+		double longestMaxTopDistInMolecule = minTopDistMatrix.getDiameter();
 
-		// Find the "longest shortestPath" for each atom
+		// The "longest shortestPath" for each atom
 
 		// ITERATE REFERENCE ATOMS
 		for (int refAtomNr=0; refAtomNr < this.getAtomCount(); refAtomNr++){
 
-			// ITERATE COMPARISON ATOMS
-			double highestMaxTopDistInMatrixRow = 0;
-			IAtom refAtom;
-			for (int compAtomNr = 0; compAtomNr < this.getAtomCount(); compAtomNr++){
-				if(highestMaxTopDistInMatrixRow < minTopDistMatrix[refAtomNr][compAtomNr]) highestMaxTopDistInMatrixRow = minTopDistMatrix[refAtomNr][compAtomNr];
-			}	
-
-			refAtom = this.getAtom(refAtomNr);
+			double highestMaxTopDistInMatrixRow = minTopDistMatrix.getEccentricity(refAtomNr);
 			// Set the relative span of the Atom
-			NEWDESC_PROPERTY.RelSpan.set(refAtom,(highestMaxTopDistInMatrixRow / longestMaxTopDistInMolecule));
+			result.setDouble(NEWDESC_PROPERTY.RelSpan, refAtomNr, (highestMaxTopDistInMatrixRow / longestMaxTopDistInMolecule));
 		}
 	}
 	
@@ -161,13 +281,11 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 		//returns integer vector, if a number is 1 then that number has relative span 1 and is at end of molecule, else it is 0
 
 		int[] endofmolatomindices = new int [this.getAtomCount()];
-		IAtom atom;
 		double relspan;
 		
 		// ITERATE ATOMS
 		for (int AtomNr=0; AtomNr < this.getAtomCount(); AtomNr++){
-			atom = this.getAtom(AtomNr);
-			relspan = NEWDESC_PROPERTY.RelSpan.get(atom).doubleValue();
+			relspan = result.getDouble(NEWDESC_PROPERTY.RelSpan, AtomNr);
 			if (relspan == 1.0) {
 				endofmolatomindices[AtomNr] = 1;
 				//System.out.println(AtomNr);
@@ -182,7 +300,6 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 		//returns integer vector, if a number is 1 then that number has relative span 1 and is at end of molecule, else it is 0
 
 		int[] endofbranchatomindices = new int [this.getAtomCount()];
-		IAtom atom;
 		double relspan;
 		double neighborrelspan;
 		boolean endofbranchatom;
@@ -190,9 +307,8 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 		// ITERATE ATOMS
 		for (int AtomNr=0; AtomNr < this.getAtomCount(); AtomNr++){
 			endofbranchatom = false;
-			atom = this.getAtom(AtomNr);
 			
-			relspan = NEWDESC_PROPERTY.RelSpan.get(atom).doubleValue();
+			relspan = result.getDouble(NEWDESC_PROPERTY.RelSpan, AtomNr);
 			if (relspan == 1.0) {
 				//this atom is at the end of the molecule, no need to look further
 				endofbranchatom = true;
@@ -202,13 +318,12 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 				//this atom is not at the end of the molecule, let's check if it has connected atoms that are closer to the end of the molecule
 				//any atom with another atom within three bonds that have a higher relspan is either not at a branchend, or it's a single atom branch 
 				//and single atom branches should be excluded
-				int[][] adjacencyMatrix = AdjacencyMatrix.getMatrix(this);
-				int[][] minTopDistMatrix = PathTools.computeFloydAPSP(adjacencyMatrix);
+				DistanceMatrix minTopDistMatrix = getDistanceMatrix();
 				endofbranchatom = true; //now lets set it to false if neighbor closer to end of mol exists
-				for (int i = 0; i < minTopDistMatrix.length; i++){
-					if (minTopDistMatrix[AtomNr][i] < 4){
+				for (int i = 0; i < minTopDistMatrix.getAtomCount(); i++){
+					if (minTopDistMatrix.getDistance(AtomNr, i) < 4){
 						//System.out.println(AtomNr + ":" + i);
-						neighborrelspan = NEWDESC_PROPERTY.RelSpan.get(this.getAtom(i)).doubleValue();
+						neighborrelspan = result.getDouble(NEWDESC_PROPERTY.RelSpan, i);
 						if (neighborrelspan > relspan) {
 							//the neighbor has a higher relspan, this is not a branchend
 							endofbranchatom = false;
@@ -227,266 +342,658 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 		return endofbranchatomindices;
 	}
 	
-	public IAtomContainer[] getAtoms2EndOfMolMolecules(int[] EndofMolAtomIndices, String prefix) throws CloneNotSupportedException{
+	public IAtomContainer[] getAtoms2EndOfMolMolecules(int[] EndofMolAtomIndices, String prefix) throws CloneNotSupportedException, CDKException{
 		//returns array of molecules for each atom
-		int[] endofmolatomindices = EndofMolAtomIndices;
-		IAtomContainer[] AtomMolecules = new IAtomContainer[this.getAtomCount()];
-		IAtomContainer Molecule2EndofMol;
-		IAtomContainer Alt2EndofMol;
+		//with the native descriptor kernels no fragment molecules are built and the array only holds nulls,
+		//with the fragment cache there are nulls for the fragments found in the cache
+		return getFragmentMolecules(new int[][] {EndofMolAtomIndices}, new String[] {prefix})[0];
+	}
+
+	// The Mol and the Branch fragments in one traversal of the atoms (the fused mode). Both fragments of an atom
+	// are found one after the other, and a Branch fragment with the same atoms as the Mol fragment of the atom
+	// (common, as the end of molecule atoms are also end of branch atoms) takes the descriptors and the fragment
+	// molecule of the Mol fragment instead of being described again. Returns the Mol and the Branch molecules,
+	// as getAtoms2EndOfMolMolecules does for each; the fragment properties of a shared molecule are those of
+	// the Mol fragment, apart from the counts.
+	public IAtomContainer[][] getFusedFragmentMolecules(int[] EndofMolAtomIndices, int[] EndofBranchAtomIndices) throws CloneNotSupportedException, CDKException{
+		return getFragmentMolecules(new int[][] {EndofMolAtomIndices, EndofBranchAtomIndices}, new String[] {"Mol", "Branch"});
+	}
+
+	// The fragments of every atom towards the end atoms of each pass, atom by atom.
+	// Molecules with at least settings.getParallelAtoms() atoms are described in parallel, see DescribeAtoms.
+	private IAtomContainer[][] getFragmentMolecules(int[][] endAtoms, String[] prefixes) throws CloneNotSupportedException, CDKException{
+		IAtomContainer[][] PassMolecules = new IAtomContainer[prefixes.length][this.getAtomCount()];
 		//get the number of bonds between all atoms to minTopDistMatrix
-		int[][] adjacencyMatrix = AdjacencyMatrix.getMatrix(this);
-		int[][] minTopDistMatrix = PathTools.computeFloydAPSP(adjacencyMatrix);
-		int shortest = 0;
-		int distance;
-		int ClosestAtomIndex;
-		int[] AlternativeAtomIndices;
-		int AlternativeAtomCount;
-		boolean OnOtherBranch;
-		//list of atomindices to keep in molecule
-		int[] Atoms2Keep = new int[this.getAtomCount()];
-		int[] Atoms2KeepAlt = new int[this.getAtomCount()];
-			
-		// ITERATE ATOMS and build their Molecule2EndofMol
-		for (int AtomNr = 0; AtomNr < this.getAtomCount(); AtomNr++){
-			IAtom ThisAtom = this.getAtom(AtomNr);
-			AlternativeAtomIndices = new int[9];
-			//reset the Atoms2Keep array
-			for (int i = 0; i < this.getAtomCount(); i++){
-				Atoms2Keep[i] = 0;
-			}
-			//First let's check that this is not and endofmol atom
-			if (endofmolatomindices[AtomNr] == 1){
-				//Molecule2EndofMole can be set to null
-				AtomMolecules[AtomNr] = null;
-				shortest = 0;
-				//System.out.println("endofmolatom: " + AtomNr);
+		DistanceMatrix minTopDistMatrix = getDistanceMatrix();
+		//only the descriptors of the chosen columns are computed, of all passes so that they can be shared
+		EnumSet<FragmentDescriptors.Value> fragmentValues = fragmentValues(prefixes);
+		boolean rotatableBonds = false;
+		for (String prefix : prefixes) rotatableBonds |= isComputed(prefix, "RotableBondCount");
+
+		if (isParallel()) {
+			//the tables all workers read are built before the work is split
+			getNeighbourList();
+			if (rotatableBondTable == null) rotatableBondTable = new RotatableBondTable(this);
+			prepareAtomMasses();
+			DescribeAtoms task = new DescribeAtoms(0, this.getAtomCount(), endAtoms, prefixes, fragmentValues, rotatableBonds, minTopDistMatrix, PassMolecules);
+			settings.invokeParallel(task);
+			if (task.failure instanceof CDKException) throw (CDKException) task.failure;
+			if (task.failure instanceof CloneNotSupportedException) throw (CloneNotSupportedException) task.failure;
+		}
+		else {
+			FragmentWorker worker = new FragmentWorker(endAtoms, prefixes, fragmentValues, rotatableBonds, minTopDistMatrix, PassMolecules, this, false);
+			// ITERATE ATOMS and build their Molecule2EndofMol
+			for (int AtomNr = 0; AtomNr < this.getAtomCount(); AtomNr++) worker.describe(AtomNr);
+		}
+
+		for (int pass = 0; pass < prefixes.length; pass++) {
+			if (settings.getSymmetryMode() != SymmetryMode.OFF && symmetryRepresentatives != null) copySymmetricDescriptors(PassMolecules[pass], prefixes[pass]);
+		}
+		return PassMolecules;
+	}
+
+	// true if the atoms of this molecule are described in parallel, and the distances computed so
+	private boolean isParallel() {
+		return settings.getParallelAtoms() > 0 && this.getAtomCount() >= settings.getParallelAtoms();
+	}
+
+	// The per-atom work of getFragmentMolecules for one thread. The sequential worker uses the molecule and
+	// its hasher and kernels, a parallel worker has its own copy of the molecule (the CDK descriptors set flags
+	// on the atoms of the fragment containers) and its own hasher, kernels, sweeps and distance rows.
+	// The bitsets, descriptors and containers of the passes of the last atom are kept for the next pass to share.
+	private class FragmentWorker {
+
+		private final int[][] endAtoms;
+		private final String[] prefixes;
+		private final EnumSet<FragmentDescriptors.Value> fragmentValues;
+		private final boolean rotatableBonds;
+		private final IAtomContainer[][] PassMolecules;
+		// the fragment containers are built from the atoms of molecule
+		private final IAtomContainer molecule;
+		private final boolean confined;
+		private final DistanceMatrix minTopDistMatrix;
+		//set of atomindices to keep in molecule, per pass
+		private final Fragment[] PassAtoms2Keep;
+		private final Fragment Atoms2KeepAlt;
+		//the sweep finds the same fragment atoms as the loop in collectFragmentAtoms, with less work
+		private final FragmentSweep[] sweeps;
+		private final FragmentDescriptors[] PassDescriptors;
+		private final IAtomContainer[] PassMolecule2EndofMol;
+		// a parallel worker's own, null until used
+		private FragmentHasher workerHasher = null;
+		private FragmentDescriptorKernel workerKernel = null;
+
+		// confined for a parallel worker, which then only shares what is read only
+		FragmentWorker(int[][] endAtoms, String[] prefixes, EnumSet<FragmentDescriptors.Value> fragmentValues, boolean rotatableBonds,
+				DistanceMatrix minTopDistMatrix, IAtomContainer[][] PassMolecules, IAtomContainer molecule, boolean confined) {
+			this.endAtoms = endAtoms;
+			this.prefixes = prefixes;
+			this.fragmentValues = fragmentValues;
+			this.rotatableBonds = rotatableBonds;
+			this.PassMolecules = PassMolecules;
+			this.molecule = molecule;
+			this.confined = confined;
+			this.minTopDistMatrix = (confined) ? minTopDistMatrix.threadCopy() : minTopDistMatrix;
+			int passes = prefixes.length;
+			PassAtoms2Keep = new Fragment[passes];
+			Atoms2KeepAlt = new Fragment(getAtomCount());
+			sweeps = new FragmentSweep[passes];
+			PassDescriptors = new FragmentDescriptors[passes];
+			PassMolecule2EndofMol = new IAtomContainer[passes];
+			for (int pass = 0; pass < passes; pass++) {
+				PassAtoms2Keep[pass] = new Fragment(getAtomCount());
+				if (settings.getFragmentEngine() != FragmentEngine.LOOP) {
+					sweeps[pass] = new FragmentSweep(this.minTopDistMatrix, result.getDoubles(NEWDESC_PROPERTY.RelSpan), endAtoms[pass]);
+				}
 			}
-			else{
-				//This is not an atom at the end of the molecule.
-				//let's find the closest endofmol atom
-				shortest = 99;
-				ClosestAtomIndex = 999;
-				AlternativeAtomCount = 0;
-				for (int trialendofmolatomindex = 0; trialendofmolatomindex < endofmolatomindices.length; trialendofmolatomindex++){
-					if(endofmolatomindices[trialendofmolatomindex] == 1){
-						//this is and endofmolatom index
-						distance = minTopDistMatrix[AtomNr][trialendofmolatomindex];
-						if (distance < shortest) {
-							shortest = distance;
-							ClosestAtomIndex = trialendofmolatomindex;
-						}
-						if (distance == shortest){
-							//first check symmetry, if symmetric ignore this fragment
-							if (NEWDESC_PROPERTY.SymmetryNumber.get(this.getAtom(trialendofmolatomindex)) != NEWDESC_PROPERTY.SymmetryNumber.get(this.getAtom(ClosestAtomIndex))){
-								//we got a non-symmetric fragment at same distance
-								AlternativeAtomIndices[AlternativeAtomCount] = trialendofmolatomindex;
-								AlternativeAtomCount++;
-							}
-						}
+		}
+
+		private FragmentHasher hasher() {
+			if (!confined) return getFragmentHasher();
+			if (workerHasher == null) workerHasher = new FragmentHasher(MoleculeKU.this);
+			return workerHasher;
+		}
+
+		private FragmentDescriptorKernel kernel() throws CDKException {
+			if (!confined) return getDescriptorKernel();
+			if (workerKernel == null) workerKernel = new FragmentDescriptorKernel(MoleculeKU.this);
+			return workerKernel;
+		}
+
+		// the fragments of all passes of one atom, nothing for an atom described through its symmetry class
+		void describe(int AtomNr) throws CloneNotSupportedException, CDKException {
+			IAtomContainer Molecule2EndofMol;
+			IAtom ThisAtom = getAtom(AtomNr);
+			//in the symmetry modes only the first atom of each symmetry class is described, the rest get copies below
+			if (settings.getSymmetryMode() != SymmetryMode.OFF && symmetryRepresentatives != null && symmetryRepresentatives[AtomNr] != AtomNr) return;
+			checkDeadline();
+			for (int pass = 0; pass < prefixes.length; pass++) {
+				String prefix = prefixes[pass];
+				int[] endofmolatomindices = endAtoms[pass];
+				Fragment Atoms2Keep = PassAtoms2Keep[pass];
+				int shortest = selectFragment(AtomNr, endofmolatomindices, minTopDistMatrix, sweeps[pass], Atoms2Keep, Atoms2KeepAlt);
+			
+				settings.getStats().count(PipelineStats.Counter.FRAGMENTS, 1);
+				//before this, keep the atom of interest
+				//now compute bond descriptors
+				int rotbonds = (rotatableBonds) ? FragmentRotableBondsCount(Atoms2Keep) : Integer.MIN_VALUE;
+			
+				//remove the atom of interest
+				Atoms2Keep.remove(AtomNr);
+				//Atom Count
+				int fragmentAtomCount = Atoms2Keep.size();
+				//the same fragment as in an earlier pass is not described again
+				int sharedPass = -1;
+				for (int earlierPass = 0; earlierPass < pass && sharedPass < 0; earlierPass++) {
+					if (PassAtoms2Keep[earlierPass].sameAtoms(Atoms2Keep)) sharedPass = earlierPass;
+				}
+				FragmentDescriptors descriptors;
+				if (sharedPass >= 0) {
+					settings.getStats().count(PipelineStats.Counter.SHARED_FRAGMENTS, 1);
+					descriptors = PassDescriptors[sharedPass];
+					Molecule2EndofMol = PassMolecule2EndofMol[sharedPass];
+					if (Molecule2EndofMol != null && settings.isAtomProperties()) {
+						Molecule2EndofMol.setProperty(prefix + "_RotableBondCount", rotbonds);
+						Molecule2EndofMol.setProperty(prefix + "_BondsToEnd", shortest);
+						Molecule2EndofMol.setProperty(prefix + "_AtomCount", fragmentAtomCount);
 					}
 				}
-				//now the closest endofmol atom index is ClosestAtomIndex
-				//Let's build an IAtomContainer of the atoms in between AtomNr and ClosestAtomIndex
-				for (int trialatomindex = 0; trialatomindex < this.getAtomCount(); trialatomindex++){
-					OnOtherBranch = false;
-					//first, atoms in this IAtomContainer should have a distance to ClosestAtomIndex that is shorter than AtomNr
-					//and it should not be AtomNr atom
-					if (trialatomindex != AtomNr && minTopDistMatrix[trialatomindex][ClosestAtomIndex] <= minTopDistMatrix[AtomNr][ClosestAtomIndex]){
-						//and the trial atom should be closer to AtomNr than the distance between AtomNr and ClosesAtomIndex
-						if((minTopDistMatrix[trialatomindex][ClosestAtomIndex] < minTopDistMatrix[AtomNr][ClosestAtomIndex] && (minTopDistMatrix[trialatomindex][AtomNr] <= minTopDistMatrix[AtomNr][ClosestAtomIndex] 
-						|| trialatomindex == ClosestAtomIndex))
-						|| (minTopDistMatrix[trialatomindex][ClosestAtomIndex] == minTopDistMatrix[AtomNr][ClosestAtomIndex] && NEWDESC_PROPERTY.RelSpan.get(this.getAtom(trialatomindex)).doubleValue() > NEWDESC_PROPERTY.RelSpan.get(this.getAtom(AtomNr)).doubleValue())
-						){
-							//one final check. The atom must not be closer to another ClosestAtomIndex, 
-							//because then it is on another branch than the one we are interested in traversing
-							for (int otherendofmolatomindex = 0; otherendofmolatomindex < endofmolatomindices.length; otherendofmolatomindex++){
-								if(endofmolatomindices[otherendofmolatomindex] == 1){
-									if (otherendofmolatomindex != ClosestAtomIndex 
-									&& minTopDistMatrix[trialatomindex][ClosestAtomIndex] > minTopDistMatrix[trialatomindex][otherendofmolatomindex] 
-                                    && minTopDistMatrix[trialatomindex][AtomNr] != minTopDistMatrix[ClosestAtomIndex][AtomNr]){
-										OnOtherBranch = true;
+				else {
+					Molecule2EndofMol = null;
+					descriptors = null;
+					FragmentDescriptorCache fragmentCache = settings.getFragmentCache();
+					FragmentDescriptorCache.Key cacheKey = null;
+					if (fragmentValues.isEmpty()) {
+						//none of the fragment descriptors is written, so there is nothing to compute or build
+						descriptors = FragmentDescriptors.NONE;
+					}
+					else {
+						if (fragmentCache != null) {
+							cacheKey = hasher().key(Atoms2Keep, AtomNr);
+							descriptors = fragmentCache.get(cacheKey);
+						}
+						FragmentDescriptors cachedDescriptors = descriptors;
+						if (descriptors == null || settings.isVerifyFragmentCache()) {
+							if (settings.getDescriptorKernel() == DescriptorKernel.NATIVE) {
+								//the native kernels work on the bitset, no container is needed
+								long start = settings.getStats().start();
+								descriptors = kernel().calculate(Atoms2Keep, fragmentValues);
+								settings.getStats().end(PipelineStats.Stage.NATIVE_DESCRIPTORS, start);
+							}
+							else {
+								//the CDK descriptors need a container of the fragment atoms
+								long start = settings.getStats().start();
+								Molecule2EndofMol = Atoms2Keep.materialise(molecule, getNeighbourList());
+								settings.getStats().end(PipelineStats.Stage.FRAGMENT_BUILD, start);
+								if (settings.isAtomProperties()) {
+									Molecule2EndofMol.setProperty(prefix + "_RotableBondCount", rotbonds);
+									Molecule2EndofMol.setProperty(prefix + "_BondsToEnd", shortest);
+									Molecule2EndofMol.setProperty(prefix + "_AtomCount", fragmentAtomCount);
+								}
+								//native values first, the CDK descriptors may change atom flags
+								FragmentDescriptors nativeDescriptors = null;
+								if (settings.getDescriptorKernel() == DescriptorKernel.VALIDATE) nativeDescriptors = kernel().calculate(Atoms2Keep, fragmentValues);
+								descriptors = calculateCDKDescriptors(Molecule2EndofMol, prefix, fragmentValues);
+								if (nativeDescriptors != null && FragmentRotableBondsCount(Molecule2EndofMol) != FragmentRotableBondsCount(Atoms2Keep)) {
+									throw new CDKException("Rotatable bond table and CDK " + prefix + " fragment rotatable bonds differ for atom " + ThisAtom.getSymbol() + "." + ThisAtom.getID());
+								}
+								if (nativeDescriptors != null) {
+									String differences = nativeDescriptors.differences(descriptors, 1e-6);
+									if (differences != null) {
+										throw new CDKException("Native and CDK " + prefix + " fragment descriptors differ for atom " + ThisAtom.getSymbol() + "." + ThisAtom.getID() + ": " + differences);
 									}
 								}
 							}
-							if (OnOtherBranch == false){
-								//Molecule2EndofMol.addAtom(this.getAtom(trialatomindex));
-								Atoms2Keep[trialatomindex] = 1;
-								//System.out.println(AtomNr + ":" + trialatomindex);
+							if (cachedDescriptors != null) {
+								String differences = cachedDescriptors.differences(descriptors, 1e-6);
+								if (differences != null) {
+									throw new CDKException("Cached " + prefix + " fragment descriptors (key " + cacheKey + ") differ for atom " + ThisAtom.getSymbol() + "." + ThisAtom.getID() + ": " + differences);
+								}
 							}
+							else if (fragmentCache != null) fragmentCache.put(cacheKey, descriptors);
 						}
 					}
 				}
-					
-			}
-			
-			//now let's build the new molecule
-			//let's keep the atom of interest in the molecule to get correct bond counts
-			Molecule2EndofMol = new AtomContainer(this);
-			for (int i = 0; i < this.getAtomCount(); i++){
-				if(Atoms2Keep[i] == 0 && i != AtomNr){
-					Molecule2EndofMol.removeAtomAndConnectedElectronContainers(this.getAtom(i));
+				PassDescriptors[pass] = descriptors;
+				PassMolecule2EndofMol[pass] = Molecule2EndofMol;
+				
+				//Topological polar surface area per Atom, a measure of the polar fraction
+				double TPSAperAtom = (fragmentValues.contains(FragmentDescriptors.Value.TPSA)) ? 0 : Double.NaN;
+				if(fragmentAtomCount != 0) TPSAperAtom = descriptors.getTPSA()/fragmentAtomCount;
+				if (Molecule2EndofMol != null && settings.isAtomProperties()) Molecule2EndofMol.setProperty(prefix + "_TPSAperAtom", TPSAperAtom);
+		
+		
+				if ("Mol".equals(prefix)){
+					result.setInt(NEWDESC_PROPERTY.Mol_RotableBondCount, AtomNr, rotbonds);
+					result.setInt(NEWDESC_PROPERTY.Mol_BondsToEnd, AtomNr, shortest);
+					result.setInt(NEWDESC_PROPERTY.Mol_AtomCount, AtomNr, fragmentAtomCount);
+					result.setDouble(NEWDESC_PROPERTY.Mol_TPSA, AtomNr, descriptors.getTPSA());
+					result.setDouble(NEWDESC_PROPERTY.Mol_TPSAperAtom, AtomNr, TPSAperAtom);
+					result.setDouble(NEWDESC_PROPERTY.Mol_Volume, AtomNr, descriptors.getVolume());
+					result.setInt(NEWDESC_PROPERTY.Mol_HAcount, AtomNr, descriptors.getHBondAcceptorCount());
+					result.setInt(NEWDESC_PROPERTY.Mol_HDcount, AtomNr, descriptors.getHBondDonorCount());
+					result.setInt(NEWDESC_PROPERTY.Mol_PIsystemSize, AtomNr, descriptors.getPiSystemSize());
+					result.setDouble(NEWDESC_PROPERTY.Mol_logP, AtomNr, descriptors.getLogP());
 				}
-			}
-			
-			//now let's check if there are any alternative atoms and if so generate their fragments for comparison
-			for (int altindex = 0; altindex < 4; altindex++){
-				int altatomindex = AlternativeAtomIndices[altindex];
-				//reset the Atoms2KeepAlt array
-				for (int i = 0; i < this.getAtomCount(); i++){
-					Atoms2KeepAlt[i] = 0;
+				if ("Branch".equals(prefix)){
+					result.setInt(NEWDESC_PROPERTY.Branch_RotableBondCount, AtomNr, rotbonds);
+					result.setInt(NEWDESC_PROPERTY.Branch_BondsToEnd, AtomNr, shortest);
+					result.setInt(NEWDESC_PROPERTY.Branch_AtomCount, AtomNr, fragmentAtomCount);
+					result.setDouble(NEWDESC_PROPERTY.Branch_TPSA, AtomNr, descriptors.getTPSA());
+					result.setDouble(NEWDESC_PROPERTY.Branch_TPSAperAtom, AtomNr, TPSAperAtom);
+					result.setDouble(NEWDESC_PROPERTY.Branch_Volume, AtomNr, descriptors.getVolume());
+					result.setInt(NEWDESC_PROPERTY.Branch_HAcount, AtomNr, descriptors.getHBondAcceptorCount());
+					result.setInt(NEWDESC_PROPERTY.Branch_HDcount, AtomNr, descriptors.getHBondDonorCount());
+					result.setInt(NEWDESC_PROPERTY.Branch_PIsystemSize, AtomNr, descriptors.getPiSystemSize());
+					result.setDouble(NEWDESC_PROPERTY.Branch_logP, AtomNr, descriptors.getLogP());
 				}
-				if(altatomindex > 0){
-					//we got an alternative atom which is not symmetric to the first one
-					//let's build it's fragment
-					for (int trialatomindex = 0; trialatomindex < this.getAtomCount(); trialatomindex++){
-						OnOtherBranch = false;
-						//first, atoms in this IAtomContainer should have a distance to ClosestAtomIndex that is shorter than AtomNr
-						//and it should not be AtomNr atom
-						if (trialatomindex != AtomNr && minTopDistMatrix[trialatomindex][altatomindex] <= minTopDistMatrix[AtomNr][altatomindex]){
-							//and the trial atom should be closer to AtomNr than the distance between AtomNr and ClosesAtomIndex
-							if((minTopDistMatrix[trialatomindex][altatomindex] < minTopDistMatrix[AtomNr][altatomindex] && (minTopDistMatrix[trialatomindex][AtomNr] <= minTopDistMatrix[AtomNr][altatomindex] 
-							|| trialatomindex == altatomindex))
-							|| (minTopDistMatrix[trialatomindex][altatomindex] == minTopDistMatrix[AtomNr][altatomindex] && NEWDESC_PROPERTY.RelSpan.get(this.getAtom(trialatomindex)).doubleValue() > NEWDESC_PROPERTY.RelSpan.get(this.getAtom(AtomNr)).doubleValue())
-							){
-								//one final check. The atom must not be closer to another ClosestAtomIndex, 
-								//because then it is on another branch than the one we are interested in traversing
-								for (int otherendofmolatomindex = 0; otherendofmolatomindex < endofmolatomindices.length; otherendofmolatomindex++){
-									if(endofmolatomindices[otherendofmolatomindex] == 1){
-										if (otherendofmolatomindex != altatomindex 
-										&& minTopDistMatrix[trialatomindex][altatomindex] > minTopDistMatrix[trialatomindex][otherendofmolatomindex] 
-	                                    && minTopDistMatrix[trialatomindex][AtomNr] != minTopDistMatrix[altatomindex][AtomNr]){
-											OnOtherBranch = true;
-										}
-									}
-								}
-								if (OnOtherBranch == false){
-									//Molecule2EndofMol.addAtom(this.getAtom(altatomindex));
-									Atoms2KeepAlt[trialatomindex] = 1;
-									//System.out.println(AtomNr + ":" + altatomindex);
-								}
-							}
-						}
+		
+				//assign the "best" fragment to the return array, with all properties set
+				PassMolecules[pass][AtomNr] = Molecule2EndofMol;
+			}
+		}
+
+	}
+
+	// Describes the atoms from..to-1 on a fork/join pool, split into halves down to ATOMS_PER_TASK atoms.
+	// The split does not depend on the number of threads and every atom writes only its own entries of the
+	// result, so the output is the same as sequentially whatever thread describes which atoms. Each leaf
+	// has its own FragmentWorker. The first failure in atom order is kept for getFragmentMolecules to throw.
+	private class DescribeAtoms extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int ATOMS_PER_TASK = 32;
+
+		private final int from;
+		private final int to;
+		private final int[][] endAtoms;
+		private final String[] prefixes;
+		private final EnumSet<FragmentDescriptors.Value> fragmentValues;
+		private final boolean rotatableBonds;
+		private final DistanceMatrix minTopDistMatrix;
+		private final IAtomContainer[][] PassMolecules;
+		private Exception failure = null;
+
+		DescribeAtoms(int from, int to, int[][] endAtoms, String[] prefixes, EnumSet<FragmentDescriptors.Value> fragmentValues, boolean rotatableBonds,
+				DistanceMatrix minTopDistMatrix, IAtomContainer[][] PassMolecules) {
+			this.from = from;
+			this.to = to;
+			this.endAtoms = endAtoms;
+			this.prefixes = prefixes;
+			this.fragmentValues = fragmentValues;
+			this.rotatableBonds = rotatableBonds;
+			this.minTopDistMatrix = minTopDistMatrix;
+			this.PassMolecules = PassMolecules;
+		}
+
+		protected void compute() {
+			if (to - from > ATOMS_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				DescribeAtoms first = new DescribeAtoms(from, middle, endAtoms, prefixes, fragmentValues, rotatableBonds, minTopDistMatrix, PassMolecules);
+				DescribeAtoms second = new DescribeAtoms(middle, to, endAtoms, prefixes, fragmentValues, rotatableBonds, minTopDistMatrix, PassMolecules);
+				invokeAll(first, second);
+				failure = (first.failure != null) ? first.failure : second.failure;
+				return;
+			}
+			try {
+				//a copy of the molecule only where CDK descriptors are run on fragment containers
+				boolean containers = !fragmentValues.isEmpty() && settings.getDescriptorKernel() != DescriptorKernel.NATIVE;
+				IAtomContainer molecule = (containers) ? MoleculeKU.this.clone() : MoleculeKU.this;
+				FragmentWorker worker = new FragmentWorker(endAtoms, prefixes, fragmentValues, rotatableBonds, minTopDistMatrix, PassMolecules, molecule, true);
+				for (int AtomNr = from; AtomNr < to; AtomNr++) worker.describe(AtomNr);
+			} catch (CDKException e) {
+				failure = e;
+			} catch (CloneNotSupportedException e) {
+				failure = e;
+			}
+		}
+
+	}
+
+	// Finds the fragment of AtomNr towards its closest end atom into Atoms2Keep, which is cleared first and
+	// gets AtomNr itself, and returns the distance to that end atom (0 for an end atom, whose fragment is only
+	// itself). Atoms2KeepAlt is scratch space for the alternative fragments.
+	private int selectFragment(int AtomNr, int[] endofmolatomindices, DistanceMatrix minTopDistMatrix, FragmentSweep sweep, Fragment Atoms2Keep, Fragment Atoms2KeepAlt) throws CDKException {
+		int shortest = 0;
+		int distance;
+		int ClosestAtomIndex;
+		int[] AlternativeAtomIndices = new int[9];
+		int AlternativeAtomCount;
+		//reset the Atoms2Keep set
+		Atoms2Keep.clear();
+		//First let's check that this is not and endofmol atom
+		if (endofmolatomindices[AtomNr] == 1){
+			//Molecule2EndofMole stays null
+			shortest = 0;
+			//System.out.println("endofmolatom: " + AtomNr);
+		}
+		else if (settings.isResolveTies()) {
+			//the closest endofmol atom, ties between closest end atoms resolved in resolveTies
+			shortest = resolveTies(AtomNr, endofmolatomindices, minTopDistMatrix, sweep, Atoms2Keep, Atoms2KeepAlt);
+		}
+		else{
+			//This is not an atom at the end of the molecule.
+			//let's find the closest endofmol atom
+			shortest = 99;
+			ClosestAtomIndex = 999;
+			AlternativeAtomCount = 0;
+			for (int trialendofmolatomindex = 0; trialendofmolatomindex < endofmolatomindices.length; trialendofmolatomindex++){
+				if(endofmolatomindices[trialendofmolatomindex] == 1){
+					//this is and endofmolatom index
+					distance = minTopDistMatrix.getDistance(AtomNr, trialendofmolatomindex);
+					if (distance < shortest) {
+						shortest = distance;
+						ClosestAtomIndex = trialendofmolatomindex;
 					}
-					//now let's build the alternative new molecule
-					//let's keep the atom of interest in the molecule to get correct bond counts
-					Alt2EndofMol = new AtomContainer(this);
-					for (int i = 0; i < this.getAtomCount(); i++){
-						if(Atoms2KeepAlt[i] == 0 && i != AtomNr){
-							Alt2EndofMol.removeAtomAndConnectedElectronContainers(this.getAtom(i));
+					if (distance == shortest){
+						//first check symmetry, if symmetric ignore this fragment
+						if (!SameBoxedSymmetryNumber(trialendofmolatomindex, ClosestAtomIndex)){
+							//we got a non-symmetric fragment at same distance, only the first 4 are compared below
+							if (AlternativeAtomCount < AlternativeAtomIndices.length) AlternativeAtomIndices[AlternativeAtomCount] = trialendofmolatomindex;
+							AlternativeAtomCount++;
 						}
 					}
-					
-					//compare the alternative fragment to Molecule2EndofMol
-					if(Alt2EndofMol.getAtomCount() < Molecule2EndofMol.getAtomCount()) {
-						Molecule2EndofMol = Alt2EndofMol;
+				}
+			}
+			//now the closest endofmol atom index is ClosestAtomIndex
+			settings.getStats().count(PipelineStats.Counter.ALTERNATIVES, AlternativeAtomCount);
+			result.addAlternatives(AlternativeAtomCount);
+			//Let's build an IAtomContainer of the atoms in between AtomNr and ClosestAtomIndex
+			findFragmentAtoms(AtomNr, ClosestAtomIndex, endofmolatomindices, minTopDistMatrix, sweep, Atoms2Keep);
+				
+		}
+		
+		//now let's build the new fragment
+		//let's keep the atom of interest in the fragment to get correct bond counts
+		Atoms2Keep.add(AtomNr);
+		
+		//now let's check if there are any alternative atoms and if so generate their fragments for comparison
+		for (int altindex = 0; altindex < 4; altindex++){
+			int altatomindex = AlternativeAtomIndices[altindex];
+			//reset the Atoms2KeepAlt set
+			Atoms2KeepAlt.clear();
+			if(altatomindex > 0){
+				//we got an alternative atom which is not symmetric to the first one
+				//let's build it's fragment
+				findFragmentAtoms(AtomNr, altatomindex, endofmolatomindices, minTopDistMatrix, sweep, Atoms2KeepAlt);
+				//now let's build the alternative new fragment
+				//let's keep the atom of interest in the fragment to get correct bond counts
+				Atoms2KeepAlt.add(AtomNr);
+				
+				//compare the alternative fragment to Atoms2Keep, on the bitsets
+				if(Atoms2KeepAlt.size() < Atoms2Keep.size()) {
+					Atoms2Keep.copyFrom(Atoms2KeepAlt);
+				}
+				else if (Atoms2KeepAlt.size() == Atoms2Keep.size()){
+					//check rotable bonds count
+					int rotbondsalt = FragmentRotableBondsCount(Atoms2KeepAlt); 
+					int rotbonds = FragmentRotableBondsCount(Atoms2Keep);
+					if(rotbondsalt > rotbonds) {
+						Atoms2Keep.copyFrom(Atoms2KeepAlt);
 					}
-					else if (Alt2EndofMol.getAtomCount() == Molecule2EndofMol.getAtomCount()){
-						//check rotable bonds count
-						int rotbondsalt = FragmentRotableBondsCount(Alt2EndofMol); 
-						int rotbonds = FragmentRotableBondsCount(Molecule2EndofMol);
-						if(rotbondsalt > rotbonds) {
-							Molecule2EndofMol = Alt2EndofMol;
+					else if (rotbondsalt == rotbonds){
+						//the two fragments are of same atom count and have the same number of rotable bonds
+						//now let's check for MW,if still the same let's skip the alternative fragment, the difference will not be significant
+						double mwalt = FragmentWeight(Atoms2KeepAlt);
+						double mw = FragmentWeight(Atoms2Keep);
+						if(mwalt < mw) {
+							Atoms2Keep.copyFrom(Atoms2KeepAlt);
 						}
-						else if (rotbondsalt == rotbonds){
-							//the two fragments are of same atom count and have the same number of rotable bonds
-							//now let's check for MW,if still the same let's skip the alternative fragment, the difference will not be significant
-							WeightDescriptor mwd = new WeightDescriptor();
-							IDescriptorResult mwalt = mwd.calculate(Alt2EndofMol).getValue();
-							IDescriptorResult mw = mwd.calculate(Molecule2EndofMol).getValue();
-							DoubleResult ifmwalt = (DoubleResult) mwalt; 
-							DoubleResult ifmw = (DoubleResult) mw;
-							if(ifmwalt.doubleValue() < ifmw.doubleValue()) {
-								Molecule2EndofMol = Alt2EndofMol;
+					}
+				}					
+			}				
+		}
+		
+		return shortest;
+	}
+
+	// Bounded tie resolution (--resolve-ties): finds the fragment from AtomNr towards its closest end atom into best and
+	// returns the distance to it. Where several end atoms are closest the candidates are the first end atom
+	// of each symmetry class among them (symmetric end atoms give the same fragment), at most maxAlternatives
+	// besides the closest one. They are compared as in the legacy search, fewer atoms first, then more
+	// rotatable bonds, then a lower weight, and each key is only computed when the ones before it tie,
+	// ties go to the lowest end atom index. Only the winner is ever built into a container (by the caller).
+	// Unlike the legacy search no end atom at a longer distance is compared and no end atom index is skipped.
+	// AtomNr is added to best, the rotatable bonds are counted with it. candidate is scratch space.
+	private int resolveTies(int AtomNr, int[] endofmolatomindices, DistanceMatrix minTopDistMatrix, FragmentSweep sweep, Fragment best, Fragment candidate) throws CDKException {
+		int shortest = 99;
+		int ClosestAtomIndex = 999;
+		int tiedCount = 0;
+		for (int trialendofmolatomindex = 0; trialendofmolatomindex < endofmolatomindices.length; trialendofmolatomindex++) {
+			if (endofmolatomindices[trialendofmolatomindex] != 1) continue;
+			int distance = minTopDistMatrix.getDistance(AtomNr, trialendofmolatomindex);
+			if (distance < shortest) {
+				shortest = distance;
+				ClosestAtomIndex = trialendofmolatomindex;
+				tiedCount = 1;
+			}
+			else if (distance == shortest) tiedCount++;
+		}
+		findFragmentAtoms(AtomNr, ClosestAtomIndex, endofmolatomindices, minTopDistMatrix, sweep, best);
+		best.add(AtomNr);
+		if (tiedCount == 1) return shortest;
+
+		//the symmetry numbers of the candidates so far, one per class
+		int[] symmetryNumbers = result.getInts(NEWDESC_PROPERTY.SymmetryNumber);
+		int[] candidateClasses = new int[settings.getMaxAlternatives() + 1];
+		candidateClasses[0] = symmetryNumbers[ClosestAtomIndex];
+		int candidateCount = 1;
+		int bestRotatableBonds = -1;
+		double bestWeight = Double.NaN;
+		for (int trialendofmolatomindex = ClosestAtomIndex + 1; trialendofmolatomindex < endofmolatomindices.length && candidateCount < candidateClasses.length; trialendofmolatomindex++) {
+			if (endofmolatomindices[trialendofmolatomindex] != 1 || minTopDistMatrix.getDistance(AtomNr, trialendofmolatomindex) != shortest) continue;
+			int symmetryNumber = symmetryNumbers[trialendofmolatomindex];
+			boolean seen = false;
+			for (int candidateIndex = 0; candidateIndex < candidateCount && !seen; candidateIndex++) seen = candidateClasses[candidateIndex] == symmetryNumber;
+			if (seen) continue;
+			candidateClasses[candidateCount++] = symmetryNumber;
+
+			candidate.clear();
+			findFragmentAtoms(AtomNr, trialendofmolatomindex, endofmolatomindices, minTopDistMatrix, sweep, candidate);
+			candidate.add(AtomNr);
+			int comparison = candidate.size() - best.size();
+			int candidateRotatableBonds = -1;
+			double candidateWeight = Double.NaN;
+			if (comparison == 0) {
+				if (bestRotatableBonds < 0) bestRotatableBonds = FragmentRotableBondsCount(best);
+				candidateRotatableBonds = FragmentRotableBondsCount(candidate);
+				comparison = bestRotatableBonds - candidateRotatableBonds;
+			}
+			if (comparison == 0) {
+				if (Double.isNaN(bestWeight)) bestWeight = FragmentWeight(best);
+				candidateWeight = FragmentWeight(candidate);
+				comparison = (candidateWeight < bestWeight) ? -1 : 0;
+			}
+			if (comparison < 0) {
+				best.copyFrom(candidate);
+				bestRotatableBonds = candidateRotatableBonds;
+				bestWeight = candidateWeight;
+			}
+		}
+		settings.getStats().count(PipelineStats.Counter.ALTERNATIVES, candidateCount - 1);
+		result.addAlternatives(candidateCount - 1);
+		return shortest;
+	}
+
+	// The atoms between AtomNr and the end atom EndAtomIndex, from the sweep or the loop, or both compared
+	private void findFragmentAtoms(int AtomNr, int EndAtomIndex, int[] endofmolatomindices, DistanceMatrix minTopDistMatrix, FragmentSweep sweep, Fragment fragment) throws CDKException {
+		if (sweep == null) {
+			collectFragmentAtoms(AtomNr, EndAtomIndex, endofmolatomindices, minTopDistMatrix, fragment);
+			return;
+		}
+		sweep.collect(AtomNr, EndAtomIndex, fragment);
+		if (settings.getFragmentEngine() == FragmentEngine.VERIFY) {
+			Fragment loopFragment = new Fragment(this.getAtomCount());
+			collectFragmentAtoms(AtomNr, EndAtomIndex, endofmolatomindices, minTopDistMatrix, loopFragment);
+			if (!loopFragment.sameAtoms(fragment)) {
+				IAtom atom = this.getAtom(AtomNr);
+				throw new CDKException("Sweep and loop fragments differ for atom " + atom.getSymbol() + "." + atom.getID() + " towards end atom " + (EndAtomIndex + 1));
+			}
+		}
+	}
+
+	// Adds the atoms in between AtomNr and the end atom EndAtomIndex to fragment, AtomNr itself is not added
+	// package visible for FragmentSweepCheck
+	void collectFragmentAtoms(int AtomNr, int EndAtomIndex, int[] endofmolatomindices, DistanceMatrix minTopDistMatrix, Fragment fragment) {
+		boolean OnOtherBranch;
+		for (int trialatomindex = 0; trialatomindex < this.getAtomCount(); trialatomindex++){
+			OnOtherBranch = false;
+			//first, atoms in this IAtomContainer should have a distance to EndAtomIndex that is shorter than AtomNr
+			//and it should not be AtomNr atom
+			if (trialatomindex != AtomNr && minTopDistMatrix.getDistance(trialatomindex, EndAtomIndex) <= minTopDistMatrix.getDistance(AtomNr, EndAtomIndex)){
+				//and the trial atom should be closer to AtomNr than the distance between AtomNr and EndAtomIndex
+				if((minTopDistMatrix.getDistance(trialatomindex, EndAtomIndex) < minTopDistMatrix.getDistance(AtomNr, EndAtomIndex) && (minTopDistMatrix.getDistance(trialatomindex, AtomNr) <= minTopDistMatrix.getDistance(AtomNr, EndAtomIndex) 
+				|| trialatomindex == EndAtomIndex))
+				|| (minTopDistMatrix.getDistance(trialatomindex, EndAtomIndex) == minTopDistMatrix.getDistance(AtomNr, EndAtomIndex) && result.getDouble(NEWDESC_PROPERTY.RelSpan, trialatomindex) > result.getDouble(NEWDESC_PROPERTY.RelSpan, AtomNr))
+				){
+					//one final check. The atom must not be closer to another end atom, 
+					//because then it is on another branch than the one we are interested in traversing
+					for (int otherendofmolatomindex = 0; otherendofmolatomindex < endofmolatomindices.length; otherendofmolatomindex++){
+						if(endofmolatomindices[otherendofmolatomindex] == 1){
+							if (otherendofmolatomindex != EndAtomIndex 
+							&& minTopDistMatrix.getDistance(trialatomindex, EndAtomIndex) > minTopDistMatrix.getDistance(trialatomindex, otherendofmolatomindex) 
+                                    && minTopDistMatrix.getDistance(trialatomindex, AtomNr) != minTopDistMatrix.getDistance(EndAtomIndex, AtomNr)){
+								OnOtherBranch = true;
 							}
 						}
-					}					
-				}				
+					}
+					if (OnOtherBranch == false){
+						//Molecule2EndofMol.addAtom(this.getAtom(trialatomindex));
+						fragment.add(trialatomindex);
+						//System.out.println(AtomNr + ":" + trialatomindex);
+					}
+				}
 			}
-			
-			//before this, keep the atom of interest
-			//now compute bond descriptors
-			int rotbonds = FragmentRotableBondsCount(Molecule2EndofMol);
-			Molecule2EndofMol.setProperty(prefix + "_RotableBondCount", rotbonds);
-			Molecule2EndofMol.setProperty(prefix + "_BondsToEnd", shortest);
-			
-			//remove the atom of interest
-			Molecule2EndofMol.removeAtomAndConnectedElectronContainers(this.getAtom(AtomNr));
-			//now compute other properties
-			//Atom Count
-			Molecule2EndofMol.setProperty(prefix + "_AtomCount", Molecule2EndofMol.getAtomCount());
-			//Topological polar surface area
+		}
+	}
+
+	// Gives every atom the prefix descriptors (and fragment) of the representative of its symmetry class
+	private void copySymmetricDescriptors(IAtomContainer[] AtomMolecules, String prefix) {
+		for (int atomIndex = 0; atomIndex < this.getAtomCount(); atomIndex++) {
+			int representative = symmetryRepresentatives[atomIndex];
+			if (representative == atomIndex) continue;
+			for (NEWDESC_PROPERTY property : NEWDESC_PROPERTY.values()) {
+				if (property.name().startsWith(prefix + "_")) result.copyValues(property, representative, atomIndex);
+			}
+			AtomMolecules[atomIndex] = AtomMolecules[representative];
+		}
+	}
+
+	// The CDK descriptors of a fragment container, also stored as fragment properties with the atom properties setting,
+	// only the given values are calculated
+	private FragmentDescriptors calculateCDKDescriptors(IAtomContainer Molecule2EndofMol, String prefix, EnumSet<FragmentDescriptors.Value> values) {
+		boolean fragmentProperties = settings.isAtomProperties();
+		double tpsavalue = Double.NaN;
+		double vabcvalue = Double.NaN;
+		int hacdvalue = Integer.MIN_VALUE;
+		int hdcdvalue = Integer.MIN_VALUE;
+		int lpsdvalue = Integer.MIN_VALUE;
+		double logpvalue = Double.NaN;
+		PipelineStats stats = settings.getStats();
+		long start;
+		//Topological polar surface area
+		if (values.contains(FragmentDescriptors.Value.TPSA)) {
+			start = stats.start();
 			TPSADescriptor tpsa = new TPSADescriptor();
-			DescriptorValue tpsavalue = tpsa.calculate(Molecule2EndofMol);
-			DoubleResult tpsavaluedouble = (DoubleResult) tpsavalue.getValue();
-			Number tpsavaluenumber = (Number) tpsavaluedouble.doubleValue();
-			Molecule2EndofMol.setProperty(prefix + "_TPSA", tpsavaluedouble);
-			//Topological polar surface area per Atom, a measure of the polar fraction
-			double TPSAperAtom = 0;
-			if(Molecule2EndofMol.getAtomCount() != 0) TPSAperAtom = tpsavaluedouble.doubleValue()/Molecule2EndofMol.getAtomCount();
-			Molecule2EndofMol.setProperty(prefix + "_TPSAperAtom", TPSAperAtom);
-			//Volume descriptor
+			DoubleResult tpsavaluedouble = (DoubleResult) tpsa.calculate(Molecule2EndofMol).getValue();
+			stats.end(PipelineStats.Stage.TPSA, start);
+			if (fragmentProperties) Molecule2EndofMol.setProperty(prefix + "_TPSA", tpsavaluedouble);
+			tpsavalue = tpsavaluedouble.doubleValue();
+		}
+		//Volume descriptor
+		if (values.contains(FragmentDescriptors.Value.VOLUME)) {
+			start = stats.start();
 			VABCDescriptor vabc = new VABCDescriptor();
-			DescriptorValue vabcvalue = vabc.calculate(Molecule2EndofMol);
-			DoubleResult vabcvaluedouble = (DoubleResult) vabcvalue.getValue();
-			Number vabcvaluenumber = (Number) vabcvaluedouble.doubleValue();
-			Molecule2EndofMol.setProperty(prefix + "_Volume", vabcvaluedouble);
-			//H-bond acceptor count descriptor
+			DoubleResult vabcvaluedouble = (DoubleResult) vabc.calculate(Molecule2EndofMol).getValue();
+			stats.end(PipelineStats.Stage.VOLUME, start);
+			if (fragmentProperties) Molecule2EndofMol.setProperty(prefix + "_Volume", vabcvaluedouble);
+			vabcvalue = vabcvaluedouble.doubleValue();
+		}
+		//H-bond acceptor count descriptor
+		if (values.contains(FragmentDescriptors.Value.HBOND_ACCEPTORS)) {
+			start = stats.start();
 			HBondAcceptorCountDescriptor hacd = new HBondAcceptorCountDescriptor();
-			DescriptorValue hacdvalue = hacd.calculate(Molecule2EndofMol);
-			IntegerResult hacdvalueint = (IntegerResult) hacdvalue.getValue();
-			Number hacdvaluenumber = (Number) hacdvalueint.intValue();
-			Molecule2EndofMol.setProperty(prefix + "_HAcount", hacdvalueint);
-			//H-bond donor count descriptor
+			IntegerResult hacdvalueint = (IntegerResult) hacd.calculate(Molecule2EndofMol).getValue();
+			stats.end(PipelineStats.Stage.HBOND_ACCEPTORS, start);
+			if (fragmentProperties) Molecule2EndofMol.setProperty(prefix + "_HAcount", hacdvalueint);
+			hacdvalue = hacdvalueint.intValue();
+		}
+		//H-bond donor count descriptor
+		if (values.contains(FragmentDescriptors.Value.HBOND_DONORS)) {
+			start = stats.start();
 			HBondDonorCountDescriptor hdcd = new HBondDonorCountDescriptor();
-			DescriptorValue hdcdvalue = hdcd.calculate(Molecule2EndofMol);
-			IntegerResult hdcdvalueint = (IntegerResult) hdcdvalue.getValue();
-			Number hdcdvaluenumber = (Number) hdcdvalueint.intValue();
-			Molecule2EndofMol.setProperty(prefix + "_HDcount", hdcdvalueint);
-			//Largest PI system descriptor
+			IntegerResult hdcdvalueint = (IntegerResult) hdcd.calculate(Molecule2EndofMol).getValue();
+			stats.end(PipelineStats.Stage.HBOND_DONORS, start);
+			if (fragmentProperties) Molecule2EndofMol.setProperty(prefix + "_HDcount", hdcdvalueint);
+			hdcdvalue = hdcdvalueint.intValue();
+		}
+		//Largest PI system descriptor
+		if (values.contains(FragmentDescriptors.Value.PI_SYSTEM)) {
+			start = stats.start();
 			LargestPiSystemDescriptor lpsd = new LargestPiSystemDescriptor();
-			DescriptorValue lpsdvalue = lpsd.calculate(Molecule2EndofMol);
-			IntegerResult lpsdvalueint = (IntegerResult) lpsdvalue.getValue();
-			Number lpsdvaluenumber = (Number) lpsdvalueint.intValue();
-			Molecule2EndofMol.setProperty(prefix + "_PISystemSize", lpsdvalueint);
-			//Mannhold LogP descriptor
+			IntegerResult lpsdvalueint = (IntegerResult) lpsd.calculate(Molecule2EndofMol).getValue();
+			stats.end(PipelineStats.Stage.PI_SYSTEM, start);
+			if (fragmentProperties) Molecule2EndofMol.setProperty(prefix + "_PISystemSize", lpsdvalueint);
+			lpsdvalue = lpsdvalueint.intValue();
+		}
+		//Mannhold LogP descriptor
+		if (values.contains(FragmentDescriptors.Value.LOGP)) {
+			start = stats.start();
 			MannholdLogPDescriptor logp = new MannholdLogPDescriptor();
-			DescriptorValue logpvalue = logp.calculate(Molecule2EndofMol);
-			DoubleResult logpvaluedouble = (DoubleResult) logpvalue.getValue();
-			Molecule2EndofMol.setProperty(prefix + "_logP", logpvaluedouble);
-			
-			
-			if (prefix == "Mol"){
-				NEWDESC_PROPERTY.Mol_RotableBondCount.set(ThisAtom,rotbonds);
-				NEWDESC_PROPERTY.Mol_BondsToEnd.set(ThisAtom, shortest);
-				NEWDESC_PROPERTY.Mol_AtomCount.set(ThisAtom, Molecule2EndofMol.getAtomCount());
-				NEWDESC_PROPERTY.Mol_TPSA.set(ThisAtom, tpsavaluenumber);
-				NEWDESC_PROPERTY.Mol_TPSAperAtom.set(ThisAtom, TPSAperAtom);
-				NEWDESC_PROPERTY.Mol_Volume.set(ThisAtom, vabcvaluenumber);
-				NEWDESC_PROPERTY.Mol_HAcount.set(ThisAtom, hacdvaluenumber);
-				NEWDESC_PROPERTY.Mol_HDcount.set(ThisAtom, hdcdvaluenumber);
-				NEWDESC_PROPERTY.Mol_PIsystemSize.set(ThisAtom, lpsdvaluenumber);
-			}
-			if (prefix == "Branch"){
-				NEWDESC_PROPERTY.Branch_RotableBondCount.set(ThisAtom,rotbonds);
-				NEWDESC_PROPERTY.Branch_BondsToEnd.set(ThisAtom, shortest);
-				NEWDESC_PROPERTY.Branch_AtomCount.set(ThisAtom, Molecule2EndofMol.getAtomCount());
-				NEWDESC_PROPERTY.Branch_TPSA.set(ThisAtom, tpsavaluenumber);
-				NEWDESC_PROPERTY.Branch_TPSAperAtom.set(ThisAtom, TPSAperAtom);
-				NEWDESC_PROPERTY.Branch_Volume.set(ThisAtom, vabcvaluenumber);
-				NEWDESC_PROPERTY.Branch_HAcount.set(ThisAtom, hacdvaluenumber);
-				NEWDESC_PROPERTY.Branch_HDcount.set(ThisAtom, hdcdvaluenumber);
-				NEWDESC_PROPERTY.Branch_PIsystemSize.set(ThisAtom, lpsdvaluenumber);
+			DoubleResult logpvaluedouble = (DoubleResult) logp.calculate(Molecule2EndofMol).getValue();
+			stats.end(PipelineStats.Stage.LOGP, start);
+			if (fragmentProperties) Molecule2EndofMol.setProperty(prefix + "_logP", logpvaluedouble);
+			logpvalue = logpvaluedouble.doubleValue();
+		}
+		return new FragmentDescriptors(tpsavalue, vabcvalue, hacdvalue, hdcdvalue, lpsdvalue, logpvalue);
+	}
+
+	// The fragment descriptors the chosen columns of the fragments of the prefixes ("Mol" or "Branch") need.
+	// The fragment cache is shared by both kinds of fragments, with it those of both are computed.
+	private EnumSet<FragmentDescriptors.Value> fragmentValues(String[] prefixes) {
+		EnumSet<FragmentDescriptors.Value> values = EnumSet.noneOf(FragmentDescriptors.Value.class);
+		if (settings.getFragmentCache() != null) prefixes = new String[] {"Mol", "Branch"};
+		for (String columnPrefix : prefixes) {
+			if (isComputed(columnPrefix, "TPSA") || isComputed(columnPrefix, "TPSAperAtom")) {
+				values.add(FragmentDescriptors.Value.TPSA);
 			}
-			
-			//assign the "best" fragment to the return array, with all properties set
-			AtomMolecules[AtomNr] = Molecule2EndofMol;
+			if (isComputed(columnPrefix, "Volume")) values.add(FragmentDescriptors.Value.VOLUME);
+			if (isComputed(columnPrefix, "HAcount")) values.add(FragmentDescriptors.Value.HBOND_ACCEPTORS);
+			if (isComputed(columnPrefix, "HDcount")) values.add(FragmentDescriptors.Value.HBOND_DONORS);
+			if (isComputed(columnPrefix, "PIsystemSize")) values.add(FragmentDescriptors.Value.PI_SYSTEM);
+			if (isComputed(columnPrefix, "logP")) values.add(FragmentDescriptors.Value.LOGP);
 		}
-		
-		return AtomMolecules;
+		//VABCDescriptor leaves the aromaticity it finds on the fragment container and the descriptors after it
+		//(H-bond counts, pi system, logP) see it, so they only give the values of the full output after the volume
+		EnumSet<FragmentDescriptors.Value> afterVolume = EnumSet.of(FragmentDescriptors.Value.HBOND_ACCEPTORS, FragmentDescriptors.Value.HBOND_DONORS,
+				FragmentDescriptors.Value.PI_SYSTEM, FragmentDescriptors.Value.LOGP);
+		if (!Collections.disjoint(values, afterVolume)) values.add(FragmentDescriptors.Value.VOLUME);
+		return values;
+	}
+
+	// Whether the column of a fragment pass is written, the Mol_ or Branch_ column of that name.
+	// A pass with any other prefix has no columns to leave out, so everything is computed for it.
+	private boolean isComputed(String prefix, String column) {
+		if ("Mol".equals(prefix)) return settings.isComputed(NEWDESC_PROPERTY.valueOf("Mol_" + column));
+		if ("Branch".equals(prefix)) return settings.isComputed(NEWDESC_PROPERTY.valueOf("Branch_" + column));
+		return true;
+	}
+
+	// Canonical fragment hashes for the fragment cache, atom invariants built once per molecule
+	private FragmentHasher getFragmentHasher() {
+		if (fragmentHasher == null) fragmentHasher = new FragmentHasher(this);
+		return fragmentHasher;
+	}
+
+	// Per-atom contribution tables for the native fragment descriptors, built once per molecule
+	private FragmentDescriptorKernel getDescriptorKernel() throws CDKException {
+		if (descriptorKernel == null) descriptorKernel = new FragmentDescriptorKernel(this);
+		return descriptorKernel;
 	}
 	
 
-	private int FragmentRotableBondsCount(IAtomContainer ac) {
+	// package visible for DescriptorBenchmark and RotatableBondCheck
+	int FragmentRotableBondsCount(IAtomContainer ac) {
 		int rotableBondsCount = 0;
 		for (IBond bond : ac.bonds()) {
 			IAtom atom0 = bond.getAtom(0);
@@ -499,18 +1006,7 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 						//do not count bond if either atom has only one other heavy atom attached
 						if((atom0.getFormalNeighbourCount() - atom0.getImplicitHydrogenCount()) > 1 && (atom1.getFormalNeighbourCount() - atom1.getImplicitHydrogenCount()) > 1 ){
 							//now exclude amides, thioamides, and sulfonamides
-							String atom0type = atom0.getAtomTypeName();
-							String atom1type = atom1.getAtomTypeName();
-							if ((atom0type.equals("N.amide") && atom1type.equals("C.sp2")) || (atom0type.equals("C.sp2") && atom1type.equals("N.amide"))){
-								//an amide/peptide bond is not a rotable bond
-							}
-							else if((atom0type.equals("N.thioamide") && atom1type.equals("C.sp2")) || (atom0type.equals("C.sp2") && atom1type.equals("N.thioamide"))){
-								//a thioamide bond is not a rotable bond
-							}
-							else if((atom0type.equals("N.sp3") && atom1type.equals("S.onyl")) || (atom0type.equals("S.onyl") && atom1type.equals("N.sp3"))){
-								//a sulfonamide bond is not a rotable bond
-							} 
-							else {
+							if (!IsAmideLikeBond(atom0.getAtomTypeName(), atom1.getAtomTypeName())) {
 								rotableBondsCount += 1;
 							}
 						}
@@ -522,29 +1018,113 @@ public class MoleculeKU extends AtomContainer implements IMolecule {
 		return rotableBondsCount;
 	}
 
+	// Same count as FragmentRotableBondsCount(IAtomContainer), on the bitset of fragment atoms
+	private int FragmentRotableBondsCount(Fragment fragment) {
+		if (rotatableBondTable == null) rotatableBondTable = new RotatableBondTable(this);
+		return rotatableBondTable.count(fragment);
+	}
+
+	//amide, thioamide and sulfonamide bonds are not counted as rotable
+	static boolean IsAmideLikeBond(String atom0type, String atom1type) {
+		//an amide/peptide bond is not a rotable bond
+		if ((atom0type.equals("N.amide") && atom1type.equals("C.sp2")) || (atom0type.equals("C.sp2") && atom1type.equals("N.amide"))) return true;
+		//a thioamide bond is not a rotable bond
+		if ((atom0type.equals("N.thioamide") && atom1type.equals("C.sp2")) || (atom0type.equals("C.sp2") && atom1type.equals("N.thioamide"))) return true;
+		//a sulfonamide bond is not a rotable bond
+		if ((atom0type.equals("N.sp3") && atom1type.equals("S.onyl")) || (atom0type.equals("S.onyl") && atom1type.equals("N.sp3"))) return true;
+		return false;
+	}
+
+	// Molecular weight of the fragment atoms including their implicit hydrogens.
+	// Sums the same terms in the same order as WeightDescriptor does on a fragment container.
+	private double FragmentWeight(Fragment fragment) throws CDKException {
+		prepareAtomMasses();
+		double weight = 0;
+		for (int atomIndex = fragment.nextAtom(0); atomIndex >= 0; atomIndex = fragment.nextAtom(atomIndex + 1)) {
+			weight += atomMasses[atomIndex];
+			weight += atomHydrogenMasses[atomIndex];
+		}
+		return weight;
+	}
+
+	// the masses FragmentWeight sums, looked up once per molecule
+	private void prepareAtomMasses() throws CDKException {
+		if (atomMasses == null) {
+			IsotopeFactory isotopeFactory;
+			try {
+				isotopeFactory = IsotopeFactory.getInstance(getBuilder());
+			} catch (IOException e) {
+				throw new CDKException("Could not read isotope data", e);
+			}
+			double[] masses = new double[this.getAtomCount()];
+			double[] hydrogenMasses = new double[this.getAtomCount()];
+			for (int atomIndex = 0; atomIndex < this.getAtomCount(); atomIndex++) {
+				IAtom atom = this.getAtom(atomIndex);
+				//WeightDescriptor gives NaN for elements without isotope data
+				IIsotope isotope = isotopeFactory.getMajorIsotope(atom.getSymbol());
+				masses[atomIndex] = (isotope == null || isotope.getExactMass() == null) ? Double.NaN : isotope.getExactMass();
+				Integer hcount = atom.getImplicitHydrogenCount();
+				if (hcount == CDKConstants.UNSET) hcount = 0;
+				hydrogenMasses[atomIndex] = hcount * 1.00782504;
+			}
+			atomMasses = masses;
+			atomHydrogenMasses = hydrogenMasses;
+		}
+	}
+
 	// Symmetric atoms have identical values in the array from getTopoEquivClassbyHuXu
 	public void setSymmetryNumbers() throws CDKException{
 		Atom atom;
-		//set charges so that they are not null
+		//set charges so that they are not null, a container from the Standardiser has them already
 		for(int atomIndex = 0; atomIndex < this.getAtomCount(); atomIndex++){
 			atom = (Atom) this.getAtom(atomIndex);
-			atom.setCharge((double) atom.getFormalCharge());
+			if (atom.getCharge() == null || atom.getCharge().doubleValue() != atom.getFormalCharge()) atom.setCharge((double) atom.getFormalCharge());
 		}
 		//compute symmetry
-		EquivalentClassPartitioner symmtest = new EquivalentClassPartitioner((AtomContainer) this);
-		int[] symmetryNumbersArray = symmtest.getTopoEquivClassbyHuXu((AtomContainer) this);
+		int[] symmetryNumbersArray;
+		if (settings.getPartitioner() == Partitioner.REFINE) {
+			symmetryNumbersArray = RefinementPartitioner.partition(this);
+		}
+		else {
+			EquivalentClassPartitioner symmtest = new EquivalentClassPartitioner((AtomContainer) this);
+			symmetryNumbersArray = symmtest.getTopoEquivClassbyHuXu((AtomContainer) this);
+		}
 		symmetryNumbersArray[0]=0;//so we can count the number of symmetric sites for each atom without double counting for the ones with the highest symmetrynumber
 		int symmsites;
 		for(int atomIndex = 0; atomIndex < this.getAtomCount(); atomIndex++){
 			symmsites = 0;
-			atom = (Atom) this.getAtom(atomIndex);
-			NEWDESC_PROPERTY.SymmetryNumber.set(atom,symmetryNumbersArray[atomIndex+1]);
+			result.setInt(NEWDESC_PROPERTY.SymmetryNumber, atomIndex, symmetryNumbersArray[atomIndex+1]);
 			// Compute how many symmetric sites the atom has, 1=only itself
 			symmsites = FindInArray(symmetryNumbersArray,symmetryNumbersArray[atomIndex+1]);
-			NEWDESC_PROPERTY.NrofSymmetricSites.set(atom,symmsites);
+			result.setInt(NEWDESC_PROPERTY.NrofSymmetricSites, atomIndex, symmsites);
+		}
+		if (settings.getSymmetryMode() != SymmetryMode.OFF) {
+			//the representative of a class is its atom with the lowest index
+			symmetryRepresentatives = new int[this.getAtomCount()];
+			for(int atomIndex = 0; atomIndex < this.getAtomCount(); atomIndex++){
+				symmetryRepresentatives[atomIndex] = atomIndex;
+				for(int earlierIndex = 0; earlierIndex < atomIndex; earlierIndex++){
+					if (symmetryNumbersArray[earlierIndex+1] == symmetryNumbersArray[atomIndex+1]) {
+						symmetryRepresentatives[atomIndex] = earlierIndex;
+						break;
+					}
+				}
+				if (settings.getSymmetryMode() == SymmetryMode.REPRESENTATIVES) {
+					result.setSymmetric(atomIndex, symmetryRepresentatives[atomIndex] != atomIndex);
+				}
+			}
 		}
 	}
 	
+	// The symmetry numbers used to be atom properties compared with != on the boxed Integers,
+	// which are the same object only for the same atom or for values in the Integer cache (-128 to 127).
+	// Larger equal numbers on different atoms counted as different, and still do, so the output does not change.
+	private boolean SameBoxedSymmetryNumber(int atomIndex, int otherAtomIndex) {
+		if (atomIndex == otherAtomIndex) return true;
+		int symmetryNumber = result.getInt(NEWDESC_PROPERTY.SymmetryNumber, atomIndex);
+		return symmetryNumber == result.getInt(NEWDESC_PROPERTY.SymmetryNumber, otherAtomIndex) && symmetryNumber >= -128 && symmetryNumber <= 127;
+	}
+
 	public static int FindInArray(int[] arr, int numToFind) {
 		int occurence=0;
 		for (int i = 0; i < arr.length; i++) { 
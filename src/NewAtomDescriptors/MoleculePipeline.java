@@ -0,0 +1,239 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.openscience.cdk.AtomContainer;
+import org.openscience.cdk.Molecule;
+
+// Reads, describes and writes the molecules of one input file.
+// With one thread everything happens in turn on the calling thread. With more threads a reader thread
+// submits each molecule to a pool of workers (which also parse it, if the source leaves that to them)
+// and queues the pending results in input order, the calling thread takes them from the queue and
+// writes them, so the output is the same as with one thread.
+// The queue is bounded, which keeps the reader from running far ahead of the writer.
+// Progress (molecules written, rate) goes to System.err at most once per progress interval.
+// The AtomDescriptorResult of a written molecule is reused for a later one, so only about as many results
+// as there are molecules in flight are ever allocated.
+// A molecule over a budget (BudgetExceededException) is skipped, and with a quarantine file so is a molecule
+// that cannot be read or described, instead of stopping the run. A skipped molecule keeps its number, has
+// no rows in the output and goes to the QuarantineWriter when it would have been written.
+public class MoleculePipeline {
+
+	// marks the end of the input in the queue of pending results
+	private static final Future<MoleculeKU> END_OF_INPUT = new FutureTask<MoleculeKU>(new Callable<MoleculeKU>() {
+		public MoleculeKU call() {
+			return null;
+		}
+	});
+
+	private final int threads;
+	private final DescriptorSettings settings;
+	private final long progressNanos;
+	private final long startNanos = System.nanoTime();
+	private long lastProgressNanos = startNanos;
+	private long written = 0;
+	// results of written molecules, free for reuse
+	private final ConcurrentLinkedQueue<AtomDescriptorResult> spareResults = new ConcurrentLinkedQueue<AtomDescriptorResult>();
+	private QuarantineWriter quarantine = new QuarantineWriter();
+	// the molecules (null if not read) and causes of skipped molecules until they are written, by their failed result
+	private final Map<AtomDescriptorResult, Skipped> skipped = Collections.synchronizedMap(new HashMap<AtomDescriptorResult, Skipped>());
+
+	// progressSeconds 0 turns the progress output off
+	public MoleculePipeline(int threads, DescriptorSettings settings, int progressSeconds) {
+		this.threads = threads;
+		this.settings = settings;
+		this.progressNanos = progressSeconds * 1000000000L;
+	}
+
+	// where skipped molecules go, by default they are only counted
+	public void setQuarantine(QuarantineWriter quarantine) {
+		this.quarantine = quarantine;
+	}
+
+	public QuarantineWriter getQuarantine() {
+		return quarantine;
+	}
+
+	// moleculeIndex is the index of the last molecule written before this file,
+	// returns the index of the last molecule written from this file
+	public int run(MoleculeSource source, DescriptorWriter writer, int moleculeIndex) throws Exception {
+		if (threads == 1) {
+			while (source.hasNext()) {
+				moleculeIndex++;
+				write(writer, describe(source.next(), moleculeIndex), moleculeIndex);
+			}
+			return moleculeIndex;
+		}
+
+		if (!source.hasNext()) return moleculeIndex;
+		// the first molecule is done on this thread, so that the singletons CDK creates lazily
+		// (atom type matchers, isotope factories) exist before several threads ask for them
+		moleculeIndex++;
+		write(writer, describe(source.next(), moleculeIndex), moleculeIndex);
+
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		BlockingQueue<Future<MoleculeKU>> pending = new ArrayBlockingQueue<Future<MoleculeKU>>(threads * 4);
+		ReaderThread readerThread = new ReaderThread(source, workers, pending, moleculeIndex + 1);
+		readerThread.start();
+		try {
+			while (true) {
+				Future<MoleculeKU> result = pending.take();
+				if (result == END_OF_INPUT) break;
+				moleculeIndex++;
+				try {
+					write(writer, result.get(), moleculeIndex);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		} finally {
+			readerThread.interrupt();
+			workers.shutdownNow();
+		}
+		readerThread.join();
+		if (readerThread.failure != null) throw readerThread.failure;
+		return moleculeIndex;
+	}
+
+	// reads and describes one molecule, timed for the statistics,
+	// a skipped molecule gives a MoleculeKU without atoms and a failed result
+	MoleculeKU describe(Callable<Molecule> read, int moleculeIndex) throws Exception {
+		PipelineStats stats = settings.getStats();
+		long start = stats.start();
+		AtomDescriptorResult result = spareResults.poll();
+		if (result == null) result = new AtomDescriptorResult();
+		Molecule molecule = null;
+		try {
+			molecule = read.call();
+			MoleculeKU moleculeKU = NewAtomDescriptors.describeMolecule(molecule, settings, result);
+			stats.molecule(moleculeIndex, moleculeKU.getAtomCount(), result.getAlternativeCount(), System.nanoTime() - start);
+			return moleculeKU;
+		} catch (Exception e) {
+			if (e instanceof InterruptedException) throw e;
+			if (!(e instanceof BudgetExceededException) && !quarantine.hasFile()) throw e;
+			stats.count(PipelineStats.Counter.SKIPPED, 1);
+			MoleculeKU skippedKU = new MoleculeKU(new AtomContainer(), settings, result);
+			result.fail(String.valueOf(e.getMessage()));
+			skipped.put(result, new Skipped(molecule, e));
+			return skippedKU;
+		}
+	}
+
+	// also called by the writers of MoleculeScheduler, one per file
+	void write(DescriptorWriter writer, MoleculeKU moleculeKU, int moleculeIndex) throws IOException {
+		PipelineStats stats = settings.getStats();
+		long start = stats.start();
+		Skipped skippedMolecule = skipped.remove(moleculeKU.getResult());
+		if (skippedMolecule != null) {
+			boolean budget = skippedMolecule.cause instanceof BudgetExceededException;
+			String reason = (budget) ? skippedMolecule.cause.getMessage() : skippedMolecule.cause.toString();
+			quarantine.write(moleculeIndex, skippedMolecule.molecule, reason, budget);
+		}
+		writer.writeMolecule(moleculeKU, moleculeIndex);
+		stats.end(PipelineStats.Stage.WRITE, start);
+		spareResults.add(moleculeKU.getResult());
+		progress(moleculeIndex);
+	}
+
+	private synchronized void progress(int moleculeIndex) {
+		written++;
+		if (progressNanos > 0 && System.nanoTime() - lastProgressNanos >= progressNanos) {
+			lastProgressNanos = System.nanoTime();
+			double seconds = (lastProgressNanos - startNanos) / 1e9;
+			System.err.println(String.format("%d molecules written (last %d), %.1f molecules/s", written, moleculeIndex, written / seconds));
+		}
+	}
+
+	private static class Skipped {
+
+		private final Molecule molecule;
+		private final Exception cause;
+
+		Skipped(Molecule molecule, Exception cause) {
+			this.molecule = molecule;
+			this.cause = cause;
+		}
+
+	}
+
+	private class ReaderThread extends Thread {
+
+		private final MoleculeSource source;
+		private final ExecutorService workers;
+		private final BlockingQueue<Future<MoleculeKU>> pending;
+		private int nextIndex;
+		private volatile Exception failure = null;
+
+		ReaderThread(MoleculeSource source, ExecutorService workers, BlockingQueue<Future<MoleculeKU>> pending, int firstIndex) {
+			super("molecule-reader");
+			setDaemon(true);
+			this.source = source;
+			this.workers = workers;
+			this.pending = pending;
+			this.nextIndex = firstIndex;
+		}
+
+		public void run() {
+			try {
+				try {
+					while (source.hasNext()) {
+						final Callable<Molecule> read = source.next();
+						final int moleculeIndex = nextIndex++;
+						pending.put(workers.submit(new Callable<MoleculeKU>() {
+							public MoleculeKU call() throws Exception {
+								return describe(read, moleculeIndex);
+							}
+						}));
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					failure = e;
+				}
+				pending.put(END_OF_INPUT);
+			} catch (InterruptedException e) {
+				// the writer has stopped
+			}
+		}
+
+	}
+
+}
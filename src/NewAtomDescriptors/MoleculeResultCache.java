@@ -0,0 +1,131 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Atom descriptors of whole molecules shared over a run, keyed by the canonical key from CanonicalMolecule,
+// so that duplicate structures in the input are described once.
+// Results are kept in canonical atom order and copied to the atom order of each duplicate.
+// Holds at most maxSize molecules and evicts the least recently used one.
+// Thread safe, all worker threads share one cache through DescriptorSettings.
+public class MoleculeResultCache {
+
+	// the descriptors of one molecule and the canonical order of its atoms
+	public static final class Entry {
+		private final AtomDescriptorResult result;
+		private final int[] order;
+
+		Entry(AtomDescriptorResult result, CanonicalMolecule canonical) {
+			this.result = result.copy();
+			this.order = new int[canonical.getAtomCount()];
+			for (int position = 0; position < order.length; position++) order[position] = canonical.getAtom(position);
+		}
+
+		// fills result, already reset for the duplicate, with the values of its atoms
+		public void copyTo(AtomDescriptorResult result, CanonicalMolecule canonical) {
+			for (int position = 0; position < order.length; position++) {
+				result.copyAtomFrom(this.result, order[position], canonical.getAtom(position));
+			}
+		}
+	}
+
+	private final int maxSize;
+	private final LinkedHashMap<String, Entry> entries;
+	private long hits = 0;
+	private long misses = 0;
+	// duplicates described anyway (--verify-dedup), those whose values differ and the first differences
+	private long verified = 0;
+	private long differing = 0;
+	private String firstDifferences = null;
+
+	public MoleculeResultCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, MoleculeResultCache.Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	// null if the molecule is not in the cache, counts a hit or a miss
+	public synchronized Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) misses++;
+		else hits++;
+		return entry;
+	}
+
+	// result is copied, it can be reused afterwards
+	public void put(CanonicalMolecule canonical, AtomDescriptorResult result) {
+		Entry entry = new Entry(result, canonical);
+		synchronized (this) {
+			entries.put(canonical.getKey(), entry);
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	// a duplicate described anyway, differences are those of its values to the reused ones, null if none.
+	// In another atom order ties between equal atoms can be broken differently and LargestPiSystemDescriptor
+	// starts from another atom, so differences are counted rather than failing the run.
+	public synchronized void verified(String differences) {
+		verified++;
+		if (differences == null) return;
+		if (differing == 0) firstDifferences = differences;
+		differing++;
+	}
+
+	public synchronized long getDiffering() {
+		return differing;
+	}
+
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return String.format("molecule cache: %d duplicates, %d new molecules (%.1f%% hits), %d of %d entries used", hits, misses,
+				(lookups == 0) ? 0.0 : 100.0 * hits / lookups, entries.size(), maxSize)
+				+ ((verified == 0) ? "" : String.format(", %d of %d duplicates described again differ from the reused values", differing, verified))
+				+ ((differing == 0) ? "" : " (first: " + firstDifferences + ")");
+	}
+
+}
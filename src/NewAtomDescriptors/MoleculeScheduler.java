@@ -0,0 +1,307 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openscience.cdk.Molecule;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+// Describes the molecules of several input files at once on one work stealing pool, each file written
+// to its own output in its own input order.
+// Every file has a reader thread and a writer thread. The reader takes up to window molecules at a time,
+// has the pool parse them, estimates the cost of each (see estimateCost) and submits them most expensive
+// first, so that a large molecule late in the window does not start last and keep the run waiting for it.
+// The pending results go to the writer in input order, at most one window of them, which keeps a reader
+// from running far ahead of its writer.
+// Molecules are numbered per file, so every output starts at molecule 1 and has its own CSV header.
+// Reading, describing and writing are those of MoleculePipeline, which also keeps the progress output.
+public class MoleculeScheduler {
+
+	// marks the end of a file in the queue of pending results
+	private final DescribeTask endOfInput = new DescribeTask(null, 0);
+
+	// One input file: where its molecules come from, where they go, and the index of the molecule before
+	// its first one (molecules skipped with --start keep their numbers)
+	public static class InputFile {
+
+		private final MoleculeSource source;
+		private final DescriptorWriter writer;
+		private final int moleculeIndex;
+
+		public InputFile(MoleculeSource source, DescriptorWriter writer, int moleculeIndex) {
+			this.source = source;
+			this.writer = writer;
+			this.moleculeIndex = moleculeIndex;
+		}
+
+		public void close() throws IOException {
+			source.close();
+			writer.close();
+		}
+
+	}
+
+	private final MoleculePipeline pipeline;
+	private final int threads;
+	private final int window;
+	// the first failure of any file, which stops all of them
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+	private ForkJoinPool workers;
+	private final List<Thread> fileThreads = new ArrayList<Thread>();
+
+	public MoleculeScheduler(MoleculePipeline pipeline, int threads, int window) {
+		this.pipeline = pipeline;
+		this.threads = threads;
+		this.window = window;
+	}
+
+	// Describes all files and returns when all are written, the sources and writers are left open
+	public void run(List<InputFile> files) throws Exception {
+		if (files.isEmpty()) return;
+		// the first molecule is done on this thread, so that the singletons CDK creates lazily
+		// (atom type matchers, isotope factories) exist before several threads ask for them
+		int[] firstIndices = new int[files.size()];
+		for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) firstIndices[fileIndex] = files.get(fileIndex).moleculeIndex + 1;
+		InputFile first = files.get(0);
+		if (first.source.hasNext()) {
+			pipeline.write(first.writer, pipeline.describe(first.source.next(), firstIndices[0]), firstIndices[0]);
+			firstIndices[0]++;
+		}
+
+		// asynchronous mode: submitted molecules are never joined by the workers, they run first in, first out
+		workers = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) {
+			BlockingQueue<DescribeTask> pending = new ArrayBlockingQueue<DescribeTask>(window + 1);
+			fileThreads.add(new ReaderThread(files.get(fileIndex).source, pending, firstIndices[fileIndex]));
+			fileThreads.add(new WriterThread(files.get(fileIndex).writer, pending, firstIndices[fileIndex]));
+		}
+		try {
+			for (Thread thread : fileThreads) thread.start();
+			for (Thread thread : fileThreads) thread.join();
+		} finally {
+			workers.shutdownNow();
+			for (Thread thread : fileThreads) thread.interrupt();
+		}
+		if (failure.get() != null) throw failure.get();
+	}
+
+	// Relative cost of describing a molecule: the fragments grow with the square of the heavy atoms and
+	// every ring adds alternative paths to the searches and symmetry classes. Only the order matters.
+	static long estimateCost(IAtomContainer molecule) {
+		int heavyAtoms = 0;
+		for (IAtom atom : molecule.atoms()) {
+			if (!"H".equals(atom.getSymbol())) heavyAtoms++;
+		}
+		// hydrogens add as many bonds as atoms, so they do not change the ring count
+		int rings = Math.max(0, molecule.getBondCount() - molecule.getAtomCount() + 1);
+		return (long) heavyAtoms * heavyAtoms * (4 + rings);
+	}
+
+	// stops the pool and wakes the readers and writers of all files, which then return
+	private void fail(Exception e) {
+		if (!failure.compareAndSet(null, e)) return;
+		workers.shutdownNow();
+		for (Thread thread : fileThreads) {
+			if (thread != Thread.currentThread()) thread.interrupt();
+		}
+	}
+
+	// Parses one molecule on the pool. A failure is kept for the describe task of the molecule,
+	// so that it is reported at its place in the output.
+	private static class ReadTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Callable<Molecule> read;
+		private Molecule molecule;
+		private Exception failure;
+
+		ReadTask(Callable<Molecule> read) {
+			this.read = read;
+		}
+
+		protected void compute() {
+			try {
+				molecule = read.call();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+	}
+
+	// Describes one parsed molecule on the pool, the writer takes the result or the failure with result()
+	private class DescribeTask extends RecursiveAction implements Callable<Molecule> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ReadTask read;
+		private final int moleculeIndex;
+		private MoleculeKU moleculeKU;
+		private Exception failure;
+
+		DescribeTask(ReadTask read, int moleculeIndex) {
+			this.read = read;
+			this.moleculeIndex = moleculeIndex;
+		}
+
+		// the parsed molecule, as MoleculePipeline reads it
+		public Molecule call() throws Exception {
+			if (read.failure != null) throw read.failure;
+			return read.molecule;
+		}
+
+		protected void compute() {
+			try {
+				moleculeKU = pipeline.describe(this, moleculeIndex);
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		// waits for the molecule, the pool may have been stopped by a failure elsewhere
+		MoleculeKU result() throws Exception {
+			while (!isDone()) {
+				if (Thread.interrupted()) throw new InterruptedException();
+				quietlyJoin();
+			}
+			if (isCancelled()) throw new InterruptedException();
+			if (failure != null) throw failure;
+			return moleculeKU;
+		}
+
+	}
+
+	private class ReaderThread extends Thread {
+
+		private final MoleculeSource source;
+		private final BlockingQueue<DescribeTask> pending;
+		private int nextIndex;
+
+		ReaderThread(MoleculeSource source, BlockingQueue<DescribeTask> pending, int firstIndex) {
+			super("molecule-reader");
+			setDaemon(true);
+			this.source = source;
+			this.pending = pending;
+			this.nextIndex = firstIndex;
+		}
+
+		public void run() {
+			try {
+				try {
+					List<Callable<Molecule>> reads = new ArrayList<Callable<Molecule>>();
+					while (true) {
+						reads.clear();
+						while (reads.size() < window && source.hasNext()) reads.add(source.next());
+						if (reads.isEmpty()) break;
+						submitWindow(reads);
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					fail(e);
+				}
+				pending.put(endOfInput);
+			} catch (InterruptedException e) {
+				// the writer has stopped
+			}
+		}
+
+		private void submitWindow(List<Callable<Molecule>> reads) throws InterruptedException {
+			int size = reads.size();
+			ReadTask[] parsed = new ReadTask[size];
+			for (int position = 0; position < size; position++) {
+				parsed[position] = new ReadTask(reads.get(position));
+				workers.execute(parsed[position]);
+			}
+			final long[] costs = new long[size];
+			Integer[] order = new Integer[size];
+			for (int position = 0; position < size; position++) {
+				parsed[position].quietlyJoin();
+				if (parsed[position].isCancelled()) throw new InterruptedException();
+				// a molecule that could not be read fails as soon as it runs
+				costs[position] = (parsed[position].failure == null) ? estimateCost(parsed[position].molecule) : Long.MAX_VALUE;
+				order[position] = position;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer position0, Integer position1) {
+					return (costs[position0] < costs[position1]) ? 1 : (costs[position0] > costs[position1]) ? -1 : 0;
+				}
+			});
+			DescribeTask[] results = new DescribeTask[size];
+			for (int position : order) {
+				results[position] = new DescribeTask(parsed[position], nextIndex + position);
+				workers.execute(results[position]);
+			}
+			nextIndex += size;
+			for (DescribeTask result : results) pending.put(result);
+		}
+
+	}
+
+	private class WriterThread extends Thread {
+
+		private final DescriptorWriter writer;
+		private final BlockingQueue<DescribeTask> pending;
+		private int moleculeIndex;
+
+		WriterThread(DescriptorWriter writer, BlockingQueue<DescribeTask> pending, int firstIndex) {
+			super("molecule-writer");
+			setDaemon(true);
+			this.writer = writer;
+			this.pending = pending;
+			this.moleculeIndex = firstIndex;
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					DescribeTask result = pending.take();
+					if (result == endOfInput) break;
+					pipeline.write(writer, result.result(), moleculeIndex++);
+				}
+			} catch (InterruptedException e) {
+				// a file has failed
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,45 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.openscience.cdk.Molecule;
+
+// The molecules of one input file, in file order.
+// next() does not read the molecule, it gives a job that does, so that a worker thread can parse it.
+// A record that cannot be read gives a job that throws, so that it is skipped like a molecule that fails.
+// hasNext() and next() are called from one thread, the jobs may run on any thread.
+public interface MoleculeSource {
+
+	boolean hasNext() throws IOException;
+
+	Callable<Molecule> next() throws IOException;
+
+	void close() throws IOException;
+
+}
@@ -0,0 +1,130 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+// Neighbour lists of a molecular graph in compressed sparse row (CSR) form.
+// The neighbours of atom i are neighbours[offsets[i]] .. neighbours[offsets[i+1]-1], as atom indices,
+// and bonds[] holds the index of the bond to each of those neighbours.
+public class NeighbourList {
+
+	private final int atomCount;
+	private final int[] offsets;
+	private final int[] neighbours;
+	private final int[] bonds;
+	// the two atom indices of each bond, by bond index
+	private final int[] bondAtom0;
+	private final int[] bondAtom1;
+
+	public NeighbourList(int atomCount, int[] offsets, int[] neighbours, int[] bonds, int[] bondAtom0, int[] bondAtom1) {
+		this.atomCount = atomCount;
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+		this.bonds = bonds;
+		this.bondAtom0 = bondAtom0;
+		this.bondAtom1 = bondAtom1;
+	}
+
+	// every bond connects both of its atoms, like AdjacencyMatrix.getMatrix
+	public static NeighbourList fromContainer(IAtomContainer molecule) {
+		int atomCount = molecule.getAtomCount();
+		int bondCount = molecule.getBondCount();
+		int[] bondAtom0 = new int[bondCount];
+		int[] bondAtom1 = new int[bondCount];
+		for (int bondIndex = 0; bondIndex < bondCount; bondIndex++) {
+			IBond bond = molecule.getBond(bondIndex);
+			bondAtom0[bondIndex] = molecule.getAtomNumber(bond.getAtom(0));
+			bondAtom1[bondIndex] = molecule.getAtomNumber(bond.getAtom(1));
+		}
+		return fromBonds(atomCount, bondAtom0, bondAtom1);
+	}
+
+	// bondAtom0/bondAtom1 hold the two atom indices of each bond
+	public static NeighbourList fromBonds(int atomCount, int[] bondAtom0, int[] bondAtom1) {
+		int[] degree = new int[atomCount];
+		for (int bondIndex = 0; bondIndex < bondAtom0.length; bondIndex++) {
+			degree[bondAtom0[bondIndex]]++;
+			degree[bondAtom1[bondIndex]]++;
+		}
+		int[] offsets = new int[atomCount + 1];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			offsets[atomIndex + 1] = offsets[atomIndex] + degree[atomIndex];
+		}
+		int[] fill = new int[atomCount];
+		System.arraycopy(offsets, 0, fill, 0, atomCount);
+		int[] neighbours = new int[offsets[atomCount]];
+		int[] bonds = new int[offsets[atomCount]];
+		for (int bondIndex = 0; bondIndex < bondAtom0.length; bondIndex++) {
+			bonds[fill[bondAtom0[bondIndex]]] = bondIndex;
+			neighbours[fill[bondAtom0[bondIndex]]++] = bondAtom1[bondIndex];
+			bonds[fill[bondAtom1[bondIndex]]] = bondIndex;
+			neighbours[fill[bondAtom1[bondIndex]]++] = bondAtom0[bondIndex];
+		}
+		return new NeighbourList(atomCount, offsets, neighbours, bonds, bondAtom0, bondAtom1);
+	}
+
+	public int getAtomCount() {
+		return atomCount;
+	}
+
+	// index of the first neighbour of atomIndex
+	public int start(int atomIndex) {
+		return offsets[atomIndex];
+	}
+
+	// index after the last neighbour of atomIndex
+	public int end(int atomIndex) {
+		return offsets[atomIndex + 1];
+	}
+
+	public int neighbour(int position) {
+		return neighbours[position];
+	}
+
+	// index of the bond to the neighbour at position
+	public int bond(int position) {
+		return bonds[position];
+	}
+
+	public int getBondCount() {
+		return bondAtom0.length;
+	}
+
+	public int bondAtom0(int bondIndex) {
+		return bondAtom0[bondIndex];
+	}
+
+	public int bondAtom1(int bondIndex) {
+		return bondAtom1[bondIndex];
+	}
+
+	public int degree(int atomIndex) {
+		return offsets[atomIndex + 1] - offsets[atomIndex];
+	}
+
+}
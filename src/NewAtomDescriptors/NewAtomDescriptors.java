@@ -26,15 +26,13 @@ package NewAtomDescriptors;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.DecimalFormatSymbols;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.lang.System;
 
@@ -44,20 +42,16 @@ import org.openscience.cdk.Bond;
 import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.DefaultChemObjectBuilder;
 import org.openscience.cdk.Molecule;
-import org.openscience.cdk.aromaticity.CDKHueckelAromaticityDetector;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IBond;
 import org.openscience.cdk.interfaces.IMolecule;
 import org.openscience.cdk.io.SMILESWriter;
 import org.openscience.cdk.io.iterator.DefaultIteratingChemObjectReader;
-import org.openscience.cdk.io.iterator.IteratingMDLReader;
 import org.openscience.cdk.io.iterator.IteratingSMILESReader;
 import org.openscience.cdk.smiles.SmilesGenerator;
-import org.openscience.cdk.tools.CDKHydrogenAdder;
-import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 
-import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+import NewAtomDescriptors.DescriptorSettings.SymmetryMode;
 
 public class NewAtomDescriptors {
 
@@ -66,45 +60,57 @@ public class NewAtomDescriptors {
 
 		// Check that the arguments (molecule files) have been given
 		if (arguments.length < 1){
-			System.out.println("Wrong number of arguments!" + '\n' + "Usage: java -jar 2DSASA.jar <One or more moleculeFiles>");
+			System.out.println("Wrong number of arguments!" + '\n' + RunOptions.USAGE);
 			System.exit(0);			
 		}
 		
+		RunOptions options = null;
+		try {
+			options = RunOptions.parse(arguments);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage() + '\n' + RunOptions.USAGE);
+			System.exit(1);
+		}
+		if (options.isServe()) {
+			Locale.setDefault(new Locale("en", "US"));
+			AtomDescriptorEngine engine = new AtomDescriptorEngine(options.getSettings(), options.getThreads());
+			new DescriptorServer(engine, options.getBatchSize()).run(System.in, System.out);
+			engine.close();
+			return;
+		}
 	    String[] filenames;
-    	filenames = arguments;
+    	filenames = options.getFilenames();
+		MoleculePipeline pipeline = new MoleculePipeline(options.getThreads(), options.getSettings(), options.getProgressSeconds());
+		if (options.getQuarantine() != null) pipeline.setQuarantine(new QuarantineWriter(new File(options.getQuarantine())));
 	    
 	    File inputFile;
 		String infileName;
 		
 		//to get the decimal signs as dot, even when running on other systems
 		Locale.setDefault(new Locale("en", "US"));
-		//we wamt three digits after comma for SASA
-		NumberFormat formatter = new DecimalFormat("###.###");
 
 		// Iterate over all molecule infiles (it can be a single file)
+		// when they are scheduled together they are only opened here and described after the loop
 		int moleculeFileNr;
-		int highestMoleculeID = 1;
 		int moleculeIndex = 0;
+		List<MoleculeScheduler.InputFile> scheduledFiles = new ArrayList<MoleculeScheduler.InputFile>();
 		for (moleculeFileNr = 0; moleculeFileNr < filenames.length; moleculeFileNr++) {
 			
 			infileName = filenames[moleculeFileNr];	
 			inputFile = new File(infileName);
 
-			//initiate csv output
-			// DecimalFormat
-			DecimalFormat twoDecimalFormat = new DecimalFormat("#.##");
-			twoDecimalFormat.setDecimalSeparatorAlwaysShown(false);
-			DecimalFormatSymbols decformat = new DecimalFormatSymbols();
-			decformat.setDecimalSeparator('.');
-			decformat.setGroupingSeparator(',');
-			twoDecimalFormat.setMaximumFractionDigits(2);
-			twoDecimalFormat.setDecimalFormatSymbols(decformat);
-
-		    PrintWriter outfile = null;
+			//initiate output, csv text or binary columns
+			DescriptorWriter writer = null;
 		    try {
-				outfile = new PrintWriter(new BufferedWriter(new FileWriter(infileName + "_newatomdescriptors.csv")));
+		    	if (options.getFormat() == RunOptions.OutputFormat.COLUMNAR) {
+		    		writer = new ColumnarDescriptorWriter(new File(infileName + "_newatomdescriptors.afbd"), options.getSettings().getColumns());
+		    	}
+		    	else {
+		    		//DescriptorRowWriter buffers the rows itself
+		    		writer = new DescriptorCsvWriter(new FileWriter(infileName + "_newatomdescriptors.csv"), options.getSettings().getColumns());
+		    	}
 			} catch (IOException e) {
-				System.out.println("Could not create CSV outfile");
+				System.out.println("Could not create outfile");
 				e.printStackTrace();
 			}
 			
@@ -113,137 +119,181 @@ public class NewAtomDescriptors {
 			    System.exit(1);
 			}
 
-			DefaultIteratingChemObjectReader reader = null;
-			if (infileName.endsWith(".sdf")) {  
-				reader = (IteratingMDLReader) new IteratingMDLReader(new FileInputStream(infileName), DefaultChemObjectBuilder.getInstance());
+			MoleculeSource source = null;
+			int start = options.getStart() - 1;
+			if (infileName.endsWith(".sdf") && options.isMappedSdf()) {
+				source = new MappedSdfMoleculeSource(inputFile, options.getThreads(), start, options.getCount());
+			}
+			else if (infileName.endsWith(".sdf")) {  
+				source = new StreamSdfMoleculeSource(new FileReader(infileName), start, options.getCount());
 			}
 			else if (infileName.endsWith(".smi")){
-				reader = new IteratingSMILESReader(new FileReader(infileName), DefaultChemObjectBuilder.getInstance());
+				DefaultIteratingChemObjectReader<?> reader = new IteratingSMILESReader(new FileReader(infileName), DefaultChemObjectBuilder.getInstance());
+				source = new ReaderMoleculeSource(reader, start, options.getCount());
 			}
 			else {
 				System.err.println("Filetype not supported (only .sdf and .smi are supported): " + infileName);
 			    System.exit(1);
 			}
-			Molecule mol=null;
-			IAtomContainer [] atom2endofmolMols = null;
-			IAtomContainer [] atom2endofbranchMols = null;
-			
-			int moleculePrintIndex = 0;
-			//iterate molecules
-			while (reader.hasNext()){
-	
-				mol=(Molecule)reader.next();
-				moleculeIndex ++;
-				moleculePrintIndex++;
-				
-				
-				if (moleculeIndex == 1){
-					outfile.println("Molecule,Atom,Mol_bonds2end,Mol_rotablebonds,Mol_AtomCount,Mol_TPSA,Mol_TPSAperAtom,Mol_Volume,Mol_HAcount,Mol_HDcount," +
-					        "Mol_PIsystemSize," +
-					        "Branch_bonds2end,Branch_rotablebonds,Branch_AtomCount,Branch_TPSA,Branch_TPSAperAtom,Branch_Volume,Branch_HAcount," + 
-					        "Branch_HDcount,Branch_PIsystemSize");
-				}
-
-				MoleculeKU moleculeKU;
-				IAtomContainer iAtomContainer;	
-				CDKHydrogenAdder adder = CDKHydrogenAdder.getInstance(DefaultChemObjectBuilder.getInstance());				
-
-				iAtomContainer = AtomContainerManipulator.removeHydrogens(mol);
-					
-				AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(iAtomContainer);
-
-				adder.addImplicitHydrogens(iAtomContainer);
-				CDKHueckelAromaticityDetector.detectAromaticity(iAtomContainer); 	
-						
-				moleculeKU = new MoleculeKU(iAtomContainer);	
-				moleculeKU.setID(Integer.toString(highestMoleculeID));
-				
-				System.out.println("\n ************** Molecule " + (moleculeIndex) + " **************");
-				
-				moleculeKU.calculateRelativeSpan();
-				moleculeKU.setSymmetryNumbers();
-				
-				int [] EndOfMoleculeAtoms = moleculeKU.findAtomsatEndOfMolecule();
-				
-				int [] EndOfBranchAtoms = moleculeKU.findAtomsatEndOfBranch();
-				
-				String prefix = "Mol";
-				atom2endofmolMols = moleculeKU.getAtoms2EndOfMolMolecules(EndOfMoleculeAtoms,prefix);
-				prefix = "Branch";
-				atom2endofbranchMols = moleculeKU.getAtoms2EndOfMolMolecules(EndOfBranchAtoms,prefix);
-				
-				//list of properties that are set for each fragment in atom2endofmolMols:
-				//RotableBondCount (my own implementation, not default CDK, also excludes amide, thioamide and sulfonamide bonds)
-				//BondsToEndofMol
-				//AtomCount
-				//TPSA (topological polar surface area)
-				//TPSAperAtom
-				//Volume (from atom types and bond types)
-				//HAcount (hydrogen bond acceptor count)
-				//HDcount (hydrogen bond donor count)
-				//PISystemSize (largest pi system, using atom counts)
-				
-				
-				//below print output in any way you'd like
-				//here is a simple example of printing all molecular properties in one go
-				/*
-				int testmol;
-				for (testmol = 0; testmol < atom2endofmolMols.length; testmol++){
-					System.out.println("Fragmentatom " + (testmol+1));
-					System.out.println(atom2endofmolMols[testmol].getProperties());
-					System.out.println(atom2endofbranchMols[testmol].getProperties());
-				}
-				*/
-				
-				Atom currentAtom;
-				String currentAtomType;
-
-				for(int atomIndex = 0; atomIndex < moleculeKU.getAtomCount()  ; atomIndex++ ){
-					
-					currentAtom = (Atom) moleculeKU.getAtom(atomIndex);
-
-					// Match atom symbol
-					currentAtomType = currentAtom.getSymbol();
-					
-						
-						int nonsymmetricatom = 0;
-						if (NEWDESC_PROPERTY.IsSymmetric.get(currentAtom) != null) nonsymmetricatom = NEWDESC_PROPERTY.IsSymmetric.get(currentAtom).intValue(); 
-						if(nonsymmetricatom != 1) {
-						
-							outfile.print((moleculeIndex) + "," + currentAtom.getSymbol() + "."+ currentAtom.getID());				
-							//Atom2endofMol descriptors
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_BondsToEnd.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_RotableBondCount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_AtomCount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_TPSA.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_TPSAperAtom.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_Volume.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_HAcount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_HDcount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Mol_PIsystemSize.get(currentAtom)));
-							//Atom2endofBranch descriptors
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_BondsToEnd.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_RotableBondCount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_AtomCount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_TPSA.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_TPSAperAtom.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_Volume.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_HAcount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_HDcount.get(currentAtom)));
-							outfile.print("," + twoDecimalFormat.format(NEWDESC_PROPERTY.Branch_PIsystemSize.get(currentAtom)));
-							outfile.print("\n");
-						}
-				} 
 
+			//skipped molecules keep their numbers, so the output of slices can be joined
+			if (options.isSchedule()) {
+				scheduledFiles.add(new MoleculeScheduler.InputFile(source, writer, start));
+				continue;
 			}
-			outfile.close();
+			moleculeIndex = pipeline.run(source, writer, moleculeIndex + start);
+			source.close();
+			writer.close();
+		}
+		if (options.isSchedule()) {
+			new MoleculeScheduler(pipeline, options.getThreads(), options.getWindow()).run(scheduledFiles);
+			for (MoleculeScheduler.InputFile scheduledFile : scheduledFiles) scheduledFile.close();
+		}
+		pipeline.getQuarantine().close();
+		System.out.print(pipeline.getQuarantine().summary());
+		if (options.getSettings().getFragmentCache() != null) {
+			System.out.println(options.getSettings().getFragmentCache());
+		}
+		if (options.getSettings().getMoleculeCache() != null) {
+			System.out.println(options.getSettings().getMoleculeCache());
+		}
+		if (options.isStats()) {
+			System.out.print(options.getSettings().getStats().report());
 		}
 		
 
 	}
 	
-	
-}
+	// Standardises one molecule read from file and computes all its atom descriptors.
+	// Safe to call from several threads at once, each call works on its own molecule.
+	public static MoleculeKU describeMolecule(IAtomContainer mol, DescriptorSettings settings) throws Exception {
+		return describeMolecule(mol, settings, new AtomDescriptorResult());
+	}
 
+	// As above, with the descriptors stored in result, which may be reused from an earlier molecule
+	public static MoleculeKU describeMolecule(IAtomContainer mol, DescriptorSettings settings, AtomDescriptorResult result) throws Exception {
 
+		int highestMoleculeID = 1;
+		IAtomContainer [] atom2endofmolMols = null;
+		IAtomContainer [] atom2endofbranchMols = null;
 
+		MoleculeKU moleculeKU;
+		PipelineStats stats = settings.getStats();
+		long budgetStart = System.nanoTime();
+		IAtomContainer iAtomContainer = standardise(mol, stats);
+		//the budgets, see BudgetExceededException
+		if (settings.getMaxAtoms() > 0 && iAtomContainer.getAtomCount() > settings.getMaxAtoms()) {
+			throw new BudgetExceededException(iAtomContainer.getAtomCount() + " heavy atoms, over the budget of " + settings.getMaxAtoms());
+		}
+				
+		moleculeKU = new MoleculeKU(iAtomContainer, settings, result);	
+		moleculeKU.setID(Integer.toString(highestMoleculeID));
+		if (settings.getMaxSeconds() > 0) moleculeKU.setDeadline(budgetStart, settings.getMaxSeconds());
+		moleculeKU.checkDeadline();
+		
+		//a duplicate of a molecule described before gets its descriptors, in its own atom order
+		MoleculeResultCache moleculeCache = settings.getMoleculeCache();
+		CanonicalMolecule canonical = null;
+		MoleculeResultCache.Entry cached = null;
+		long start;
+		if (moleculeCache != null) {
+			start = stats.start();
+			canonical = CanonicalMolecule.of(moleculeKU);
+			stats.end(PipelineStats.Stage.CANONICAL_LABELLING, start);
+			cached = moleculeCache.get(canonical.getKey());
+			if (cached != null) stats.count(PipelineStats.Counter.DUPLICATES, 1);
+			if (cached != null && !settings.isVerifyMoleculeCache()) {
+				cached.copyTo(result, canonical);
+				if (settings.getSymmetryMode() == SymmetryMode.REPRESENTATIVES) result.markSymmetricAtoms();
+				if (settings.isAtomProperties()) result.copyToAtomProperties(moleculeKU);
+				moleculeKU.releaseTopology();
+				return moleculeKU;
+			}
+		}
+		
+		start = stats.start();
+		moleculeKU.calculateRelativeSpan();
+		stats.end(PipelineStats.Stage.RELATIVE_SPAN, start);
+		moleculeKU.checkDeadline();
+		start = stats.start();
+		moleculeKU.setSymmetryNumbers();
+		stats.end(PipelineStats.Stage.SYMMETRY, start);
+		moleculeKU.checkDeadline();
+		
+		start = stats.start();
+		int [] EndOfMoleculeAtoms = moleculeKU.findAtomsatEndOfMolecule();
+		stats.end(PipelineStats.Stage.END_OF_MOLECULE, start);
+		
+		//a pass is skipped when none of its columns is written
+		String prefix = "Mol";
+		if (settings.isFusedFragments() && settings.isComputed("Mol") && settings.isComputed("Branch")) {
+			start = stats.start();
+			int [] EndOfBranchAtoms = moleculeKU.findAtomsatEndOfBranch();
+			stats.end(PipelineStats.Stage.END_OF_BRANCH, start);
+			start = stats.start();
+			IAtomContainer[][] fragmentMols = moleculeKU.getFusedFragmentMolecules(EndOfMoleculeAtoms, EndOfBranchAtoms);
+			stats.end(PipelineStats.Stage.FUSED_FRAGMENTS, start);
+			atom2endofmolMols = fragmentMols[0];
+			atom2endofbranchMols = fragmentMols[1];
+		}
+		else if (settings.isComputed(prefix)) {
+			start = stats.start();
+			atom2endofmolMols = moleculeKU.getAtoms2EndOfMolMolecules(EndOfMoleculeAtoms,prefix);
+			stats.end(PipelineStats.Stage.MOL_FRAGMENTS, start);
+		}
+		moleculeKU.checkDeadline();
+		prefix = "Branch";
+		if (!settings.isFusedFragments() && settings.isComputed(prefix)) {
+			start = stats.start();
+			int [] EndOfBranchAtoms = moleculeKU.findAtomsatEndOfBranch();
+			stats.end(PipelineStats.Stage.END_OF_BRANCH, start);
+			start = stats.start();
+			atom2endofbranchMols = moleculeKU.getAtoms2EndOfMolMolecules(EndOfBranchAtoms,prefix);
+			stats.end(PipelineStats.Stage.BRANCH_FRAGMENTS, start);
+		}
+		
+		//list of properties that are set for each fragment in atom2endofmolMols (with settings.setAtomProperties(true)):
+		//RotableBondCount (my own implementation, not default CDK, also excludes amide, thioamide and sulfonamide bonds)
+		//BondsToEndofMol
+		//AtomCount
+		//TPSA (topological polar surface area)
+		//TPSAperAtom
+		//Volume (from atom types and bond types)
+		//HAcount (hydrogen bond acceptor count)
+		//HDcount (hydrogen bond donor count)
+		//PISystemSize (largest pi system, using atom counts)
+		
+		
+		//the atom descriptors are in moleculeKU.getResult() and written by DescriptorCsvWriter, print output in any other way you'd like
+		//here is a simple example of printing all molecular properties in one go
+		/*
+		int testmol;
+		for (testmol = 0; testmol < atom2endofmolMols.length; testmol++){
+			System.out.println("Fragmentatom " + (testmol+1));
+			System.out.println(atom2endofmolMols[testmol].getProperties());
+			System.out.println(atom2endofbranchMols[testmol].getProperties());
+		}
+		*/
+
+		if (cached != null) {
+			AtomDescriptorResult cachedResult = new AtomDescriptorResult();
+			cachedResult.reset(result.getAtomCount());
+			cached.copyTo(cachedResult, canonical);
+			if (settings.getSymmetryMode() == SymmetryMode.REPRESENTATIVES) cachedResult.markSymmetricAtoms();
+			//the duplicate's own values are written
+			moleculeCache.verified(result.differences(cachedResult, 1e-6));
+		}
+		else if (moleculeCache != null) moleculeCache.put(canonical, result);
+		if (settings.isAtomProperties()) result.copyToAtomProperties(moleculeKU);
+		moleculeKU.releaseTopology();
+		return moleculeKU;
+	}
+
+	// Removes explicit hydrogens, perceives atom types, adds implicit hydrogens and detects aromaticity.
+	// Returns a new container, the molecule read from file is not changed.
+	// Done by the Standardiser of the calling thread, which keeps its atom type matcher and hydrogen adder.
+	public static IAtomContainer standardise(IAtomContainer mol, PipelineStats stats) throws Exception {
+		return Standardiser.forThread().standardise(mol, stats);
+	}
+	
+}
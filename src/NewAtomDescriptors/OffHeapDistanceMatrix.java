@@ -0,0 +1,75 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Distances in a direct buffer outside the Java heap, one byte, short or int per atom pair as in the
+// packed heap matrices, so that very large molecules do not fill the heap (and keep the collector busy).
+// The buffer is freed when the matrix is collected.
+// A direct ByteBuffer rather than a MemorySegment, which needs Java 22 (or preview flags before it),
+// while the program runs on Java 8; one buffer holds up to 2 GB, about 46,000 atoms with byte cells.
+public class OffHeapDistanceMatrix extends FilledDistanceMatrix {
+
+	private final ByteBuffer distances;
+	private final int cellSize;
+
+	public OffHeapDistanceMatrix(int atomCount, int cellSize) {
+		super(atomCount);
+		long size = (long) atomCount * atomCount * cellSize;
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A distance matrix of " + atomCount + " atoms does not fit in one buffer, use lazy distance storage");
+		}
+		this.cellSize = cellSize;
+		distances = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+	}
+
+	void setRow(int row, int[] rowDistances, int offset) {
+		int start = row * atomCount;
+		for (int column = 0; column < atomCount; column++) {
+			int distance = rowDistances[offset + column];
+			int index = start + column;
+			if (cellSize == 1) distances.put(index, (byte) ((distance == UNREACHABLE) ? ByteDistanceMatrix.UNREACHABLE_CELL : distance));
+			else if (cellSize == 2) distances.putChar(index * 2, (char) ((distance == UNREACHABLE) ? ShortDistanceMatrix.UNREACHABLE_CELL : distance));
+			else distances.putInt(index * 4, distance);
+		}
+	}
+
+	public int getDistance(int atom1, int atom2) {
+		int index = atom1 * atomCount + atom2;
+		if (cellSize == 1) {
+			int distance = distances.get(index) & 0xFF;
+			return (distance == ByteDistanceMatrix.UNREACHABLE_CELL) ? UNREACHABLE : distance;
+		}
+		if (cellSize == 2) {
+			int distance = distances.getChar(index * 2);
+			return (distance == ShortDistanceMatrix.UNREACHABLE_CELL) ? UNREACHABLE : distance;
+		}
+		return distances.getInt(index * 4);
+	}
+
+}
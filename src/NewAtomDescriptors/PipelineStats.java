@@ -0,0 +1,236 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Where the time goes: a latency histogram per stage, run counters and the slowest molecules.
+// Stages that call startAllocation and endAllocation also get the bytes allocated by their thread,
+// where the JVM can tell (com.sun.management.ThreadMXBean).
+// Every finished stage and every described molecule is also a Java Flight Recorder event
+// (see FlightRecorderEvents) when the JVM has Flight Recorder.
+// Thread safe, all workers record into the one instance in DescriptorSettings.
+public class PipelineStats {
+
+	public enum Stage {
+		REMOVE_HYDROGENS("removeHydrogens"),
+		ATOM_TYPES("percieveAtomTypesAndConfigureAtoms"),
+		ADD_HYDROGENS("addImplicitHydrogens"),
+		AROMATICITY("detectAromaticity"),
+		RELATIVE_SPAN("calculateRelativeSpan"),
+		SYMMETRY("setSymmetryNumbers"),
+		END_OF_MOLECULE("findAtomsatEndOfMolecule"),
+		END_OF_BRANCH("findAtomsatEndOfBranch"),
+		MOL_FRAGMENTS("getAtoms2EndOfMolMolecules Mol"),
+		BRANCH_FRAGMENTS("getAtoms2EndOfMolMolecules Branch"),
+		FUSED_FRAGMENTS("getFusedFragmentMolecules"),
+		FRAGMENT_BUILD("fragment container"),
+		TPSA("TPSADescriptor"),
+		VOLUME("VABCDescriptor"),
+		HBOND_ACCEPTORS("HBondAcceptorCountDescriptor"),
+		HBOND_DONORS("HBondDonorCountDescriptor"),
+		PI_SYSTEM("LargestPiSystemDescriptor"),
+		LOGP("MannholdLogPDescriptor"),
+		NATIVE_DESCRIPTORS("FragmentDescriptorKernel"),
+		CANONICAL_LABELLING("CanonicalMolecule"),
+		WRITE("write");
+
+		private final String label;
+
+		private Stage(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	public enum Counter {
+		MOLECULES, ATOMS, FRAGMENTS, ALTERNATIVES, DUPLICATES, SHARED_FRAGMENTS, SKIPPED
+	}
+
+	// FlightRecorderEvents is only loaded when this is true, on Java 8 there is no jdk.jfr
+	private static final boolean FLIGHT_RECORDER = hasFlightRecorder();
+
+	// log-linear histogram buckets: each power of two is split in four, so a bucket is within 25% of its values
+	private static final int BUCKETS = 256;
+	private static final int SLOWEST = 10;
+
+	private final AtomicLongArray histograms = new AtomicLongArray(Stage.values().length * BUCKETS);
+	private final AtomicLongArray stageCounts = new AtomicLongArray(Stage.values().length);
+	private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+	private final AtomicLongArray stageMaxima = new AtomicLongArray(Stage.values().length);
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+	private final AtomicLongArray stageAllocations = new AtomicLongArray(Stage.values().length);
+	private final AtomicLongArray stageBytes = new AtomicLongArray(Stage.values().length);
+	// null if the allocated bytes cannot be measured
+	private final com.sun.management.ThreadMXBean allocationBean;
+	// {nanos, moleculeIndex, atomCount, alternativeCount}, the fastest of the slowest first
+	private final PriorityQueue<long[]> slowest = new PriorityQueue<long[]>(SLOWEST + 1, new Comparator<long[]>() {
+		public int compare(long[] molecule0, long[] molecule1) {
+			return Long.compare(molecule0[0], molecule1[0]);
+		}
+	});
+
+	public PipelineStats() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		boolean allocation = threadBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported();
+		if (allocation) ((com.sun.management.ThreadMXBean) threadBean).setThreadAllocatedMemoryEnabled(true);
+		allocationBean = (allocation) ? (com.sun.management.ThreadMXBean) threadBean : null;
+	}
+
+	// the start time to give to end()
+	public long start() {
+		return System.nanoTime();
+	}
+
+	public void end(Stage stage, long start) {
+		long nanos = System.nanoTime() - start;
+		int stageIndex = stage.ordinal();
+		histograms.incrementAndGet(stageIndex * BUCKETS + bucket(nanos));
+		stageCounts.incrementAndGet(stageIndex);
+		stageNanos.addAndGet(stageIndex, nanos);
+		long maximum;
+		while (nanos > (maximum = stageMaxima.get(stageIndex)) && !stageMaxima.compareAndSet(stageIndex, maximum, nanos));
+
+		if (FLIGHT_RECORDER) FlightRecorderEvents.stage(stage.getLabel(), nanos);
+	}
+
+	// the bytes allocated by this thread so far, to give to endAllocation(), -1 if they cannot be measured
+	public long startAllocation() {
+		if (allocationBean == null) return -1;
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public void endAllocation(Stage stage, long startBytes) {
+		if (startBytes < 0) return;
+		long bytes = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+		stageAllocations.incrementAndGet(stage.ordinal());
+		stageBytes.addAndGet(stage.ordinal(), bytes);
+	}
+
+	public void count(Counter counter, long amount) {
+		counters.addAndGet(counter.ordinal(), amount);
+	}
+
+	public long getCount(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+
+	// a described molecule, nanos is the time from reading to descriptors
+	public void molecule(int moleculeIndex, int atomCount, int alternativeCount, long nanos) {
+		count(Counter.MOLECULES, 1);
+		count(Counter.ATOMS, atomCount);
+		synchronized (slowest) {
+			if (slowest.size() < SLOWEST || slowest.peek()[0] < nanos) {
+				slowest.add(new long[] {nanos, moleculeIndex, atomCount, alternativeCount});
+				if (slowest.size() > SLOWEST) slowest.poll();
+			}
+		}
+
+		if (FLIGHT_RECORDER) FlightRecorderEvents.molecule(moleculeIndex, atomCount, alternativeCount, nanos);
+	}
+
+	// the end-of-run report
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-36s %10s %12s %10s %10s %10s %10s%n", "stage", "count", "total ms", "mean us", "p50 us", "p99 us", "max us"));
+		for (Stage stage : Stage.values()) {
+			int stageIndex = stage.ordinal();
+			long count = stageCounts.get(stageIndex);
+			if (count == 0) continue;
+			report.append(String.format("%-36s %10d %12.1f %10.1f %10.1f %10.1f %10.1f%n", stage.getLabel(), count,
+					stageNanos.get(stageIndex) / 1e6, stageNanos.get(stageIndex) / 1e3 / count,
+					percentile(stageIndex, count, 0.5) / 1e3, percentile(stageIndex, count, 0.99) / 1e3,
+					stageMaxima.get(stageIndex) / 1e3));
+		}
+		for (Stage stage : Stage.values()) {
+			long count = stageAllocations.get(stage.ordinal());
+			if (count == 0) continue;
+			report.append(String.format("%-36s %10d %12.1f KB allocated per call%n", stage.getLabel(), count, stageBytes.get(stage.ordinal()) / 1024.0 / count));
+		}
+		for (Counter counter : Counter.values()) {
+			report.append(String.format("%-36s %10d%n", counter.name().toLowerCase(), counters.get(counter.ordinal())));
+		}
+		List<long[]> molecules;
+		synchronized (slowest) {
+			molecules = new ArrayList<long[]>(slowest);
+		}
+		Collections.sort(molecules, Collections.reverseOrder(slowest.comparator()));
+		report.append("slowest molecules:").append(String.format("%n"));
+		for (long[] molecule : molecules) {
+			report.append(String.format("  molecule %d, %d atoms, %d alternatives, %.1f ms%n", molecule[1], molecule[2], molecule[3], molecule[0] / 1e6));
+		}
+		return report.toString();
+	}
+
+	private static boolean hasFlightRecorder() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static int bucket(long nanos) {
+		if (nanos < 4) return (int) Math.max(nanos, 0);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int quarter = (int) (nanos >>> (exponent - 2)) & 3;
+		return 4 * (exponent - 1) + quarter;
+	}
+
+	// the largest duration in a bucket
+	private static long bucketLimit(int bucket) {
+		if (bucket < 4) return bucket;
+		int exponent = bucket / 4 + 1;
+		int quarter = bucket % 4;
+		return ((4L + quarter + 1) << (exponent - 2)) - 1;
+	}
+
+	// upper bound of the bucket holding the given fraction of the stage's durations
+	private long percentile(int stageIndex, long count, double fraction) {
+		long wanted = (long) Math.ceil(count * fraction);
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += histograms.get(stageIndex * BUCKETS + bucket);
+			if (seen >= wanted) return Math.min(bucketLimit(bucket), stageMaxima.get(stageIndex));
+		}
+		return stageMaxima.get(stageIndex);
+	}
+
+}
@@ -0,0 +1,141 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IMolecule;
+import org.openscience.cdk.io.MDLV2000Writer;
+import org.openscience.cdk.smiles.SmilesGenerator;
+
+// The molecules MoleculePipeline skipped, because they failed or went over a budget, with the reason.
+// They are counted for the summary at the end of the run and, if there is a quarantine file, written to it:
+// as SDF records with the properties Quarantine_molecule and Quarantine_reason if its name ends with .sdf,
+// else as lines "SMILES<tab>molecule index<tab>reason". A molecule that could not be parsed, or not
+// written as SMILES or molfile, is written without its structure.
+// Thread safe, skipped molecules are written in the order the pipeline writes its output.
+public class QuarantineWriter {
+
+	// skipped molecules listed by name in the summary, the rest are only counted
+	private static final int LISTED = 20;
+	private static final String EMPTY_MOLFILE = "\n  NewAtomDescriptors\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END\n";
+
+	private final File file;
+	private final Writer out;
+	private final boolean sdf;
+	private int failed = 0;
+	private int overBudget = 0;
+	private final List<String> listed = new ArrayList<String>();
+
+	// counts skipped molecules without writing them
+	public QuarantineWriter() {
+		this.file = null;
+		this.out = null;
+		this.sdf = false;
+	}
+
+	public QuarantineWriter(File file) throws IOException {
+		this.file = file;
+		this.out = new BufferedWriter(new FileWriter(file));
+		this.sdf = file.getName().endsWith(".sdf");
+	}
+
+	// true if skipped molecules are written to a file
+	public boolean hasFile() {
+		return file != null;
+	}
+
+	// molecule is the molecule as read, null if it could not be read
+	public synchronized void write(int moleculeIndex, IAtomContainer molecule, String reason, boolean budget) throws IOException {
+		if (budget) overBudget++;
+		else failed++;
+		if (listed.size() < LISTED) listed.add("molecule " + moleculeIndex + ": " + reason);
+		if (out == null) return;
+		String oneLineReason = reason.replace('\n', ' ').replace('\r', ' ');
+		if (sdf) {
+			out.write(molfile(molecule));
+			out.write("> <Quarantine_molecule>\n" + moleculeIndex + "\n\n");
+			out.write("> <Quarantine_reason>\n" + oneLineReason + "\n\n");
+			out.write("$$$$\n");
+		}
+		else {
+			out.write(smiles(molecule) + "\t" + moleculeIndex + "\t" + oneLineReason + "\n");
+		}
+	}
+
+	private static String molfile(IAtomContainer molecule) {
+		if (molecule == null) return EMPTY_MOLFILE;
+		try {
+			StringWriter molfile = new StringWriter();
+			MDLV2000Writer writer = new MDLV2000Writer(molfile);
+			writer.write(molecule);
+			writer.close();
+			String text = molfile.toString();
+			return text.endsWith("\n") ? text : text + "\n";
+		} catch (Exception e) {
+			return EMPTY_MOLFILE;
+		}
+	}
+
+	private static String smiles(IAtomContainer molecule) {
+		if (!(molecule instanceof IMolecule)) return "";
+		try {
+			return new SmilesGenerator().createSMILES((IMolecule) molecule);
+		} catch (Exception e) {
+			return "";
+		}
+	}
+
+	public synchronized int getSkipped() {
+		return failed + overBudget;
+	}
+
+	// the number of skipped molecules and the first of them with their reasons, empty if none was skipped
+	public synchronized String summary() {
+		if (getSkipped() == 0) return "";
+		String newline = System.getProperty("line.separator");
+		StringBuilder summary = new StringBuilder();
+		summary.append(getSkipped()).append(" molecules skipped (").append(failed).append(" failed, ").append(overBudget).append(" over budget)");
+		if (file != null) summary.append(", written to ").append(file.getPath());
+		summary.append(newline);
+		for (String molecule : listed) summary.append("  ").append(molecule).append(newline);
+		if (getSkipped() > listed.size()) summary.append("  ...").append(newline);
+		return summary.toString();
+	}
+
+	public synchronized void close() throws IOException {
+		if (out != null) out.close();
+	}
+
+}
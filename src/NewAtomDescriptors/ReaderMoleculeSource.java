@@ -0,0 +1,115 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.openscience.cdk.Molecule;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.io.iterator.DefaultIteratingChemObjectReader;
+
+// Molecules from a CDK iterating reader (SMILES files).
+// The reader parses each molecule in hasNext() or next(), the jobs only hand it over. A record the reader
+// fails on gives a job that throws, so that the pipeline skips it like a molecule that could not be described
+// and goes on with the next record (the iterating readers take in the whole record before they parse it).
+// The first start molecules are read and skipped, at most count molecules are returned.
+public class ReaderMoleculeSource implements MoleculeSource {
+
+	private final DefaultIteratingChemObjectReader<?> reader;
+	private int skip;
+	private long remaining;
+	// records taken from the reader, and the failure of the last one if the reader failed on it in hasNext()
+	private int records = 0;
+	private RuntimeException failure = null;
+
+	public ReaderMoleculeSource(DefaultIteratingChemObjectReader<?> reader, int start, long count) {
+		this.reader = reader;
+		this.skip = start;
+		this.remaining = count;
+	}
+
+	public boolean hasNext() {
+		if (failure != null) return true;
+		while (skip > 0 && readerHasNext()) {
+			//a record that is skipped may fail to read as well
+			if (failure == null) {
+				try {
+					reader.next();
+				} catch (RuntimeException e) {
+				}
+			}
+			failure = null;
+			records++;
+			skip--;
+		}
+		return remaining > 0 && readerHasNext();
+	}
+
+	public Callable<Molecule> next() {
+		remaining--;
+		records++;
+		Molecule molecule = null;
+		if (failure == null) {
+			try {
+				molecule = (Molecule) reader.next();
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			final CDKException readFailure = new CDKException("Could not read record " + records + ": " + failure.getMessage(), failure);
+			failure = null;
+			return new Callable<Molecule>() {
+				public Molecule call() throws CDKException {
+					throw readFailure;
+				}
+			};
+		}
+		final Molecule mol = molecule;
+		return new Callable<Molecule>() {
+			public Molecule call() {
+				return mol;
+			}
+		};
+	}
+
+	// reader.hasNext(), true with failure set if the reader failed on the next record
+	private boolean readerHasNext() {
+		if (failure != null) return true;
+		try {
+			if (!reader.hasNext()) return false;
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		return true;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
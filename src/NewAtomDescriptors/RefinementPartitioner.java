@@ -0,0 +1,123 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IBond;
+
+// Topological equivalence classes by iterative refinement, a faster alternative to
+// EquivalentClassPartitioner.getTopoEquivClassbyHuXu.
+// Atoms start in classes of equal element, formal charge, implicit hydrogen count, aromaticity and degree.
+// Each round splits the classes by the sorted list of (neighbour class, bond) of their atoms,
+// until a round splits nothing. The result is in the HuXu format: entry atomIndex + 1 holds the
+// class number (from 1) of the atom, entry 0 the number of classes.
+public class RefinementPartitioner {
+
+	public static int[] partition(MoleculeKU molecule) {
+		NeighbourList neighbourList = molecule.getNeighbourList();
+		int atomCount = neighbourList.getAtomCount();
+
+		// bond codes, from order and aromaticity
+		int[] bondCodes = new int[neighbourList.getBondCount()];
+		for (int bondIndex = 0; bondIndex < bondCodes.length; bondIndex++) {
+			IBond bond = molecule.getBond(bondIndex);
+			int order = (bond.getOrder() == null) ? 0 : bond.getOrder().ordinal() + 1;
+			bondCodes[bondIndex] = order * 2 + (bond.getFlag(CDKConstants.ISAROMATIC) ? 1 : 0);
+		}
+
+		// first classes from the atom invariants
+		final long[][] signatures = new long[atomCount][];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			IAtom atom = molecule.getAtom(atomIndex);
+			signatures[atomIndex] = new long[] {
+				atom.getSymbol().hashCode(),
+				(atom.getFormalCharge() == null) ? 0 : atom.getFormalCharge(),
+				(atom.getImplicitHydrogenCount() == null) ? -1 : atom.getImplicitHydrogenCount(),
+				atom.getFlag(CDKConstants.ISAROMATIC) ? 1 : 0,
+				neighbourList.degree(atomIndex)
+			};
+		}
+		int[] classes = new int[atomCount];
+		int classCount = rank(signatures, classes);
+
+		// refine until stable
+		while (classCount < atomCount) {
+			for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+				int degree = neighbourList.degree(atomIndex);
+				long[] signature = new long[degree + 1];
+				signature[0] = classes[atomIndex];
+				int filled = 1;
+				for (int position = neighbourList.start(atomIndex); position < neighbourList.end(atomIndex); position++) {
+					signature[filled++] = (long) classes[neighbourList.neighbour(position)] * 64 + bondCodes[neighbourList.bond(position)];
+				}
+				Arrays.sort(signature, 1, filled);
+				signatures[atomIndex] = signature;
+			}
+			int[] refined = new int[atomCount];
+			int refinedCount = rank(signatures, refined);
+			if (refinedCount == classCount) break;
+			classes = refined;
+			classCount = refinedCount;
+		}
+
+		int[] result = new int[atomCount + 1];
+		result[0] = classCount;
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) result[atomIndex + 1] = classes[atomIndex] + 1;
+		return result;
+	}
+
+	// classes[atom] = rank of the atom's signature among the distinct signatures, returns the number of them
+	// (package visible for CanonicalMolecule)
+	static int rank(final long[][] signatures, int[] classes) {
+		Integer[] order = new Integer[signatures.length];
+		for (int atomIndex = 0; atomIndex < order.length; atomIndex++) order[atomIndex] = atomIndex;
+		Comparator<Integer> bySignature = new Comparator<Integer>() {
+			public int compare(Integer atom0, Integer atom1) {
+				return compareSignatures(signatures[atom0], signatures[atom1]);
+			}
+		};
+		Arrays.sort(order, bySignature);
+		int classCount = 0;
+		for (int sorted = 0; sorted < order.length; sorted++) {
+			if (sorted > 0 && compareSignatures(signatures[order[sorted - 1]], signatures[order[sorted]]) != 0) classCount++;
+			classes[order[sorted]] = classCount;
+		}
+		return (order.length == 0) ? 0 : classCount + 1;
+	}
+
+	private static int compareSignatures(long[] signature0, long[] signature1) {
+		int length = Math.min(signature0.length, signature1.length);
+		for (int index = 0; index < length; index++) {
+			if (signature0[index] != signature1[index]) return (signature0[index] < signature1[index]) ? -1 : 1;
+		}
+		return signature0.length - signature1.length;
+	}
+
+}
@@ -0,0 +1,144 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.tools.manipulator.BondManipulator;
+
+// The rotatable bonds of one molecule as a bitmask over bond indices, for counting them in fragments
+// with the rules of MoleculeKU.FragmentRotableBondsCount: single, not in a ring, both atoms with more than
+// one heavy neighbour, not an amide, thioamide or sulfonamide bond, and neither atom with a triple bond
+// inside the fragment. Only the last rule depends on the fragment, so the others are decided once here,
+// with the atom types coded as an enum instead of compared as strings for every fragment.
+// Bonds whose atoms lack the values the rules need are left to be decided per fragment, as before.
+public class RotatableBondTable {
+
+	// the atom types that make a bond amide like
+	enum AmideAtomType {
+		N_AMIDE, N_THIOAMIDE, N_SP3, C_SP2, S_ONYL, OTHER;
+
+		static AmideAtomType of(String atomTypeName) {
+			if (atomTypeName.equals("N.amide")) return N_AMIDE;
+			if (atomTypeName.equals("N.thioamide")) return N_THIOAMIDE;
+			if (atomTypeName.equals("N.sp3")) return N_SP3;
+			if (atomTypeName.equals("C.sp2")) return C_SP2;
+			if (atomTypeName.equals("S.onyl")) return S_ONYL;
+			return OTHER;
+		}
+	}
+
+	private final MoleculeKU molecule;
+	private final NeighbourList neighbourList;
+	// rotatable bonds, and bonds to decide per fragment, one bit per bond
+	private final long[] candidates;
+	private final long[] undecided;
+	// per atom the neighbours bonded with triple or higher order bonds, null if there are none
+	private final Fragment[] tripleNeighbours;
+
+	public RotatableBondTable(MoleculeKU molecule) {
+		this.molecule = molecule;
+		this.neighbourList = molecule.getNeighbourList();
+		int atomCount = neighbourList.getAtomCount();
+		int bondCount = neighbourList.getBondCount();
+		candidates = new long[(bondCount + 63) >>> 6];
+		undecided = new long[candidates.length];
+		tripleNeighbours = new Fragment[atomCount];
+
+		AmideAtomType[] atomTypes = new AmideAtomType[atomCount];
+		int[] heavyNeighbours = new int[atomCount];
+		boolean[] known = new boolean[atomCount];
+		for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
+			IAtom atom = molecule.getAtom(atomIndex);
+			known[atomIndex] = atom.getFormalNeighbourCount() != null && atom.getImplicitHydrogenCount() != null && atom.getAtomTypeName() != null;
+			if (!known[atomIndex]) continue;
+			heavyNeighbours[atomIndex] = atom.getFormalNeighbourCount() - atom.getImplicitHydrogenCount();
+			atomTypes[atomIndex] = AmideAtomType.of(atom.getAtomTypeName());
+		}
+
+		for (int bondIndex = 0; bondIndex < bondCount; bondIndex++) {
+			IBond bond = molecule.getBond(bondIndex);
+			int atom0Index = neighbourList.bondAtom0(bondIndex);
+			int atom1Index = neighbourList.bondAtom1(bondIndex);
+			if (!BondManipulator.isLowerOrder(bond.getOrder(), IBond.Order.TRIPLE)) {
+				if (tripleNeighbours[atom0Index] == null) tripleNeighbours[atom0Index] = new Fragment(atomCount);
+				if (tripleNeighbours[atom1Index] == null) tripleNeighbours[atom1Index] = new Fragment(atomCount);
+				tripleNeighbours[atom0Index].add(atom1Index);
+				tripleNeighbours[atom1Index].add(atom0Index);
+			}
+			if (bond.getOrder() != CDKConstants.BONDORDER_SINGLE || bond.getFlag(CDKConstants.ISINRING)) continue;
+			if (!known[atom0Index] || !known[atom1Index]) {
+				undecided[bondIndex >>> 6] |= 1L << bondIndex;
+				candidates[bondIndex >>> 6] |= 1L << bondIndex;
+				continue;
+			}
+			if (heavyNeighbours[atom0Index] > 1 && heavyNeighbours[atom1Index] > 1 && !isAmideLike(atomTypes[atom0Index], atomTypes[atom1Index])) {
+				candidates[bondIndex >>> 6] |= 1L << bondIndex;
+			}
+		}
+	}
+
+	// the number of rotatable bonds between atoms of the fragment
+	public int count(Fragment fragment) {
+		int rotatableBonds = 0;
+		for (int wordIndex = 0; wordIndex < candidates.length; wordIndex++) {
+			long bits = candidates[wordIndex];
+			while (bits != 0) {
+				int bondIndex = (wordIndex << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int atom0Index = neighbourList.bondAtom0(bondIndex);
+				int atom1Index = neighbourList.bondAtom1(bondIndex);
+				if (!fragment.contains(atom0Index) || !fragment.contains(atom1Index)) continue;
+				if (hasTripleBondInFragment(atom0Index, fragment) || hasTripleBondInFragment(atom1Index, fragment)) continue;
+				if ((undecided[wordIndex] & (1L << bondIndex)) != 0 && !isRotatable(molecule.getBond(bondIndex))) continue;
+				rotatableBonds++;
+			}
+		}
+		return rotatableBonds;
+	}
+
+	private boolean hasTripleBondInFragment(int atomIndex, Fragment fragment) {
+		return tripleNeighbours[atomIndex] != null && tripleNeighbours[atomIndex].intersects(fragment);
+	}
+
+	// the atom rules on the CDK atoms, as in MoleculeKU, which fails the same way on missing values
+	private static boolean isRotatable(IBond bond) {
+		IAtom atom0 = bond.getAtom(0);
+		IAtom atom1 = bond.getAtom(1);
+		if ((atom0.getFormalNeighbourCount() - atom0.getImplicitHydrogenCount()) <= 1 || (atom1.getFormalNeighbourCount() - atom1.getImplicitHydrogenCount()) <= 1) return false;
+		return !MoleculeKU.IsAmideLikeBond(atom0.getAtomTypeName(), atom1.getAtomTypeName());
+	}
+
+	//amide, thioamide and sulfonamide bonds are not counted as rotable
+	static boolean isAmideLike(AmideAtomType atom0type, AmideAtomType atom1type) {
+		if ((atom0type == AmideAtomType.N_AMIDE || atom0type == AmideAtomType.N_THIOAMIDE) && atom1type == AmideAtomType.C_SP2) return true;
+		if ((atom1type == AmideAtomType.N_AMIDE || atom1type == AmideAtomType.N_THIOAMIDE) && atom0type == AmideAtomType.C_SP2) return true;
+		if ((atom0type == AmideAtomType.N_SP3 && atom1type == AmideAtomType.S_ONYL) || (atom0type == AmideAtomType.S_ONYL && atom1type == AmideAtomType.N_SP3)) return true;
+		return false;
+	}
+
+}
@@ -0,0 +1,323 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import NewAtomDescriptors.MoleculeKU.NEWDESC_PROPERTY;
+
+// Command line options of NewAtomDescriptors.
+// Options start with "--" and take their value either as "--name=value" or as the next argument,
+// everything else is a molecule file.
+public class RunOptions {
+
+	public static final String USAGE = "Usage: java -jar 2DSASA.jar [options] <One or more moleculeFiles>" + '\n'
+			+ "  --threads N                    number of worker threads (default 1)" + '\n'
+			+ "  --distance-engine bfs|floyd    all-pairs distance algorithm (default bfs)" + '\n'
+			+ "  --distance-storage int|packed|offheap|lazy  how distances are kept (default packed)" + '\n'
+			+ "  --distance-rows N              rows a lazy distance matrix keeps (default 256)" + '\n'
+			+ "  --legacy-topology              recompute the distance matrix in every stage" + '\n'
+			+ "  --kernels cdk|native|validate  fragment descriptors from CDK (default), native kernels, or both compared" + '\n'
+			+ "  --fragment-engine loop|sweep|verify  fragment atoms by testing all end atoms (default), by FragmentSweep, or both compared" + '\n'
+			+ "  --columns A,B,...              write (and compute) only these columns, by CSV header name, e.g. Mol_TPSA,Branch_logP" + '\n'
+			+ "  --format csv|columnar          output as CSV text (default) or as binary columns (.afbd)" + '\n'
+			+ "  --resolve-ties                 compare fragments towards equally close end atoms of other symmetry classes only" + '\n'
+			+ "  --max-alternatives N           with --resolve-ties, how many of those are compared with the closest (default 4)" + '\n'
+			+ "  --fused                        find the Mol and Branch fragments together, describe identical ones once" + '\n'
+			+ "  --fragment-cache N             reuse the descriptors of up to N recently seen fragments" + '\n'
+			+ "  --verify-fragment-cache        describe cached fragments anyway and fail if the values differ" + '\n'
+			+ "  --dedup N                      reuse the descriptors of up to N recently seen molecules for duplicates" + '\n'
+			+ "  --verify-dedup                 describe duplicate molecules anyway and count those whose values differ" + '\n'
+			+ "  --sdf-reader stream|mapped     read SD files as a stream (default) or through a memory mapped record index" + '\n'
+			+ "  --start N                      first molecule of each file to describe (default 1)" + '\n'
+			+ "  --count N                      describe at most N molecules of each file" + '\n'
+			+ "  --symmetry off|copy|representatives  describe one atom per symmetry class, copy or write only that one" + '\n'
+			+ "  --partitioner huxu|refine      symmetry classes from CDK's Hu-Xu method (default) or iterative refinement" + '\n'
+			+ "  --stats                        print stage timings, counters and the slowest molecules at the end" + '\n'
+			+ "  --progress S                   print progress every S seconds, 0 for none (default 10)" + '\n'
+			+ "  --schedule                     describe all files at once, largest molecules first, numbered per file" + '\n'
+			+ "  --window N                     molecules per file ordered by size together with --schedule (default 256)" + '\n'
+			+ "  --parallel-atoms N             describe the atoms of molecules with at least N atoms in parallel" + '\n'
+			+ "  --max-atoms N                  skip molecules with more than N heavy atoms" + '\n'
+			+ "  --max-seconds S                stop and skip molecules that take more than S seconds" + '\n'
+			+ "  --quarantine FILE              skip molecules that fail instead of stopping, write skipped ones to FILE (.sdf or SMILES)" + '\n'
+			+ "  --serve                        describe SMILES read from stdin and write CSV rows to stdout, no files needed" + '\n'
+			+ "  --batch N                      describe up to N waiting requests together with --serve (default 64)";
+
+	public enum OutputFormat {
+		CSV, COLUMNAR
+	}
+
+	private final List<String> filenames = new ArrayList<String>();
+	private final DescriptorSettings settings = new DescriptorSettings();
+	private int threads = 1;
+	private OutputFormat format = OutputFormat.CSV;
+	private boolean mappedSdf = false;
+	private int start = 1;
+	private long count = Long.MAX_VALUE;
+	private boolean stats = false;
+	private int progressSeconds = 10;
+	private boolean serve = false;
+	private int batchSize = 64;
+	private boolean schedule = false;
+	private int window = 256;
+	private String quarantine = null;
+
+	public static RunOptions parse(String[] arguments) {
+		RunOptions options = new RunOptions();
+		for (int argumentIndex = 0; argumentIndex < arguments.length; argumentIndex++) {
+			String argument = arguments[argumentIndex];
+			if (!argument.startsWith("--")) {
+				options.filenames.add(argument);
+				continue;
+			}
+			String name = argument;
+			String value = null;
+			int equalsIndex = argument.indexOf('=');
+			if (equalsIndex > 0) {
+				name = argument.substring(0, equalsIndex);
+				value = argument.substring(equalsIndex + 1);
+			}
+			if (name.equals("--legacy-topology")) {
+				options.settings.setCacheTopology(false);
+				continue;
+			}
+			if (name.equals("--resolve-ties")) {
+				options.settings.setResolveTies(true);
+				continue;
+			}
+			if (name.equals("--fused")) {
+				options.settings.setFusedFragments(true);
+				continue;
+			}
+			if (name.equals("--stats")) {
+				options.stats = true;
+				continue;
+			}
+			if (name.equals("--schedule")) {
+				options.schedule = true;
+				continue;
+			}
+			if (name.equals("--serve")) {
+				options.serve = true;
+				continue;
+			}
+			if (name.equals("--verify-dedup")) {
+				options.settings.setVerifyMoleculeCache(true);
+				continue;
+			}
+			if (name.equals("--verify-fragment-cache")) {
+				options.settings.setVerifyFragmentCache(true);
+				continue;
+			}
+			if (value == null) {
+				if (argumentIndex + 1 >= arguments.length) throw new IllegalArgumentException("Missing value for option " + name);
+				value = arguments[++argumentIndex];
+			}
+			if (name.equals("--threads")) {
+				options.threads = parsePositive(name, value);
+			}
+			else if (name.equals("--distance-engine")) {
+				if (value.equals("bfs")) options.settings.setDistanceEngine(new BFSDistanceEngine());
+				else if (value.equals("floyd")) options.settings.setDistanceEngine(new FloydDistanceEngine());
+				else throw new IllegalArgumentException("Unknown distance engine: " + value);
+			}
+			else if (name.equals("--distance-storage")) {
+				if (value.equals("int")) options.settings.setDistanceStorage(DistanceMatrix.Storage.INT);
+				else if (value.equals("packed")) options.settings.setDistanceStorage(DistanceMatrix.Storage.PACKED);
+				else if (value.equals("offheap")) options.settings.setDistanceStorage(DistanceMatrix.Storage.OFF_HEAP);
+				else if (value.equals("lazy")) options.settings.setDistanceStorage(DistanceMatrix.Storage.LAZY);
+				else throw new IllegalArgumentException("Unknown distance storage: " + value);
+			}
+			else if (name.equals("--distance-rows")) {
+				options.settings.setDistanceRows(parsePositive(name, value));
+			}
+			else if (name.equals("--kernels")) {
+				if (value.equals("cdk")) options.settings.setDescriptorKernel(DescriptorSettings.DescriptorKernel.CDK);
+				else if (value.equals("native")) options.settings.setDescriptorKernel(DescriptorSettings.DescriptorKernel.NATIVE);
+				else if (value.equals("validate")) options.settings.setDescriptorKernel(DescriptorSettings.DescriptorKernel.VALIDATE);
+				else throw new IllegalArgumentException("Unknown descriptor kernels: " + value);
+			}
+			else if (name.equals("--fragment-engine")) {
+				if (value.equals("loop")) options.settings.setFragmentEngine(DescriptorSettings.FragmentEngine.LOOP);
+				else if (value.equals("sweep")) options.settings.setFragmentEngine(DescriptorSettings.FragmentEngine.SWEEP);
+				else if (value.equals("verify")) options.settings.setFragmentEngine(DescriptorSettings.FragmentEngine.VERIFY);
+				else throw new IllegalArgumentException("Unknown fragment engine: " + value);
+			}
+			else if (name.equals("--max-alternatives")) {
+				options.settings.setMaxAlternatives(parsePositive(name, value));
+			}
+			else if (name.equals("--fragment-cache")) {
+				options.settings.setFragmentCache(new FragmentDescriptorCache(parsePositive(name, value)));
+			}
+			else if (name.equals("--dedup")) {
+				options.settings.setMoleculeCache(new MoleculeResultCache(parsePositive(name, value)));
+			}
+			else if (name.equals("--sdf-reader")) {
+				if (value.equals("stream")) options.mappedSdf = false;
+				else if (value.equals("mapped")) options.mappedSdf = true;
+				else throw new IllegalArgumentException("Unknown SD file reader: " + value);
+			}
+			else if (name.equals("--symmetry")) {
+				if (value.equals("off")) options.settings.setSymmetryMode(DescriptorSettings.SymmetryMode.OFF);
+				else if (value.equals("copy")) options.settings.setSymmetryMode(DescriptorSettings.SymmetryMode.COPY);
+				else if (value.equals("representatives")) options.settings.setSymmetryMode(DescriptorSettings.SymmetryMode.REPRESENTATIVES);
+				else throw new IllegalArgumentException("Unknown symmetry mode: " + value);
+			}
+			else if (name.equals("--partitioner")) {
+				if (value.equals("huxu")) options.settings.setPartitioner(DescriptorSettings.Partitioner.HUXU);
+				else if (value.equals("refine")) options.settings.setPartitioner(DescriptorSettings.Partitioner.REFINE);
+				else throw new IllegalArgumentException("Unknown partitioner: " + value);
+			}
+			else if (name.equals("--progress")) {
+				options.progressSeconds = (value.equals("0")) ? 0 : parsePositive(name, value);
+			}
+			else if (name.equals("--parallel-atoms")) {
+				options.settings.setParallelAtoms(parsePositive(name, value));
+			}
+			else if (name.equals("--max-atoms")) {
+				options.settings.setMaxAtoms(parsePositive(name, value));
+			}
+			else if (name.equals("--max-seconds")) {
+				options.settings.setMaxSeconds(parsePositive(name, value));
+			}
+			else if (name.equals("--quarantine")) {
+				options.quarantine = value;
+			}
+			else if (name.equals("--window")) {
+				options.window = parsePositive(name, value);
+			}
+			else if (name.equals("--batch")) {
+				options.batchSize = parsePositive(name, value);
+			}
+			else if (name.equals("--start")) {
+				options.start = parsePositive(name, value);
+			}
+			else if (name.equals("--count")) {
+				options.count = parsePositive(name, value);
+			}
+			else if (name.equals("--columns")) {
+				options.settings.setColumns(parseColumns(value));
+			}
+			else if (name.equals("--format")) {
+				if (value.equals("csv")) options.format = OutputFormat.CSV;
+				else if (value.equals("columnar")) options.format = OutputFormat.COLUMNAR;
+				else throw new IllegalArgumentException("Unknown output format: " + value);
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+		if (options.settings.isVerifyFragmentCache() && options.settings.getFragmentCache() == null) {
+			throw new IllegalArgumentException("--verify-fragment-cache needs --fragment-cache");
+		}
+		if (options.settings.isVerifyMoleculeCache() && options.settings.getMoleculeCache() == null) {
+			throw new IllegalArgumentException("--verify-dedup needs --dedup");
+		}
+		return options;
+	}
+
+	static NEWDESC_PROPERTY[] parseColumns(String value) {
+		List<NEWDESC_PROPERTY> columns = new ArrayList<NEWDESC_PROPERTY>();
+		for (String name : value.split(",")) {
+			NEWDESC_PROPERTY column = NEWDESC_PROPERTY.forColumnName(name.trim());
+			if (column == null) throw new IllegalArgumentException("Unknown column: " + name);
+			if (!columns.contains(column)) columns.add(column);
+		}
+		return columns.toArray(new NEWDESC_PROPERTY[columns.size()]);
+	}
+
+	static int parsePositive(String name, String value) {
+		int number;
+		try {
+			number = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Option " + name + " needs a number, got " + value);
+		}
+		if (number < 1) throw new IllegalArgumentException("Option " + name + " must be at least 1");
+		return number;
+	}
+
+	public String[] getFilenames() {
+		return filenames.toArray(new String[filenames.size()]);
+	}
+
+	public DescriptorSettings getSettings() {
+		return settings;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public OutputFormat getFormat() {
+		return format;
+	}
+
+	public boolean isMappedSdf() {
+		return mappedSdf;
+	}
+
+	// counting from 1
+	public int getStart() {
+		return start;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean isStats() {
+		return stats;
+	}
+
+	public int getProgressSeconds() {
+		return progressSeconds;
+	}
+
+	public boolean isServe() {
+		return serve;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public boolean isSchedule() {
+		return schedule;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	// the file for skipped molecules, null if failures stop the run
+	public String getQuarantine() {
+		return quarantine;
+	}
+
+}
@@ -0,0 +1,223 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Byte offsets of the records of an SD file, found by scanning a memory map of the file for "$$$$" lines.
+// The scan is split in chunks over several threads. Records are read back as text from the map,
+// from any thread, so parsing can be done by the workers.
+// The file is mapped in windows that overlap by MAX_MAPPED_RECORD, so files larger than one map work,
+// the rare record longer than that is read with a positional read instead.
+public class SdfRecordIndex {
+
+	private static final long SCAN_CHUNK = 64L << 20;
+	private static final long WINDOW = 1L << 30;
+	private static final long MAX_MAPPED_RECORD = 64L << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final MappedByteBuffer[] windows;
+	private final Charset charset = Charset.defaultCharset();
+	// record i is the text from recordStarts[i] up to recordEnds[i], the start of its "$$$$" line
+	private long[] recordStarts;
+	private long[] recordEnds;
+	private int recordCount = 0;
+
+	public SdfRecordIndex(File path, int threads) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		try {
+			size = channel.size();
+			windows = new MappedByteBuffer[(int) ((size + WINDOW - 1) / WINDOW)];
+			for (int window = 0; window < windows.length; window++) {
+				long start = window * WINDOW;
+				windows[window] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, WINDOW + MAX_MAPPED_RECORD));
+			}
+			build(scan(threads));
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	public long getRecordStart(int record) {
+		return recordStarts[record];
+	}
+
+	public long getRecordEnd(int record) {
+		return recordEnds[record];
+	}
+
+	// the text of a record, without its "$$$$" line
+	public String readRecord(int record) throws IOException {
+		long start = recordStarts[record];
+		int length = (int) (recordEnds[record] - start);
+		byte[] bytes = new byte[length];
+		int window = (int) (start / WINDOW);
+		long windowOffset = start - window * WINDOW;
+		if (windowOffset + length <= windows[window].capacity()) {
+			// a view of our own, the shared buffer's position is never moved
+			ByteBuffer view = windows[window].duplicate();
+			view.position((int) windowOffset);
+			view.get(bytes);
+		}
+		else {
+			ByteBuffer target = ByteBuffer.wrap(bytes);
+			while (target.hasRemaining()) {
+				if (channel.read(target, start + target.position()) < 0) throw new IOException("Unexpected end of file");
+			}
+		}
+		return new String(bytes, charset);
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	// the positions of all lines that start with "$$$$", in file order
+	private long[] scan(int threads) throws IOException {
+		int chunkCount = (int) ((size + SCAN_CHUNK - 1) / SCAN_CHUNK);
+		List<long[]> chunks = new ArrayList<long[]>();
+		if (threads <= 1 || chunkCount <= 1) {
+			for (int chunk = 0; chunk < chunkCount; chunk++) chunks.add(scanChunk(chunk * SCAN_CHUNK, Math.min(size, (chunk + 1) * SCAN_CHUNK)));
+		}
+		else {
+			ExecutorService scanners = Executors.newFixedThreadPool(Math.min(threads, chunkCount));
+			try {
+				List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+				for (int chunk = 0; chunk < chunkCount; chunk++) {
+					final long from = chunk * SCAN_CHUNK;
+					final long to = Math.min(size, from + SCAN_CHUNK);
+					results.add(scanners.submit(new Callable<long[]>() {
+						public long[] call() throws IOException {
+							return scanChunk(from, to);
+						}
+					}));
+				}
+				for (Future<long[]> result : results) chunks.add(result.get());
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while indexing", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException("Indexing failed", e.getCause());
+			} finally {
+				scanners.shutdownNow();
+			}
+		}
+		int total = 0;
+		for (long[] chunk : chunks) total += chunk.length;
+		long[] delimiters = new long[total];
+		int filled = 0;
+		for (long[] chunk : chunks) {
+			System.arraycopy(chunk, 0, delimiters, filled, chunk.length);
+			filled += chunk.length;
+		}
+		return delimiters;
+	}
+
+	// delimiter lines that start in [from, to)
+	private long[] scanChunk(long from, long to) throws IOException {
+		long mapStart = Math.max(0, from - 1);
+		long mapEnd = Math.min(size, to + 4);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+		long[] found = new long[64];
+		int foundCount = 0;
+		int mapLength = (int) (mapEnd - mapStart);
+		if (from == 0 && isDelimiter(buffer, 0, mapLength)) found[foundCount++] = 0;
+		int last = (int) (to - 1 - mapStart);
+		for (int index = (int) (Math.max(from, 1) - 1 - mapStart); index <= last; index++) {
+			if (buffer.get(index) != '\n') continue;
+			int lineStart = index + 1;
+			if (mapStart + lineStart >= to || !isDelimiter(buffer, lineStart, mapLength)) continue;
+			if (foundCount == found.length) {
+				long[] grown = new long[found.length * 2];
+				System.arraycopy(found, 0, grown, 0, foundCount);
+				found = grown;
+			}
+			found[foundCount++] = mapStart + lineStart;
+		}
+		long[] result = new long[foundCount];
+		System.arraycopy(found, 0, result, 0, foundCount);
+		return result;
+	}
+
+	private static boolean isDelimiter(ByteBuffer buffer, int index, int length) {
+		return index + 4 <= length && buffer.get(index) == '$' && buffer.get(index + 1) == '$'
+				&& buffer.get(index + 2) == '$' && buffer.get(index + 3) == '$';
+	}
+
+	private void build(long[] delimiters) {
+		recordStarts = new long[delimiters.length + 1];
+		recordEnds = new long[delimiters.length + 1];
+		long start = 0;
+		for (long delimiter : delimiters) {
+			recordStarts[recordCount] = start;
+			recordEnds[recordCount] = delimiter;
+			recordCount++;
+			start = lineEnd(delimiter);
+		}
+		// text after the last "$$$$" is a record too, unless it is only white space
+		for (long position = start; position < size; position++) {
+			if (!Character.isWhitespace(byteAt(position))) {
+				recordStarts[recordCount] = start;
+				recordEnds[recordCount] = size;
+				recordCount++;
+				break;
+			}
+		}
+	}
+
+	// the position after the end of the line at position
+	private long lineEnd(long position) {
+		while (position < size && byteAt(position) != '\n') position++;
+		return Math.min(size, position + 1);
+	}
+
+	private char byteAt(long position) {
+		int window = (int) (position / WINDOW);
+		return (char) (windows[window].get((int) (position - window * WINDOW)) & 0xFF);
+	}
+
+}
@@ -0,0 +1,111 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package NewAtomDescriptors;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.aromaticity.CDKHueckelAromaticityDetector;
+import org.openscience.cdk.atomtype.CDKAtomTypeMatcher;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IAtomType;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+import org.openscience.cdk.tools.manipulator.AtomTypeManipulator;
+
+// Prepares a molecule as read from file for MoleculeKU: removes explicit hydrogens, perceives and configures
+// atom types, adds implicit hydrogens and detects aromaticity, as NewAtomDescriptors.standardise always did.
+// The atom type matcher and the hydrogen adder are looked up once and kept, one Standardiser per thread
+// (forThread). removeHydrogens makes the only copy, the molecule read is not changed, and the other steps
+// work on that copy in place. The atom type pass also numbers the atoms (their IDs) and sets their charges
+// to the formal charges, which MoleculeKU and setSymmetryNumbers would otherwise do on the finished molecule
+// one change notification at a time, so MoleculeKU takes the container as it is.
+// Every step is a stage in PipelineStats, timed and with the bytes it allocates.
+// Not thread safe.
+public class Standardiser {
+
+	private static final ThreadLocal<Standardiser> STANDARDISERS = new ThreadLocal<Standardiser>() {
+		protected Standardiser initialValue() {
+			return new Standardiser();
+		}
+	};
+
+	private final IChemObjectBuilder builder;
+	private final CDKAtomTypeMatcher matcher;
+	private final CDKHydrogenAdder adder;
+
+	public Standardiser() {
+		builder = DefaultChemObjectBuilder.getInstance();
+		matcher = CDKAtomTypeMatcher.getInstance(builder);
+		adder = CDKHydrogenAdder.getInstance(builder);
+	}
+
+	// the Standardiser of the calling thread
+	public static Standardiser forThread() {
+		return STANDARDISERS.get();
+	}
+
+	// Returns a new container, the molecule read from file is not changed
+	public IAtomContainer standardise(IAtomContainer mol, PipelineStats stats) throws CDKException {
+		IAtomContainer iAtomContainer;
+
+		long start = stats.start();
+		long allocated = stats.startAllocation();
+		iAtomContainer = AtomContainerManipulator.removeHydrogens(mol);
+		stats.endAllocation(PipelineStats.Stage.REMOVE_HYDROGENS, allocated);
+		stats.end(PipelineStats.Stage.REMOVE_HYDROGENS, start);
+
+		start = stats.start();
+		allocated = stats.startAllocation();
+		//as AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms, with the kept matcher
+		CDKAtomTypeMatcher containerMatcher = (iAtomContainer.getBuilder() == builder) ? matcher : CDKAtomTypeMatcher.getInstance(iAtomContainer.getBuilder());
+		for (int atomIndex = 0; atomIndex < iAtomContainer.getAtomCount(); atomIndex++) {
+			IAtom atom = iAtomContainer.getAtom(atomIndex);
+			IAtomType atomType = containerMatcher.findMatchingAtomType(iAtomContainer, atom);
+			if (atomType != null) AtomTypeManipulator.configure(atom, atomType);
+			//the IDs MoleculeKU gives, and the charges setSymmetryNumbers needs
+			atom.setID(String.valueOf(atomIndex + 1));
+			if (atom.getFormalCharge() != null) atom.setCharge((double) atom.getFormalCharge());
+		}
+		stats.endAllocation(PipelineStats.Stage.ATOM_TYPES, allocated);
+		stats.end(PipelineStats.Stage.ATOM_TYPES, start);
+
+		start = stats.start();
+		allocated = stats.startAllocation();
+		adder.addImplicitHydrogens(iAtomContainer);
+		stats.endAllocation(PipelineStats.Stage.ADD_HYDROGENS, allocated);
+		stats.end(PipelineStats.Stage.ADD_HYDROGENS, start);
+
+		start = stats.start();
+		allocated = stats.startAllocation();
+		CDKHueckelAromaticityDetector.detectAromaticity(iAtomContainer);
+		stats.endAllocation(PipelineStats.Stage.AROMATICITY, allocated);
+		stats.end(PipelineStats.Stage.AROMATICITY, start);
+		return iAtomContainer;
+	}
+
+}
@@ -0,0 +1,112 @@
+/* 
+ * Copyright (C) 2012 Patrik Rydberg <patrik.rydberg@gmail.com>
+ * 
+ * Contact: pry@farma.ku.dk
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ * All we ask is that proper credit is given for our work, which includes
+ * - but is not limited to - adding the above copyright notice to the beginning
+ * of your source code files, and to any copyright notice that you may distribute
+ * with programs based on this work.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package NewAtomDescriptors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+
+import org.openscience.cdk.Molecule;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.io.MDLV2000Reader;
+
+// Molecules of an SD file read line by line (--sdf-reader stream). The records are split at the "$$$$" lines
+// here and the jobs returned by next() parse their own record, as MappedSdfMoleculeSource does.
+// IteratingMDLReader is not used: its hasNext() returns false at a record it cannot parse, which would end
+// the file there. A record MDLV2000Reader fails on gives a job that throws, so it is skipped under its own
+// number and the records after it keep theirs.
+// The first start records are skipped, at most count molecules are returned.
+public class StreamSdfMoleculeSource implements MoleculeSource {
+
+	private final BufferedReader reader;
+	private int skip;
+	private long remaining;
+	// records taken, the text of the next record once it is read, and whether the file has ended
+	private int records = 0;
+	private String nextRecord = null;
+	private boolean ended = false;
+
+	public StreamSdfMoleculeSource(Reader reader, int start, long count) {
+		this.reader = new BufferedReader(reader);
+		this.skip = start;
+		this.remaining = count;
+	}
+
+	public boolean hasNext() throws IOException {
+		while (skip > 0 && readRecord()) {
+			nextRecord = null;
+			records++;
+			skip--;
+		}
+		return remaining > 0 && readRecord();
+	}
+
+	public Callable<Molecule> next() throws IOException {
+		if (!readRecord()) throw new IOException("No more SD records");
+		remaining--;
+		final int record = ++records;
+		final String text = nextRecord;
+		nextRecord = null;
+		return new Callable<Molecule>() {
+			public Molecule call() throws Exception {
+				MDLV2000Reader reader = new MDLV2000Reader(new StringReader(text));
+				try {
+					return reader.read(new Molecule());
+				} catch (CDKException e) {
+					throw new CDKException("Could not read SD record " + record + ": " + e.getMessage(), e);
+				} finally {
+					reader.close();
+				}
+			}
+		};
+	}
+
+	// the text of the next record, without its "$$$$" line, into nextRecord; text after the last "$$$$"
+	// is a record too unless it is only white space, as in SdfRecordIndex
+	private boolean readRecord() throws IOException {
+		if (nextRecord != null) return true;
+		if (ended) return false;
+		StringBuilder text = new StringBuilder();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("$$$$")) {
+				nextRecord = text.toString();
+				return true;
+			}
+			text.append(line).append('\n');
+		}
+		ended = true;
+		if (text.toString().trim().length() == 0) return false;
+		nextRecord = text.toString();
+		return true;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}